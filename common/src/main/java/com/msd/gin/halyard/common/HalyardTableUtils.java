@@ -24,7 +24,9 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
 import java.util.TreeSet;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
@@ -33,8 +35,10 @@ import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.compress.Compression;
@@ -90,7 +94,21 @@ public final class HalyardTableUtils {
      */
     public static final byte COSP_PREFIX = 5;
 
+    /**
+     * Property defining comma separated names of the indices built for a new table (any of SPO, POS, OSP, CSPO, CPOS, COSP).
+     * SPO index is always built as it can serve any Statement pattern, all the indices are built by default.
+     */
+    public static final String INDICES_PROPERTY = "halyard.table.indices";
+
+    /**
+     * Bit mask of all the indices, each index is represented by the bit (1 &lt;&lt; index prefix)
+     */
+    public static final int ALL_INDICES = 0x3f;
+
     private static final int PREFIXES = 3;
+    private static final String INDEX_NAMES[] = {"SPO", "POS", "OSP", "CSPO", "CPOS", "COSP"};
+    //key components of each index, 0 = subject, 1 = predicate, 2 = object, 3 = context
+    private static final int INDEX_COMPONENTS[][] = {{0, 1, 2}, {1, 2, 0}, {2, 0, 1}, {3, 0, 1, 2}, {3, 1, 2, 0}, {3, 2, 0, 1}};
     private static final byte[] START_KEY = new byte[20];
     static final byte[] STOP_KEY = new byte[20];
     static {
@@ -103,6 +121,11 @@ public final class HalyardTableUtils {
     private static final String REGION_SPLIT_POLICY = "org.apache.hadoop.hbase.regionserver.ConstantSizeRegionSplitPolicy";
     private static final String HALYARD_VERSION_ATTRIBUTE = "HALYARD_VERSION";
     private static final String HALYARD_VERSION = "1";
+    private static final String HALYARD_INDICES_ATTRIBUTE = "HALYARD_INDICES";
+    private static final byte[] MODIFICATION_MARKER_ROW = new byte[]{(byte)0xff};
+    private static final byte[] MODIFICATION_MARKER_QUALIFIER = "modified".getBytes(UTF8);
+    private static final Random MODIFICATION_MARKER_RANDOM = new Random();
+    private static final String AGGREGATE_COPROCESSOR = "org.apache.hadoop.hbase.coprocessor.AggregateImplementation";
 
     private static final ThreadLocal<MessageDigest> MD = new ThreadLocal<MessageDigest>(){
         @Override
@@ -134,6 +157,9 @@ public final class HalyardTableUtils {
                     HTableDescriptor td = new HTableDescriptor(tableName);
                     td.addFamily(createColumnFamily());
                     td.setValue(HALYARD_VERSION_ATTRIBUTE, HALYARD_VERSION);
+                    td.setValue(HALYARD_INDICES_ATTRIBUTE, toIndicesString(parseIndices(config.get(INDICES_PROPERTY))));
+                    //region-side aggregation endpoint used for exact statement counting
+                    td.addCoprocessor(AGGREGATE_COPROCESSOR);
                     admin.createTable(td, splitBits < 0 ? null : calculateSplits(splitBits, contextSplitBitsMap));
                 }
             }
@@ -148,6 +174,57 @@ public final class HalyardTableUtils {
         return table;
     }
 
+    /**
+     * Reads the indices built for the table
+     * @param table HTable
+     * @return int bit mask of the indices, see {@link #ALL_INDICES}
+     * @throws IOException throws IOException in case of any HBase IO problems
+     */
+    public static int getIndices(HTable table) throws IOException {
+        return parseIndices(table.getTableDescriptor().getValue(HALYARD_INDICES_ATTRIBUTE));
+    }
+
+    /**
+     * Parses comma separated index names, SPO index is always included
+     * @param indices String comma separated index names or null for all indices
+     * @return int bit mask of the indices, see {@link #ALL_INDICES}
+     */
+    public static int parseIndices(String indices) {
+        if (indices == null) {
+            return ALL_INDICES;
+        }
+        int mask = 1 << SPO_PREFIX;
+        for (String name : indices.split(",")) {
+            name = name.trim();
+            if (name.length() > 0) {
+                int prefix = Arrays.asList(INDEX_NAMES).indexOf(name.toUpperCase(Locale.ENGLISH));
+                if (prefix < 0) {
+                    throw new IllegalArgumentException("Unknown index " + name + ", expected any of " + Arrays.toString(INDEX_NAMES));
+                }
+                mask |= 1 << prefix;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Formats the indices bit mask as comma separated index names
+     * @param indices int bit mask of the indices, see {@link #ALL_INDICES}
+     * @return String comma separated index names
+     */
+    public static String toIndicesString(int indices) {
+        StringBuilder sb = new StringBuilder();
+        for (int prefix = 0; prefix < INDEX_NAMES.length; prefix++) {
+            if ((indices & (1 << prefix)) != 0) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(INDEX_NAMES[prefix]);
+            }
+        }
+        return sb.toString();
+    }
+
     /**
      * Truncates HTable with preserving the region pre-splits
      * @param table HTable to truncate
@@ -167,7 +244,35 @@ public final class HalyardTableUtils {
             admin.deleteTable(desc.getTableName());
             admin.createTable(desc, presplits);
         }
-        return HalyardTableUtils.getTable(conf, desc.getTableName().getNameAsString(), false, 0, null);
+        HTable truncated = HalyardTableUtils.getTable(conf, desc.getTableName().getNameAsString(), false, 0, null);
+        markModified(truncated);
+        return truncated;
+    }
+
+    /**
+     * Writes a new random table modification marker, so all the table readers caching query results can recognize the table content has changed.
+     * The marker is stored in a dedicated row outside of all the index key ranges.
+     * @param table HTable that has been modified
+     * @throws IOException throws IOException in case of any HBase IO problems
+     */
+    public static void markModified(HTable table) throws IOException {
+        long marker;
+        synchronized (MODIFICATION_MARKER_RANDOM) {
+            marker = MODIFICATION_MARKER_RANDOM.nextLong();
+        }
+        table.put(new Put(MODIFICATION_MARKER_ROW).add(CF_NAME, MODIFICATION_MARKER_QUALIFIER, Bytes.toBytes(marker)));
+        table.flushCommits();
+    }
+
+    /**
+     * Reads the actual table modification marker
+     * @param table HTable
+     * @return long modification marker written by the last {@link #markModified(HTable)} or 0 if the table has never been marked
+     * @throws IOException throws IOException in case of any HBase IO problems
+     */
+    public static long getModificationMarker(HTable table) throws IOException {
+        byte[] value = table.get(new Get(MODIFICATION_MARKER_ROW).addColumn(CF_NAME, MODIFICATION_MARKER_QUALIFIER)).getValue(CF_NAME, MODIFICATION_MARKER_QUALIFIER);
+        return value == null || value.length != Bytes.SIZEOF_LONG ? 0 : Bytes.toLong(value);
     }
 
     static byte[][] calculateSplits(int splitBits, Map<String, Integer> contextSplitBitsMap) {
@@ -223,6 +328,19 @@ public final class HalyardTableUtils {
      * @return array of KeyValues
      */
     public static KeyValue[] toKeyValues(Resource subj, IRI pred, Value obj, Resource context) {
+        return toKeyValues(subj, pred, obj, context, ALL_INDICES);
+    }
+
+    /**
+     * Conversion method from Subj, Pred, Obj and optional Context into an array of HBase keys of the given indices only
+     * @param subj subject Resource
+     * @param pred predicate IRI
+     * @param obj object Value
+     * @param context optional context Resource
+     * @param indices int bit mask of the indices, see {@link #ALL_INDICES}
+     * @return array of KeyValues, the SPO KeyValue is always the first one
+     */
+    public static KeyValue[] toKeyValues(Resource subj, IRI pred, Value obj, Resource context, int indices) {
         byte[] sb = NTriplesUtil.toNTriplesString(subj).getBytes(UTF8);
         byte[] pb = NTriplesUtil.toNTriplesString(pred).getBytes(UTF8);
         byte[] ob = NTriplesUtil.toNTriplesString(obj).getBytes(UTF8);
@@ -241,7 +359,16 @@ public final class HalyardTableUtils {
             kv[4] = new KeyValue(concat(CPOS_PREFIX, false, cKey, pKey, oKey, sKey), CF_NAME, cq, EMPTY);
             kv[5] = new KeyValue(concat(COSP_PREFIX, false, cKey, oKey, sKey, pKey), CF_NAME, cq, EMPTY);
         }
-        return kv;
+        if ((indices & ALL_INDICES) == ALL_INDICES) {
+            return kv;
+        }
+        List<KeyValue> selected = new ArrayList<>(kv.length);
+        for (int prefix = 0; prefix < kv.length; prefix++) {
+            if (prefix == SPO_PREFIX || (indices & (1 << prefix)) != 0) {
+                selected.add(kv[prefix]);
+            }
+        }
+        return selected.toArray(new KeyValue[selected.size()]);
     }
 
     /**
@@ -253,67 +380,198 @@ public final class HalyardTableUtils {
      * @return HBase Scan instance to retrieve all data potentially matching the Statement pattern
      */
     public static Scan scan(Resource subj, IRI pred, Value obj, Resource ctx) {
-        if (ctx == null) {
-            if (subj == null) {
-                if (pred == null) {
-                    if (obj == null) {
-                        return scan(concat(SPO_PREFIX, false), concat(SPO_PREFIX, true, STOP_KEY, STOP_KEY, STOP_KEY), false);
-                    } else {
-                        return scan(OSP_PREFIX, hashKey(NTriplesUtil.toNTriplesString(obj).getBytes(UTF8)));
-                    }
-                } else {
-                    if (obj == null) {
-                        return scan(POS_PREFIX, hashKey(NTriplesUtil.toNTriplesString(pred).getBytes(UTF8)));
-                    } else {
-                        return scan(POS_PREFIX, hashKey(NTriplesUtil.toNTriplesString(pred).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(obj).getBytes(UTF8)));
-                    }
-                }
-            } else {
-                if (pred == null) {
-                    if (obj == null) {
-                        return scan(SPO_PREFIX, hashKey(NTriplesUtil.toNTriplesString(subj).getBytes(UTF8)));
-                    } else {
-                        return scan(OSP_PREFIX, hashKey(NTriplesUtil.toNTriplesString(obj).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(subj).getBytes(UTF8)));
-                    }
-                } else {
-                    if (obj == null) {
-                        return scan(SPO_PREFIX, hashKey(NTriplesUtil.toNTriplesString(subj).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(pred).getBytes(UTF8)));
-                    } else {
-                        return scan(SPO_PREFIX, hashKey(NTriplesUtil.toNTriplesString(subj).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(pred).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(obj).getBytes(UTF8)));
-                    }
-                }
+        return scan(subj, pred, obj, ctx, ALL_INDICES);
+    }
+
+    /**
+     * Method constructing HBase Scan from a Statement pattern over the best of the available indices, any of the Statement pattern arguments can be null.
+     * When the context is given and no contextual index is available, the Scan retrieves Statements of all contexts, so they have to be filtered.
+     * @param subj optional subject Resource
+     * @param pred optional predicate IRI
+     * @param obj optional object Value
+     * @param ctx optional context Resource
+     * @param indices int bit mask of the available indices, see {@link #ALL_INDICES}
+     * @return HBase Scan instance to retrieve all data potentially matching the Statement pattern
+     */
+    public static Scan scan(Resource subj, IRI pred, Value obj, Resource ctx, int indices) {
+        return scan(subj, pred, obj, ctx, indices, null, null);
+    }
+
+    /**
+     * Method constructing HBase Scan from a Statement pattern over the best of the available indices,
+     * restricted to a range of the hash keys of the component leading the order of the retrieved Statements (see {@link #getOrderingComponent(Resource, IRI, Value, Resource, int)}).
+     * The range is ignored for the fully bound Statement patterns.
+     * @param subj optional subject Resource
+     * @param pred optional predicate IRI
+     * @param obj optional object Value
+     * @param ctx optional context Resource
+     * @param indices int bit mask of the available indices, see {@link #ALL_INDICES}
+     * @param startKey optional inclusive lower bound of the hash key of the ordering component, null for unbounded
+     * @param stopKey optional exclusive upper bound of the hash key of the ordering component, null for unbounded
+     * @return HBase Scan instance to retrieve all data potentially matching the Statement pattern within the hash key range
+     */
+    public static Scan scan(Resource subj, IRI pred, Value obj, Resource ctx, int indices, byte[] startKey, byte[] stopKey) {
+        Value values[] = new Value[] {subj, pred, obj, ctx};
+        byte prefix = selectIndex(subj, pred, obj, ctx, indices);
+        int components[] = INDEX_COMPONENTS[prefix];
+        int length = getBoundLength(prefix, values);
+        byte keys[][] = new byte[components.length][];
+        for (int i = 0; i < components.length; i++) {
+            keys[i] = i < length ? hashKey(NTriplesUtil.toNTriplesString(values[components[i]]).getBytes(UTF8)) : STOP_KEY;
+        }
+        byte startRow[] = concat(prefix, false, Arrays.copyOf(keys, length));
+        byte stopRow[] = concat(prefix, true, keys);
+        if (length < components.length) {
+            byte range[][] = Arrays.copyOf(keys, length + 1);
+            if (startKey != null) {
+                range[length] = startKey;
+                startRow = concat(prefix, false, range);
             }
-        } else {
-            if (subj == null) {
-                if (pred == null) {
-                    if (obj == null) {
-                        return scan(CSPO_PREFIX, hashKey(NTriplesUtil.toNTriplesString(ctx).getBytes(UTF8)));
-                    } else {
-                        return scan(COSP_PREFIX, hashKey(NTriplesUtil.toNTriplesString(ctx).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(obj).getBytes(UTF8)));
-                    }
-                } else {
-                    if (obj == null) {
-                        return scan(CPOS_PREFIX, hashKey(NTriplesUtil.toNTriplesString(ctx).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(pred).getBytes(UTF8)));
-                    } else {
-                        return scan(CPOS_PREFIX, hashKey(NTriplesUtil.toNTriplesString(ctx).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(pred).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(obj).getBytes(UTF8)));
-                    }
-                }
-            } else {
-                if (pred == null) {
-                    if (obj == null) {
-                        return scan(CSPO_PREFIX, hashKey(NTriplesUtil.toNTriplesString(ctx).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(subj).getBytes(UTF8)));
-                    } else {
-                        return scan(COSP_PREFIX, hashKey(NTriplesUtil.toNTriplesString(ctx).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(obj).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(subj).getBytes(UTF8)));
-                    }
-                } else {
-                    if (obj == null) {
-                        return scan(CSPO_PREFIX, hashKey(NTriplesUtil.toNTriplesString(ctx).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(subj).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(pred).getBytes(UTF8)));
-                    } else {
-                        return scan(CSPO_PREFIX, hashKey(NTriplesUtil.toNTriplesString(ctx).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(subj).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(pred).getBytes(UTF8)), hashKey(NTriplesUtil.toNTriplesString(obj).getBytes(UTF8)));
-                    }
+            if (stopKey != null) {
+                range[length] = stopKey;
+                stopRow = concat(prefix, false, range);
+            }
+        }
+        return scan(startRow, stopRow, length > 1);
+    }
+
+    /**
+     * Method selecting the index with the longest key prefix bound by the Statement pattern.
+     * Contextual indices are preferred for the Statement patterns with context and never used for the Statement patterns without context.
+     * @param subj optional subject Resource
+     * @param pred optional predicate IRI
+     * @param obj optional object Value
+     * @param ctx optional context Resource
+     * @param indices int bit mask of the available indices, see {@link #ALL_INDICES}
+     * @return byte prefix of the selected index
+     */
+    public static byte selectIndex(Resource subj, IRI pred, Value obj, Resource ctx, int indices) {
+        Value values[] = new Value[] {subj, pred, obj, ctx};
+        int best = SPO_PREFIX, bestLength = -1;
+        for (int i = 0; i < 2 * PREFIXES; i++) {
+            int prefix = ctx == null ? i : (i + PREFIXES) % (2 * PREFIXES);
+            if ((ctx != null || prefix < PREFIXES) && (indices & (1 << prefix)) != 0) {
+                int length = getBoundLength(prefix, values);
+                if (length > bestLength) {
+                    best = prefix;
+                    bestLength = length;
                 }
             }
         }
+        return (byte)best;
+    }
+
+    /**
+     * Method constructing HBase Get of the single row holding all occurrences of a fully bound Statement pattern
+     * @param subj subject Resource
+     * @param pred predicate IRI
+     * @param obj object Value
+     * @param ctx optional context Resource
+     * @return HBase Get instance of the SPO (or CSPO for the given context) row, or null if the Statement pattern is not fully bound
+     */
+    public static Get get(Resource subj, IRI pred, Value obj, Resource ctx) {
+        return get(subj, pred, obj, ctx, ALL_INDICES);
+    }
+
+    /**
+     * Method constructing HBase Get of the single row holding all occurrences of a fully bound Statement pattern
+     * @param subj subject Resource
+     * @param pred predicate IRI
+     * @param obj object Value
+     * @param ctx optional context Resource
+     * @param indices int bit mask of the available indices, see {@link #ALL_INDICES}
+     * @return HBase Get instance of the row of the index selected by {@link #selectIndex(Resource, IRI, Value, Resource, int)}, or null if the Statement pattern is not fully bound
+     */
+    public static Get get(Resource subj, IRI pred, Value obj, Resource ctx, int indices) {
+        if (subj == null || pred == null || obj == null) {
+            return null;
+        }
+        Value values[] = new Value[] {subj, pred, obj, ctx};
+        byte prefix = selectIndex(subj, pred, obj, ctx, indices);
+        int components[] = INDEX_COMPONENTS[prefix];
+        byte keys[][] = new byte[components.length][];
+        for (int i = 0; i < components.length; i++) {
+            keys[i] = hashKey(NTriplesUtil.toNTriplesString(values[components[i]]).getBytes(UTF8));
+        }
+        byte[] row = concat(prefix, false, keys);
+        return new Get(row).addFamily(CF_NAME);
+    }
+
+    /**
+     * Method identifying the statement component leading the order of Statements retrieved by the {@link #scan(Resource, IRI, Value, Resource)} with the same arguments.
+     * It is the first unbound component of the index selected for the Statement pattern and the Statements are ordered by its hash key (see {@link #hashKey(Value)}).
+     * The context does not affect the order as the contextual indices follow the same component sequence.
+     * @param subj optional subject Resource
+     * @param pred optional predicate IRI
+     * @param obj optional object Value
+     * @return int 0 for subject, 1 for predicate, 2 for object or -1 for fully bound Statement pattern
+     */
+    public static int getOrderingComponent(Resource subj, IRI pred, Value obj) {
+        return getOrderingComponent(subj, pred, obj, null, ALL_INDICES);
+    }
+
+    /**
+     * Method identifying the statement component leading the order of Statements retrieved by the {@link #scan(Resource, IRI, Value, Resource, int)} with the same arguments.
+     * @param subj optional subject Resource
+     * @param pred optional predicate IRI
+     * @param obj optional object Value
+     * @param ctx optional context Resource
+     * @param indices int bit mask of the available indices, see {@link #ALL_INDICES}
+     * @return int 0 for subject, 1 for predicate, 2 for object or -1 for fully bound Statement pattern (or when the Statements are ordered by context)
+     */
+    public static int getOrderingComponent(Resource subj, IRI pred, Value obj, Resource ctx, int indices) {
+        byte prefix = selectIndex(subj, pred, obj, ctx, indices);
+        int components[] = INDEX_COMPONENTS[prefix];
+        int length = getBoundLength(prefix, new Value[] {subj, pred, obj, ctx});
+        return length < components.length && components[length] < 3 ? components[length] : -1;
+    }
+
+    /**
+     * Method calculating number of the leading key components of the given index bound by the Statement pattern.
+     * The index retrieves exactly the matching Statements only when the bound length equals the number of the non-null Statement pattern arguments.
+     * @param subj optional subject Resource
+     * @param pred optional predicate IRI
+     * @param obj optional object Value
+     * @param ctx optional context Resource
+     * @param prefix byte prefix of the index, see {@link #selectIndex(Resource, IRI, Value, Resource, int)}
+     * @return int number of the bound leading key components
+     */
+    public static int getBoundLength(Resource subj, IRI pred, Value obj, Resource ctx, byte prefix) {
+        return getBoundLength(prefix, new Value[] {subj, pred, obj, ctx});
+    }
+
+    private static int getBoundLength(int prefix, Value values[]) {
+        int components[] = INDEX_COMPONENTS[prefix];
+        int length = 0;
+        while (length < components.length && values[components[length]] != null) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Method calculating hash key of a Value, the same as used in the HBase keys
+     * @param value Value to calculate the hash key for
+     * @return hash key as byte array
+     */
+    public static byte[] hashKey(Value value) {
+        return hashKey(NTriplesUtil.toNTriplesString(value).getBytes(UTF8));
+    }
+
+    /**
+     * Method calculating hash key of one or more Values, the hash key of a single Value is the same as used in the HBase keys
+     * @param values Values to calculate the hash key for
+     * @return hash key as byte array
+     */
+    public static byte[] hashKey(Value[] values) {
+        if (values.length == 1) {
+            return hashKey(values[0]);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Value value : values) {
+            sb.append(NTriplesUtil.toNTriplesString(value)).append('\n');
+        }
+        return hashKey(sb.toString().getBytes(UTF8));
     }
 
     /**
@@ -407,20 +665,4 @@ public final class HalyardTableUtils {
             md.reset();
         }
     }
-
-    private static Scan scan(byte prefix, byte[] key1) {
-        return scan(concat(prefix, false, key1), concat(prefix, true, key1, STOP_KEY, STOP_KEY, STOP_KEY), false);
-    }
-
-    private static Scan scan(byte prefix, byte[] key1, byte[] key2) {
-        return scan(concat(prefix, false, key1, key2), concat(prefix, true, key1, key2, STOP_KEY, STOP_KEY), true);
-    }
-
-    private static Scan scan(byte prefix, byte[] key1, byte[] key2, byte[] key3) {
-        return scan(concat(prefix, false, key1, key2, key3), concat(prefix, true, key1, key2, key3, STOP_KEY), true);
-    }
-
-    private static Scan scan(byte prefix, byte[] key1, byte[] key2, byte[] key3, byte[] key4) {
-        return scan(concat(prefix, false, key1, key2, key3, key4), concat(prefix, true, key1, key2, key3, key4), true);
-    }
 }
@@ -16,6 +16,7 @@
  */
 package com.msd.gin.halyard.common;
 
+import java.util.Arrays;
 import java.util.List;
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.hadoop.hbase.HColumnDescriptor;
@@ -24,7 +25,10 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
@@ -117,6 +121,143 @@ public class HalyardTableUtilsTest {
         }
     }
 
+    @Test
+    public void testOrderingComponent() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        for (int i = 0; i < 30; i++) {
+            for (KeyValue kv : HalyardTableUtils.toKeyValues(vf.createIRI("http://testOrdering/subj" + i), vf.createIRI("http://testOrdering/pred" + (i % 3)), vf.createLiteral("obj" + (i % 5)), null)) {
+                    table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+            }
+        }
+        table.flushCommits();
+        Resource subj = vf.createIRI("http://testOrdering/subj7");
+        IRI pred = vf.createIRI("http://testOrdering/pred1");
+        Value obj = vf.createLiteral("obj2");
+        Value patterns[][] = new Value[][] {
+            {null, null, null},
+            {null, pred, null},
+            {null, null, obj},
+            {null, pred, obj},
+            {subj, null, null},
+            {subj, pred, null},
+            {subj, null, obj},
+        };
+        for (Value p[] : patterns) {
+            int component = HalyardTableUtils.getOrderingComponent((Resource)p[0], (IRI)p[1], p[2]);
+            assertTrue(component >= 0 && component < 3);
+            byte[] lastKey = null;
+            try (ResultScanner rs = table.getScanner(HalyardTableUtils.scan((Resource)p[0], (IRI)p[1], p[2], null))) {
+                Result r;
+                while ((r = rs.next()) != null) {
+                    for (Statement st : HalyardTableUtils.parseStatements(r)) {
+                        byte[] key = HalyardTableUtils.hashKey(component == 0 ? st.getSubject() : component == 1 ? st.getPredicate() : st.getObject());
+                        assertTrue(lastKey == null || Bytes.compareTo(lastKey, key) <= 0);
+                        lastKey = key;
+                    }
+                }
+            }
+        }
+        assertEquals(-1, HalyardTableUtils.getOrderingComponent(subj, pred, obj));
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Resource subj = vf.createIRI("http://testGet/subj");
+        IRI pred = vf.createIRI("http://testGet/pred");
+        Value obj = vf.createLiteral("obj");
+        IRI ctx = vf.createIRI("http://testGet/ctx");
+        for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, pred, obj, ctx)) {
+                table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+        }
+        table.flushCommits();
+        assertNull(HalyardTableUtils.get(subj, pred, null, null));
+        List<Statement> statements = HalyardTableUtils.parseStatements(table.get(HalyardTableUtils.get(subj, pred, obj, null)));
+        assertEquals(1, statements.size());
+        assertEquals(ctx, statements.get(0).getContext());
+        assertEquals(1, HalyardTableUtils.parseStatements(table.get(HalyardTableUtils.get(subj, pred, obj, ctx))).size());
+        assertTrue(table.get(HalyardTableUtils.get(subj, pred, obj, vf.createIRI("http://testGet/otherctx"))).isEmpty());
+        assertTrue(table.get(HalyardTableUtils.get(subj, pred, vf.createLiteral("other"), null)).isEmpty());
+    }
+
+    @Test
+    public void testIndices() throws Exception {
+        assertEquals(HalyardTableUtils.ALL_INDICES, HalyardTableUtils.parseIndices(null));
+        assertEquals("SPO,POS,OSP,CSPO,CPOS,COSP", HalyardTableUtils.toIndicesString(HalyardTableUtils.ALL_INDICES));
+        int indices = HalyardTableUtils.parseIndices("cspo, POS");
+        assertEquals("SPO,POS,CSPO", HalyardTableUtils.toIndicesString(indices));
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Resource subj = vf.createIRI("http://testIndices/subj");
+        IRI pred = vf.createIRI("http://testIndices/pred");
+        Value obj = vf.createLiteral("obj");
+        IRI ctx = vf.createIRI("http://testIndices/ctx");
+        KeyValue kvs[] = HalyardTableUtils.toKeyValues(subj, pred, obj, ctx, indices);
+        assertEquals(3, kvs.length);
+        assertEquals(HalyardTableUtils.SPO_PREFIX, kvs[0].getRowArray()[kvs[0].getRowOffset()]);
+        assertEquals(2, HalyardTableUtils.toKeyValues(subj, pred, obj, null, indices).length);
+        assertEquals(HalyardTableUtils.POS_PREFIX, HalyardTableUtils.selectIndex(null, pred, obj, null, indices));
+        assertEquals(HalyardTableUtils.SPO_PREFIX, HalyardTableUtils.selectIndex(null, null, obj, null, indices));
+        assertEquals(HalyardTableUtils.CSPO_PREFIX, HalyardTableUtils.selectIndex(subj, null, obj, ctx, indices));
+        assertEquals(HalyardTableUtils.POS_PREFIX, HalyardTableUtils.selectIndex(null, pred, obj, ctx, HalyardTableUtils.parseIndices("POS")));
+        assertEquals(HalyardTableUtils.COSP_PREFIX, HalyardTableUtils.selectIndex(subj, null, obj, ctx, HalyardTableUtils.ALL_INDICES));
+        assertEquals(0, HalyardTableUtils.getOrderingComponent(null, null, obj, null, indices));
+        assertEquals(2, HalyardTableUtils.getOrderingComponent(null, pred, null, ctx, HalyardTableUtils.parseIndices("POS")));
+        for (KeyValue kv : kvs) {
+                table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+        }
+        table.flushCommits();
+        //object bound pattern falls back to the SPO index scan
+        int count = 0;
+        try (ResultScanner rs = table.getScanner(HalyardTableUtils.scan(null, null, obj, null, indices))) {
+            Result r;
+            while ((r = rs.next()) != null) {
+                for (Statement st : HalyardTableUtils.parseStatements(r)) {
+                    if (obj.equals(st.getObject()) && subj.equals(st.getSubject())) {
+                        count++;
+                    }
+                }
+            }
+        }
+        assertEquals(1, count);
+    }
+
+    @Test
+    public void testKeyRangeScan() throws Exception {
+        IRI pred = SimpleValueFactory.getInstance().createIRI("http://testKeyRangeScan/pred");
+        byte pKey[] = HalyardTableUtils.hashKey(pred);
+        byte startKey[] = new byte[] {0x10};
+        byte stopKey[] = new byte[] {0x20, 0x30};
+        Scan scan = HalyardTableUtils.scan(null, pred, null, null, HalyardTableUtils.ALL_INDICES, startKey, stopKey);
+        assertArrayEquals(HalyardTableUtils.concat(HalyardTableUtils.POS_PREFIX, false, pKey, startKey), scan.getStartRow());
+        assertArrayEquals(HalyardTableUtils.concat(HalyardTableUtils.POS_PREFIX, false, pKey, stopKey), scan.getStopRow());
+        scan = HalyardTableUtils.scan(null, pred, null, null, HalyardTableUtils.ALL_INDICES, startKey, null);
+        assertArrayEquals(HalyardTableUtils.scan(null, pred, null, null).getStopRow(), scan.getStopRow());
+        int count = 0;
+        for (int i = 0; i < 100; i++) {
+            Resource subj = SimpleValueFactory.getInstance().createIRI("http://testKeyRangeScan/subj" + i);
+            for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, pred, subj, null)) {
+                table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+            }
+            byte oKey[] = HalyardTableUtils.hashKey(subj);
+            if (Bytes.compareTo(oKey, startKey) >= 0 && Bytes.compareTo(oKey, stopKey) < 0) {
+                count++;
+            }
+        }
+        table.flushCommits();
+        try (ResultScanner rs = table.getScanner(HalyardTableUtils.scan(null, pred, null, null, HalyardTableUtils.ALL_INDICES, startKey, stopKey))) {
+            Result r;
+            while ((r = rs.next()) != null) {
+                count--;
+            }
+        }
+        assertEquals(0, count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownIndex() throws Exception {
+        HalyardTableUtils.parseIndices("SPO,XYZ");
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testInvalidHalyardVersion() throws Exception {
         try (HBaseAdmin admin = new HBaseAdmin(HBaseServerTestInstance.getInstanceConfig())) {
@@ -126,4 +267,15 @@ public class HalyardTableUtilsTest {
         }
         HalyardTableUtils.getTable(HBaseServerTestInstance.getInstanceConfig(), "InvalidTable", false, 0, null);
     }
+
+    @Test
+    public void testHashKeyOfValues() {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI a = vf.createIRI("http://whatever/a");
+        IRI b = vf.createIRI("http://whatever/b");
+        assertArrayEquals(HalyardTableUtils.hashKey(a), HalyardTableUtils.hashKey(new Value[] {a}));
+        //all the Values are hashed, not just the first one
+        assertFalse(Arrays.equals(HalyardTableUtils.hashKey(new Value[] {a, a}), HalyardTableUtils.hashKey(new Value[] {a, b})));
+        assertFalse(Arrays.equals(HalyardTableUtils.hashKey(a), HalyardTableUtils.hashKey(new Value[] {a, b})));
+    }
 }
@@ -18,6 +18,8 @@ package com.msd.gin.halyard.sail;
 
 import com.msd.gin.halyard.common.HalyardTableUtils;
 import com.msd.gin.halyard.strategy.HalyardEvaluationStrategy;
+import com.msd.gin.halyard.strategy.HalyardKeyRangeOptimizer;
+import com.msd.gin.halyard.strategy.OrderedTripleSource;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -30,23 +32,39 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.coprocessor.AggregationClient;
+import org.apache.hadoop.hbase.client.coprocessor.LongColumnInterpreter;
+import org.apache.hadoop.hbase.coprocessor.AggregateImplementation;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.io.hfile.FixedFileTrailer;
 import org.apache.hadoop.hbase.util.FSUtils;
 import org.eclipse.rdf4j.IsolationLevel;
@@ -55,6 +73,7 @@ import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
 import org.eclipse.rdf4j.common.iteration.EmptyIteration;
 import org.eclipse.rdf4j.common.iteration.ExceptionConvertingIteration;
+import org.eclipse.rdf4j.common.iteration.IterationWrapper;
 import org.eclipse.rdf4j.common.iteration.TimeLimitIteration;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
@@ -66,15 +85,23 @@ import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleNamespace;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.query.Binding;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.BNodeGenerator;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
+import org.eclipse.rdf4j.query.algebra.Now;
 import org.eclipse.rdf4j.query.algebra.QueryRoot;
 import org.eclipse.rdf4j.query.algebra.StatementPattern;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.Var;
 import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
-import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.Function;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.FunctionRegistry;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.numeric.Rand;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.rdfterm.STRUUID;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.rdfterm.UUID;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.BindingAssigner;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.CompareOptimizer;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.ConjunctiveConstraintSplitter;
@@ -88,6 +115,7 @@ import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryJoinOptimizer;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.QueryModelNormalizer;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.SameTermFilterOptimizer;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.StrictEvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
 import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
 import org.eclipse.rdf4j.sail.Sail;
 import org.eclipse.rdf4j.sail.SailConnection;
@@ -114,9 +142,86 @@ public final class HBaseSail implements Sail, SailConnection {
         public void tick();
     }
 
+    /**
+     * Property defining minimal estimated cardinality of both join arguments to evaluate the join as a parallel hash join, zero (default) or negative value disables hash joins
+     */
+    public static final String HASH_JOIN_LIMIT_PROPERTY = "halyard.evaluation.hashjoin.limit";
+
+    /**
+     * Property defining number of independently locked partitions of each hash join table, default value is 64
+     */
+    public static final String HASH_JOIN_PARTITIONS_PROPERTY = "halyard.evaluation.hashjoin.partitions";
+
+    /**
+     * Property defining maximal number of solutions of each hash join table held in memory before spilling to temporary files, default value is 100000
+     */
+    public static final String HASH_JOIN_MEMORY_PROPERTY = "halyard.evaluation.hashjoin.memory";
+
+    /**
+     * Boolean property enabling evaluation of joins of two statement patterns sharing the leading variable of the selected indices as merge joins of the ordered index scans, disabled by default
+     */
+    public static final String MERGE_JOIN_PROPERTY = "halyard.evaluation.mergejoin";
+
+    /**
+     * Property defining maximal number of query results cached by the HBaseSail, zero value (default) disables the query results caching
+     */
+    public static final String RESULT_CACHE_SIZE_PROPERTY = "halyard.evaluation.cache.size";
+
+    /**
+     * Property defining maximal number of solutions of a single cached query result, results with more solutions are not cached
+     */
+    public static final String RESULT_CACHE_ROWS_PROPERTY = "halyard.evaluation.cache.rows";
+
+    /**
+     * Property defining maximal total estimated size in bytes of the query results held in the query results cache
+     */
+    public static final String RESULT_CACHE_MEMORY_PROPERTY = "halyard.evaluation.cache.memory";
+
+    /**
+     * Property defining interval in milliseconds between checks of the table modification marker invalidating the query results cache
+     */
+    public static final String RESULT_CACHE_CHECK_INTERVAL_PROPERTY = "halyard.evaluation.cache.check.interval";
+
+    /**
+     * Property defining maximal number of statement pattern lookups cached by the HBaseSail, zero value (default) disables the statements scan cache
+     */
+    public static final String SCAN_CACHE_SIZE_PROPERTY = "halyard.evaluation.scan.cache.size";
+
+    /**
+     * Property defining maximal number of statements of a single cached statement pattern lookup
+     */
+    public static final String SCAN_CACHE_ENTRY_SIZE_PROPERTY = "halyard.evaluation.scan.cache.entry.size";
+
+    /**
+     * Property defining time in milliseconds after which the cached statement pattern lookups expire
+     */
+    public static final String SCAN_CACHE_TTL_PROPERTY = "halyard.evaluation.scan.cache.ttl";
+
+    /**
+     * Property defining maximal number of optimized query plans cached by the HBaseSail, zero value (default) disables the query plans caching
+     */
+    public static final String PLAN_CACHE_SIZE_PROPERTY = "halyard.evaluation.plan.cache.size";
+
+    /**
+     * Boolean property enabling evaluation of the cached query plans as prepared plans, with the bindings injected at the evaluation time instead of being assigned into the plan copy (applies to the push strategy only)
+     */
+    public static final String PLAN_PREPARED_PROPERTY = "halyard.evaluation.plan.prepared";
+
+    /**
+     * Property defining number of threads shared by the concurrent sub-scans of the statement pattern lookups spanning multiple regions or contexts, zero value (default) disables the parallel scanning
+     */
+    public static final String PARALLEL_SCANS_PROPERTY = "halyard.evaluation.scan.parallel";
+
+    private static final int DEFAULT_SCAN_CACHE_ENTRY_SIZE = 100;
+    private static final long DEFAULT_SCAN_CACHE_TTL = 10000;
+    private static final long DEFAULT_RESULT_CACHE_ROWS = 100000;
+    private static final long DEFAULT_RESULT_CACHE_MEMORY = 64l * 1024 * 1024;
+    private static final long DEFAULT_RESULT_CACHE_CHECK_INTERVAL = 1000;
+    private static final Pattern ANONYMOUS_VAR_NAME = Pattern.compile("_anon_[\\w\\-]+");
     private static final IRI NAMESPACE_PREFIX_PREDICATE = SimpleValueFactory.getInstance().createIRI("http://gin.msd.com/halyard/namespace#prefix");
     private static final Logger LOG = Logger.getLogger(HBaseSail.class.getName());
     private static final long STATUS_CACHING_TIMEOUT = 60000l;
+    private static final long SCANNER_TIMEOUT = 3600000l;
 
     private final Configuration config;
     final String tableName;
@@ -128,9 +233,24 @@ public final class HBaseSail implements Sail, SailConnection {
     private long size = 0, sizeTimestamp = -1;
     private boolean readOnly = false;
     private long readOnlyTimestamp = -1;
+    private byte[][] regionStartKeys = null;
+    private long regionStartKeysTimestamp = -1;
     private final Ticker ticker;
+    private AggregationClient aggregationClient = null;
+    private final LRUCache<String, List<BindingSet>> resultCache;
+    private final long resultCacheRows, resultCacheMemory, resultCacheCheckInterval;
+    private long modificationMarker = 0, modificationMarkerTimestamp = -1;
+    private final LRUCache<List<Object>, List<Statement>> scanCache;
+    private final LRUCache<String, TupleExpr> planCache;
+    private final boolean preparedPlans;
+    private final int scanCacheEntrySize;
+    private final int parallelScans;
+    private boolean modified = false;
 
     HTable table = null;
+    private Connection connection = null;
+    private ExecutorService scanExecutor = null;
+    private int indices = HalyardTableUtils.ALL_INDICES;
 
     //TODO non-persistent namespaces
     private final Map<String, Namespace> namespaces = new HashMap<>();
@@ -151,14 +271,44 @@ public final class HBaseSail implements Sail, SailConnection {
         this.create = create;
         this.splitBits = splitBits;
         this.pushStrategy = pushStrategy;
-        this.statistics = new EvaluationStatistics() {
+        this.statistics = createStatistics(Collections.<String>emptySet());
+        this.evaluationTimeout = evaluationTimeout;
+        this.ticker = ticker;
+        int resultCacheSize = config.getInt(RESULT_CACHE_SIZE_PROPERTY, 0);
+        this.resultCacheRows = config.getLong(RESULT_CACHE_ROWS_PROPERTY, DEFAULT_RESULT_CACHE_ROWS);
+        this.resultCacheMemory = config.getLong(RESULT_CACHE_MEMORY_PROPERTY, DEFAULT_RESULT_CACHE_MEMORY);
+        //the cached results are weighted by their estimated size in bytes
+        this.resultCache = resultCacheSize > 0 ? new LRUCache<String, List<BindingSet>>(resultCacheSize, resultCacheMemory) : null;
+        this.resultCacheCheckInterval = config.getLong(RESULT_CACHE_CHECK_INTERVAL_PROPERTY, DEFAULT_RESULT_CACHE_CHECK_INTERVAL);
+        int planCacheSize = config.getInt(PLAN_CACHE_SIZE_PROPERTY, 0);
+        this.planCache = planCacheSize > 0 ? new LRUCache<String, TupleExpr>(planCacheSize, planCacheSize) : null;
+        //StrictEvaluationStrategy would copy the injected bindings into the results of the outermost projection
+        this.preparedPlans = planCache != null && pushStrategy && config.getBoolean(PLAN_PREPARED_PROPERTY, false);
+        int scanCacheSize = config.getInt(SCAN_CACHE_SIZE_PROPERTY, 0);
+        this.scanCacheEntrySize = config.getInt(SCAN_CACHE_ENTRY_SIZE_PROPERTY, DEFAULT_SCAN_CACHE_ENTRY_SIZE);
+        this.parallelScans = config.getInt(PARALLEL_SCANS_PROPERTY, 0);
+        this.scanCache = scanCacheSize > 0 ? new LRUCache<List<Object>, List<Statement>>(scanCacheSize, (long)scanCacheSize * scanCacheEntrySize, config.getLong(SCAN_CACHE_TTL_PROPERTY, DEFAULT_SCAN_CACHE_TTL)) : null;
+    }
+
+    /**
+     * Creates EvaluationStatistics considering the variables with given names as bound
+     * @param boundNames names of variables to be bound during the evaluation
+     * @return EvaluationStatistics
+     */
+    private static EvaluationStatistics createStatistics(final Set<String> boundNames) {
+        return new EvaluationStatistics() {
             @Override
             protected EvaluationStatistics.CardinalityCalculator createCardinalityCalculator() {
                 return new CardinalityCalculator() {
                     @Override
                     protected double getCardinality(StatementPattern sp) {
 			List<Var> vars = sp.getVarList();
-			int constantVarCount = countConstantVars(vars);
+			int constantVarCount = 0;
+                        for (Var var : vars) {
+                            if (var.hasValue() || boundNames.contains(var.getName())) {
+                                constantVarCount++;
+                            }
+                        }
                         double shift = RDF.TYPE.equals(sp.getPredicateVar().getValue()) ? 0.1 : 0.0;
 			double unboundVarFactor = (vars.size() - constantVarCount + shift) / vars.size();
 			return Math.pow(1000.0, unboundVarFactor);
@@ -166,8 +316,6 @@ public final class HBaseSail implements Sail, SailConnection {
                 };
             }
         };
-        this.evaluationTimeout = evaluationTimeout;
-        this.ticker = ticker;
     }
 
     @Override
@@ -183,6 +331,19 @@ public final class HBaseSail implements Sail, SailConnection {
     public void initialize() throws SailException {
         try {
             table = HalyardTableUtils.getTable(config, tableName, create, splitBits, null);
+            indices = HalyardTableUtils.getIndices(table);
+            if (parallelScans > 0) {
+                //the sub-scans prefetch ahead of the consumer, so they need the same scanner timeout as the table
+                Configuration cfg = HBaseConfiguration.create(config);
+                cfg.setLong(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD, SCANNER_TIMEOUT);
+                connection = ConnectionFactory.createConnection(cfg);
+                scanExecutor = ParallelScanner.createExecutor(parallelScans);
+            }
+            if (table.getTableDescriptor().hasCoprocessor(AggregateImplementation.class.getName())) {
+                aggregationClient = new AggregationClient(config);
+            } else {
+                LOG.log(Level.INFO, "Table {0} does not provide aggregation endpoint, statement counts will be estimated", tableName);
+            }
             try (CloseableIteration<? extends Statement, SailException> nsIter = getStatements(null, NAMESPACE_PREFIX_PREDICATE, null, true)) {
                 while (nsIter.hasNext()) {
                     Statement st = nsIter.next();
@@ -200,9 +361,27 @@ public final class HBaseSail implements Sail, SailConnection {
 
     @Override
     public void shutDown() throws SailException {
+        if (scanCache != null) {
+            LOG.log(Level.INFO, "Statements scan cache of {0}: {1} hits, {2} misses", new Object[]{tableName, scanCache.getHits(), scanCache.getMisses()});
+        }
+        if (resultCache != null) {
+            LOG.log(Level.INFO, "Query results cache of {0}: {1} hits, {2} misses", new Object[]{tableName, resultCache.getHits(), resultCache.getMisses()});
+        }
         try {
             table.close();
             table = null;
+            if (scanExecutor != null) {
+                scanExecutor.shutdownNow();
+                scanExecutor = null;
+            }
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+            if (aggregationClient != null) {
+                aggregationClient.close();
+                aggregationClient = null;
+            }
         } catch (IOException ex) {
             throw new SailException(ex);
         }
@@ -264,12 +443,36 @@ public final class HBaseSail implements Sail, SailConnection {
             // optimizers to modify the actual root node
             tupleExpr = new QueryRoot(tupleExpr);
         }
+        final String cacheKey = resultCache == null || !isDeterministic(tupleExpr) ? null : getResultCacheKey(tupleExpr, dataset, bindings, includeInferred);
+        final long cacheGeneration = cacheKey == null ? 0 : checkResultCache();
+        if (cacheKey != null) {
+            List<BindingSet> cached = resultCache.get(cacheKey);
+            if (cached != null) {
+                return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(cached.iterator());
+            }
+        }
         final long startTime = System.currentTimeMillis();
-        TripleSource source = new TripleSource() {
+        OrderedTripleSource source = new OrderedTripleSource() {
             @Override
             public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
                 try {
-                    return new ExceptionConvertingIteration<Statement, QueryEvaluationException>(new StatementScanner(startTime, subj, pred, obj, contexts)) {
+                    return new ExceptionConvertingIteration<Statement, QueryEvaluationException>(scanStatements(startTime, subj, pred, obj, contexts)) {
+                        @Override
+                        protected QueryEvaluationException convert(Exception e) {
+                            return new QueryEvaluationException(e);
+                        }
+
+                    };
+                } catch (SailException ex) {
+                    throw new QueryEvaluationException(ex);
+                }
+            }
+
+            @Override
+            public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, byte[] startKey, byte[] stopKey, Resource... contexts) throws QueryEvaluationException {
+                try {
+                    //key range restricted scans bypass the statements scan cache
+                    return new ExceptionConvertingIteration<Statement, QueryEvaluationException>(new StatementScanner(startTime, subj, pred, obj, startKey, stopKey, contexts)) {
                         @Override
                         protected QueryEvaluationException convert(Exception e) {
                             return new QueryEvaluationException(e);
@@ -281,14 +484,93 @@ public final class HBaseSail implements Sail, SailConnection {
                 }
             }
 
+            @Override
+            public int getOrderingComponent(Resource subj, IRI pred, Value obj, Resource... contexts) {
+                //statements of a single index scan are ordered by the hash of the leading key part
+                Resource ctxs[] = normalizeContexts(contexts);
+                return ctxs.length == 1 ? HalyardTableUtils.getOrderingComponent(subj, pred, obj, ctxs[0], indices) : -1;
+            }
+
+            @Override
+            public byte[] getOrderingKey(Value value) {
+                return HalyardTableUtils.hashKey(value);
+            }
+
             @Override
             public ValueFactory getValueFactory() {
                 return SimpleValueFactory.getInstance();
             }
         };
 
-        EvaluationStrategy strategy = pushStrategy ? new HalyardEvaluationStrategy(source, dataset, evaluationTimeout) : new StrictEvaluationStrategy(source, dataset, null);
+        EvaluationStrategy strategy = pushStrategy ? new HalyardEvaluationStrategy(source, dataset, evaluationTimeout, statistics, config.getLong(HASH_JOIN_LIMIT_PROPERTY, 0), config.getInt(HASH_JOIN_PARTITIONS_PROPERTY, HalyardEvaluationStrategy.DEFAULT_HASH_JOIN_PARTITIONS), config.getLong(HASH_JOIN_MEMORY_PROPERTY, HalyardEvaluationStrategy.DEFAULT_HASH_JOIN_MEMORY_LIMIT), config.getBoolean(MERGE_JOIN_PROPERTY, false)) : new StrictEvaluationStrategy(source, dataset, null);
 
+        if (planCache == null) {
+            optimize(tupleExpr, dataset, bindings, strategy, statistics);
+        } else {
+            String planKey = getNormalizedAlgebra(tupleExpr) + '\n' + dataset + '\n' + new TreeSet<>(bindings.getBindingNames());
+            TupleExpr plan = planCache.get(planKey);
+            if (plan == null) {
+                //the plan is optimized without the binding values, however with the bound variables considered in the join order estimations
+                plan = tupleExpr;
+                optimize(plan, dataset, EmptyBindingSet.getInstance(), strategy, createStatistics(bindings.getBindingNames()));
+                planCache.put(planKey, plan, 1);
+            }
+            tupleExpr = plan.clone();
+            if (!preparedPlans) {
+                new BindingAssigner().optimize(tupleExpr, dataset, bindings);
+                new ConstantOptimizer(strategy).optimize(tupleExpr, dataset, bindings);
+            }
+        }
+
+        //key ranges depend on the actually registered functions, so they are never part of the cached plans
+        new HalyardKeyRangeOptimizer().optimize(tupleExpr, dataset, bindings);
+
+        try {
+            //prepared plan variables are resolved from the bindings during the evaluation, so the index is selected per execution
+            CloseableIteration<? extends BindingSet, QueryEvaluationException> iter = strategy.evaluate(tupleExpr, preparedPlans ? bindings : EmptyBindingSet.getInstance());
+            if (evaluationTimeout > 0) {
+                iter = new TimeLimitIteration<BindingSet, QueryEvaluationException>(iter, 1000l * evaluationTimeout) {
+                    @Override
+                    protected void throwInterruptedException() throws QueryEvaluationException {
+                        throw new QueryEvaluationException("Query evaluation exceeded specified timeout " + evaluationTimeout + "s");
+                    }
+                };
+            }
+            return cacheKey == null ? iter : new IterationWrapper<BindingSet, QueryEvaluationException>(iter) {
+                private List<BindingSet> results = new ArrayList<>();
+                private long resultsSize = 0;
+
+                @Override
+                public boolean hasNext() throws QueryEvaluationException {
+                    boolean hasNext = super.hasNext();
+                    if (!hasNext && results != null) {
+                        //only completely consumed results are cached
+                        putToResultCache(cacheKey, cacheGeneration, results, resultsSize);
+                        results = null;
+                    }
+                    return hasNext;
+                }
+
+                @Override
+                public BindingSet next() throws QueryEvaluationException {
+                    BindingSet bs = super.next();
+                    if (results != null) {
+                        resultsSize += estimateSize(bs);
+                        if (results.size() < resultCacheRows && resultsSize <= resultCacheMemory) {
+                            results.add(bs);
+                        } else {
+                            results = null;
+                        }
+                    }
+                    return bs;
+                }
+            };
+        } catch (QueryEvaluationException ex) {
+            throw new SailException(ex);
+        }
+    }
+
+    private void optimize(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, EvaluationStrategy strategy, EvaluationStatistics statistics) {
         new BindingAssigner().optimize(tupleExpr, dataset, bindings);
         new ConstantOptimizer(strategy).optimize(tupleExpr, dataset, bindings);
         new CompareOptimizer().optimize(tupleExpr, dataset, bindings);
@@ -301,18 +583,169 @@ public final class HBaseSail implements Sail, SailConnection {
         new IterativeEvaluationOptimizer().optimize(tupleExpr, dataset, bindings);
         new FilterOptimizer().optimize(tupleExpr, dataset, bindings);
         new OrderLimitOptimizer().optimize(tupleExpr, dataset, bindings);
+        if (isCountingSupported()) {
+            new HBaseSailCountOptimizer(this).optimize(tupleExpr, dataset, bindings);
+        }
+    }
 
-        try {
-            CloseableIteration<? extends BindingSet, QueryEvaluationException> iter = strategy.evaluate(tupleExpr, EmptyBindingSet.getInstance());
-            return evaluationTimeout <= 0 ? iter : new TimeLimitIteration<BindingSet, QueryEvaluationException>(iter, 1000l * evaluationTimeout) {
-                @Override
-                protected void throwInterruptedException() throws QueryEvaluationException {
-                    throw new QueryEvaluationException("Query evaluation exceeded specified timeout " + evaluationTimeout + "s");
+    /**
+     * Checks the query model for non-deterministic functions, results of such queries must not be cached
+     */
+    private static boolean isDeterministic(TupleExpr tupleExpr) {
+        final boolean deterministic[] = new boolean[]{true};
+        tupleExpr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(Now node) throws RuntimeException {
+                deterministic[0] = false;
+            }
+
+            @Override
+            public void meet(BNodeGenerator node) throws RuntimeException {
+                deterministic[0] = false;
+            }
+
+            @Override
+            public void meet(FunctionCall node) throws RuntimeException {
+                Optional<Function> function = FunctionRegistry.getInstance().get(node.getURI());
+                if (!function.isPresent() || !isDeterministic(function.get())) {
+                    deterministic[0] = false;
                 }
-            };
-        } catch (QueryEvaluationException ex) {
-            throw new SailException(ex);
+                super.meet(node);
+            }
+        });
+        return deterministic[0];
+    }
+
+    /**
+     * The built-in functions are deterministic except of the random and time dependent ones, custom functions are considered non-deterministic
+     */
+    private static boolean isDeterministic(Function function) {
+        return !(function instanceof Rand || function instanceof UUID || function instanceof STRUUID || function instanceof org.eclipse.rdf4j.query.algebra.evaluation.function.datetime.Now)
+                && function.getClass().getName().startsWith("org.eclipse.rdf4j.");
+    }
+
+    /**
+     * Calculates the query results cache key from the query model with normalized names of the anonymous variables, the dataset and the bindings
+     */
+    private static String getResultCacheKey(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, boolean includeInferred) {
+        StringBuilder sb = new StringBuilder(getNormalizedAlgebra(tupleExpr));
+        sb.append('\n').append(dataset).append('\n').append(includeInferred);
+        TreeMap<String, Value> sortedBindings = new TreeMap<>();
+        for (Binding b : bindings) {
+            sortedBindings.put(b.getName(), b.getValue());
         }
+        return sb.append('\n').append(sortedBindings).toString();
+    }
+
+    /**
+     * Prints the query model with the randomly generated names of the anonymous variables replaced by sequential names
+     */
+    private static String getNormalizedAlgebra(TupleExpr tupleExpr) {
+        StringBuffer sb = new StringBuffer();
+        Matcher m = ANONYMOUS_VAR_NAME.matcher(tupleExpr.toString());
+        Map<String, String> anonymousNames = new HashMap<>();
+        while (m.find()) {
+            String name = anonymousNames.get(m.group());
+            if (name == null) {
+                name = "_anon_" + anonymousNames.size();
+                anonymousNames.put(m.group(), name);
+            }
+            m.appendReplacement(sb, name);
+        }
+        return m.appendTail(sb).toString();
+    }
+
+    /**
+     * Checks the table modification marker (at most once per the check interval) and invalidates the query results cache when the table has been modified
+     * @return long actual generation of the query results cache
+     */
+    private long checkResultCache() throws SailException {
+        synchronized (resultCache) {
+            if (modificationMarkerTimestamp + resultCacheCheckInterval < System.currentTimeMillis()) try {
+                long marker = HalyardTableUtils.getModificationMarker(table);
+                if (marker != modificationMarker) {
+                    invalidateResultCache();
+                    modificationMarker = marker;
+                }
+                modificationMarkerTimestamp = System.currentTimeMillis();
+            } catch (IOException e) {
+                throw new SailException(e);
+            }
+            return resultCache.getGeneration();
+        }
+    }
+
+    private void putToResultCache(String cacheKey, long cacheGeneration, List<BindingSet> results, long resultsSize) {
+        resultCache.put(cacheKey, Collections.unmodifiableList(results), resultsSize, cacheGeneration);
+    }
+
+    /**
+     * Roughly estimates the heap size of a solution in bytes, dominated by the characters of the bound Values
+     */
+    private static long estimateSize(BindingSet bs) {
+        long size = 64;
+        for (Binding b : bs) {
+            Value v = b.getValue();
+            size += 64 + 2l * b.getName().length() + (v == null ? 0 : 2l * v.stringValue().length());
+            if (v instanceof Literal) {
+                Literal l = (Literal)v;
+                size += l.getLanguage().isPresent() ? 2l * l.getLanguage().get().length() : 0;
+            }
+        }
+        return size;
+    }
+
+    private void invalidateResultCache() {
+        if (resultCache != null) {
+            resultCache.clear();
+        }
+    }
+
+    private void invalidateScanCache() {
+        if (scanCache != null) {
+            scanCache.clear();
+        }
+    }
+
+    /**
+     * Scans the statements, small results of repeated lookups are served from the statements scan cache (if enabled)
+     */
+    private CloseableIteration<? extends Statement, SailException> scanStatements(long startTime, Resource subj, IRI pred, Value obj, Resource... contexts) throws SailException {
+        if (scanCache == null) {
+            return new StatementScanner(startTime, subj, pred, obj, contexts);
+        }
+        final List<Object> cacheKey = Arrays.<Object>asList(subj, pred, obj, Arrays.asList(normalizeContexts(contexts)));
+        List<Statement> cached = scanCache.get(cacheKey);
+        if (cached != null) {
+            return new CloseableIteratorIteration<Statement, SailException>(cached.iterator());
+        }
+        final long cacheGeneration = scanCache.getGeneration();
+        return new IterationWrapper<Statement, SailException>(new StatementScanner(startTime, subj, pred, obj, contexts)) {
+            private List<Statement> statements = new ArrayList<>();
+
+            @Override
+            public boolean hasNext() throws SailException {
+                boolean hasNext = super.hasNext();
+                if (!hasNext && statements != null) {
+                    scanCache.put(cacheKey, Collections.unmodifiableList(statements), statements.size(), cacheGeneration);
+                    statements = null;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public Statement next() throws SailException {
+                Statement st = super.next();
+                if (statements != null) {
+                    if (statements.size() < scanCacheEntrySize) {
+                        statements.add(st);
+                    } else {
+                        statements = null;
+                    }
+                }
+                return st;
+            }
+        };
     }
 
     @Override
@@ -325,11 +758,71 @@ public final class HBaseSail implements Sail, SailConnection {
         return new StatementScanner(System.currentTimeMillis(), subj, pred, obj, contexts);
     }
 
+    private synchronized byte[][] getRegionStartKeys() throws IOException {
+        if (regionStartKeysTimestamp + STATUS_CACHING_TIMEOUT < System.currentTimeMillis()) {
+            regionStartKeys = table.getRegionLocator().getStartKeys();
+            regionStartKeysTimestamp = System.currentTimeMillis();
+        }
+        return regionStartKeys;
+    }
+
     @Override
-    public synchronized long size(Resource... contexts) throws SailException {
-        if (contexts != null && contexts.length > 0 && contexts[0] != null) {
-            throw new SailException("Size calculation is not supported for named graphs");
+    public long size(Resource... contexts) throws SailException {
+        if (aggregationClient == null) {
+            if (contexts != null && contexts.length > 0 && contexts[0] != null) {
+                throw new SailException("Size calculation is not supported for named graphs");
+            }
+            return estimateSize();
+        }
+        long total = 0;
+        for (Resource ctx : normalizeContexts(contexts)) {
+            total += count(null, null, null, ctx);
+        }
+        return total;
+    }
+
+    /**
+     * Exact count of the Statements matching the given pattern, calculated by the aggregation endpoint directly at the region servers
+     * @param subj optional subject Resource
+     * @param pred optional predicate IRI
+     * @param obj optional object Value
+     * @param ctx optional context Resource
+     * @return long number of matching Statements
+     * @throws SailException throws SailException in case of any HBase problems
+     */
+    long count(Resource subj, IRI pred, Value obj, Resource ctx) throws SailException {
+        int bound = (subj == null ? 0 : 1) + (pred == null ? 0 : 1) + (obj == null ? 0 : 1) + (ctx == null ? 0 : 1);
+        if (HalyardTableUtils.getBoundLength(subj, pred, obj, ctx, HalyardTableUtils.selectIndex(subj, pred, obj, ctx, indices)) < bound) {
+            //no available index covers all the bound components, so the Statements of the selected key range have to be filtered
+            long count = 0;
+            try (StatementScanner scanner = new StatementScanner(System.currentTimeMillis(), subj, pred, obj, ctx)) {
+                while (scanner.hasNext()) {
+                    scanner.next();
+                    count++;
+                }
+            }
+            return count;
+        }
+        Scan scan = HalyardTableUtils.scan(subj, pred, obj, ctx, indices);
+        //each cell represents one statement, single cell batches make the endpoint count cells instead of rows
+        scan.setBatch(1);
+        //any filter prevents the endpoint from applying its FirstKeyOnlyFilter
+        scan.setFilter(new KeyOnlyFilter());
+        try {
+            return aggregationClient.rowCount(table, new LongColumnInterpreter(), scan);
+        } catch (Throwable t) {
+            throw new SailException(t);
         }
+    }
+
+    /**
+     * @return boolean indicating availability of the exact counting by {@link #count(Resource, IRI, Value, Resource)}
+     */
+    boolean isCountingSupported() {
+        return aggregationClient != null;
+    }
+
+    private synchronized long estimateSize() throws SailException {
         if (sizeTimestamp < 0 || (isWritable() && sizeTimestamp + STATUS_CACHING_TIMEOUT < System.currentTimeMillis())) try {
             long entries = 0;
             FileSystem fs = FileSystem.get(config);
@@ -346,7 +839,7 @@ public final class HBaseSail implements Sail, SailConnection {
                 if (skey.length == 0 || skey[0] == HalyardTableUtils.SPO_PREFIX) {
                     byte[] ekey = hri.getEndKey();
                     if (ekey.length == 0 || ekey[0] > HalyardTableUtils.POS_PREFIX) {
-                        divider = 3;
+                        divider = Integer.bitCount(indices & ((1 << HalyardTableUtils.CSPO_PREFIX) - 1));
                     }
                     for (FileStatus familyDir : fs.listStatus(new Path(tableDir, hri.getEncodedName()), dirFilter)) {
                         if (familyNames.contains(familyDir.getPath().getName())) {
@@ -394,6 +887,12 @@ public final class HBaseSail implements Sail, SailConnection {
     public void commit() throws SailException {
         try {
             table.flushCommits();
+            if (modified) {
+                modified = false;
+                HalyardTableUtils.markModified(table);
+                invalidateResultCache();
+                invalidateScanCache();
+            }
         } catch (IOException ex) {
             throw new SailException(ex);
         }
@@ -423,8 +922,9 @@ public final class HBaseSail implements Sail, SailConnection {
 
     private void addStatementInternal(Resource subj, IRI pred, Value obj, Resource context) throws SailException {
         if (!isWritable()) throw new SailException(tableName + " is read only");
+        modified = true;
         try {
-            for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, pred, obj, context)) {
+            for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, pred, obj, context, indices)) {
                 table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
             }
         } catch (IOException e) {
@@ -438,10 +938,11 @@ public final class HBaseSail implements Sail, SailConnection {
         try {
             List<Delete> deletes = new ArrayList<>();
             for (Resource ctx : normalizeContexts(contexts)) {
-                for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, pred, obj, ctx)) {
+                for (KeyValue kv : HalyardTableUtils.toKeyValues(subj, pred, obj, ctx, indices)) {
                     deletes.add(new Delete(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength()).deleteColumn(kv.getFamily(), kv.getQualifier()));
                 }
             }
+            modified = true;
             table.delete(deletes);
         } catch (IOException e) {
             throw new SailException(e);
@@ -481,6 +982,8 @@ public final class HBaseSail implements Sail, SailConnection {
         if (!isWritable()) throw new SailException(tableName + " is read only");
         try {
             table = HalyardTableUtils.truncateTable(table);
+            invalidateResultCache();
+            invalidateScanCache();
         } catch (IOException ex) {
             throw new SailException(ex);
         }
@@ -538,43 +1041,100 @@ public final class HBaseSail implements Sail, SailConnection {
         private final IRI pred;
         private final Value obj;
         private final Iterator<Resource> contexts;
+        private final Set<Resource> contextFilter;
+        private final byte[] startKey, stopKey;
         private ResultScanner rs = null;
+        private ParallelScanner ps = null;
+        private Iterator<Result> gets = null;
         private final long endTime;
         private Statement next = null;
         private Iterator<Statement> iter = null;
 
         public StatementScanner(long startTime, Resource subj, IRI pred, Value obj, Resource...contexts) throws SailException {
+            this(startTime, subj, pred, obj, null, null, contexts);
+        }
+
+        public StatementScanner(long startTime, Resource subj, IRI pred, Value obj, byte[] startKey, byte[] stopKey, Resource...contexts) throws SailException {
             this.subj = subj;
+            this.startKey = startKey;
+            this.stopKey = stopKey;
             this.pred = pred;
             this.obj = obj;
-            this.contexts = Arrays.asList(normalizeContexts(contexts)).iterator();
+            Resource ctxs[] = normalizeContexts(contexts);
+            if (!Arrays.asList(ctxs).contains(null) && HalyardTableUtils.selectIndex(subj, pred, obj, ctxs[0], indices) < HalyardTableUtils.CSPO_PREFIX) {
+                //no contextual index is available, so a single scan of all contexts is filtered
+                this.contextFilter = new HashSet<>(Arrays.asList(ctxs));
+                ctxs = new Resource[] {null};
+            } else {
+                this.contextFilter = null;
+            }
+            this.contexts = Arrays.asList(ctxs).iterator();
             this.endTime = startTime + (1000l * evaluationTimeout);
         }
 
         private Result nextResult() throws IOException {
+            if (subj != null && pred != null && obj != null) {
+                if (gets == null) {
+                    //fully bound pattern is retrieved by a batch of point lookups of all the contexts, hitting the row bloom filters directly
+                    List<Get> batch = new ArrayList<>();
+                    while (contexts.hasNext()) {
+                        batch.add(HalyardTableUtils.get(subj, pred, obj, contexts.next(), indices));
+                    }
+                    gets = Arrays.asList(table.get(batch)).iterator();
+                    if (ticker != null) ticker.tick();
+                }
+                while (gets.hasNext()) {
+                    Result res = gets.next();
+                    if (!res.isEmpty()) {
+                        return res;
+                    }
+                }
+                return null;
+            }
             while (true) {
-                if (rs == null) {
-                    if (contexts.hasNext()) {
-                        rs = table.getScanner(HalyardTableUtils.scan(subj, pred, obj, contexts.next()));
-                    } else {
+                if (rs == null && ps == null) {
+                    if (!contexts.hasNext()) {
                         return null;
                     }
+                    if (parallelScans > 0) {
+                        List<Scan> scans = new ArrayList<>();
+                        int contextCount = 0;
+                        while (contexts.hasNext()) {
+                            Scan scan = HalyardTableUtils.scan(subj, pred, obj, contexts.next(), indices, startKey, stopKey);
+                            byte[][] regionStartKeys = scan.isSmall() ? null : getRegionStartKeys();
+                            scans.addAll(regionStartKeys == null ? Collections.singletonList(scan) : ParallelScanner.split(scan, regionStartKeys));
+                            contextCount++;
+                        }
+                        if (scans.size() == 1) {
+                            rs = table.getScanner(scans.get(0));
+                        } else {
+                            //multiple contexts and large key ranges spanning multiple regions are scanned concurrently, the order is kept only within a single context
+                            //sub-scans of an abandoned scanner are stopped after the evaluation timeout or when the HBase scanner would expire
+                            ps = new ParallelScanner(connection, scanExecutor, table.getName(), scans, contextCount == 1, parallelScans, evaluationTimeout > 0 ? 1000l * evaluationTimeout : SCANNER_TIMEOUT);
+                        }
+                    } else {
+                        //the contexts are scanned one after another
+                        rs = table.getScanner(HalyardTableUtils.scan(subj, pred, obj, contexts.next(), indices, startKey, stopKey));
+                    }
                 }
-                Result res = rs.next();
+                Result res = ps != null ? ps.next() : rs.next();
                 if (ticker != null) ticker.tick();
-                if (res == null) {
-                    rs.close();
-                    rs = null;
-                } else {
+                if (res != null) {
                     return res;
                 }
+                close();
             }
         }
 
         @Override
-        public void close() throws SailException {
+        public void close() {
             if (rs != null) {
                 rs.close();
+                rs = null;
+            }
+            if (ps != null) {
+                ps.close();
+                ps = null;
             }
         }
 
@@ -595,7 +1155,7 @@ public final class HBaseSail implements Sail, SailConnection {
                     }
                     while (iter.hasNext()) {
                         Statement s = iter.next();
-                        if ((subj == null || subj.equals(s.getSubject())) && (pred == null || pred.equals(s.getPredicate())) && (obj == null || obj.equals(s.getObject()))) {
+                        if ((subj == null || subj.equals(s.getSubject())) && (pred == null || pred.equals(s.getPredicate())) && (obj == null || obj.equals(s.getObject())) && (contextFilter == null || contextFilter.contains(s.getContext()))) {
                             next = s;
                             return true;
                         }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.SingletonIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.Count;
+import org.eclipse.rdf4j.query.algebra.Group;
+import org.eclipse.rdf4j.query.algebra.GroupElem;
+import org.eclipse.rdf4j.query.algebra.QueryModelVisitor;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.ExternalSet;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.sail.SailException;
+
+/**
+ * Query optimizer replacing COUNT aggregation over a single statement pattern with the statements counting directly at the region servers.
+ * Eligible are only aggregations without grouping, with a single non-distinct COUNT of all solutions (or of a variable bound by the pattern)
+ * over a single statement pattern with distinct variables, in the default graph or in a constant named graph, and evaluated without a specific dataset.
+ */
+final class HBaseSailCountOptimizer implements QueryOptimizer {
+
+    private final HBaseSail sail;
+
+    /**
+     * Constructs HBaseSailCountOptimizer
+     * @param sail HBaseSail providing the statements counting
+     */
+    HBaseSailCountOptimizer(HBaseSail sail) {
+        this.sail = sail;
+    }
+
+    @Override
+    public void optimize(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings) {
+        if (dataset != null && (!dataset.getDefaultGraphs().isEmpty() || !dataset.getNamedGraphs().isEmpty())) {
+            return;
+        }
+        tupleExpr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(Group group) throws RuntimeException {
+                if (isEligible(group)) {
+                    group.replaceWith(new StatementCount(sail, group.getGroupElements().get(0).getName(), (StatementPattern)group.getArg()));
+                } else {
+                    super.meet(group);
+                }
+            }
+        });
+    }
+
+    private static boolean isEligible(Group group) {
+        if (!group.getGroupBindingNames().isEmpty() || group.getGroupElements().size() != 1 || !(group.getArg() instanceof StatementPattern)) {
+            return false;
+        }
+        GroupElem ge = group.getGroupElements().get(0);
+        if (!(ge.getOperator() instanceof Count) || ((Count)ge.getOperator()).isDistinct()) {
+            return false;
+        }
+        StatementPattern sp = (StatementPattern)group.getArg();
+        if (sp.getContextVar() != null ? !sp.getContextVar().hasValue() : sp.getScope() != StatementPattern.Scope.DEFAULT_CONTEXTS) {
+            return false;
+        }
+        Set<String> varNames = new HashSet<>();
+        for (Var v : sp.getVarList()) {
+            if (!v.hasValue() && !varNames.add(v.getName())) {
+                return false;
+            }
+        }
+        ValueExpr countArg = ((Count)ge.getOperator()).getArg();
+        return countArg == null || ((countArg instanceof Var) && varNames.contains(((Var)countArg).getName()));
+    }
+
+    /**
+     * ExternalSet returning a single solution with the count of statements matching the statement pattern
+     */
+    static final class StatementCount extends ExternalSet {
+
+        private final HBaseSail sail;
+        private final String bindingName;
+        private final StatementPattern pattern;
+
+        StatementCount(HBaseSail sail, String bindingName, StatementPattern pattern) {
+            this.sail = sail;
+            this.bindingName = bindingName;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public Set<String> getBindingNames() {
+            return Collections.singleton(bindingName);
+        }
+
+        @Override
+        public Set<String> getAssuredBindingNames() {
+            return getBindingNames();
+        }
+
+        @Override
+        public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(BindingSet bindings) throws QueryEvaluationException {
+            List<Var> vars = pattern.getVarList();
+            Value values[] = new Value[4];
+            for (int i = 0; i < vars.size(); i++) {
+                Var v = vars.get(i);
+                values[i] = v.hasValue() ? v.getValue() : bindings.getValue(v.getName());
+            }
+            long count;
+            if ((values[0] == null || values[0] instanceof Resource) && (values[1] == null || values[1] instanceof IRI) && (values[3] == null || values[3] instanceof Resource)) try {
+                count = sail.count((Resource)values[0], (IRI)values[1], values[2], (Resource)values[3]);
+            } catch (SailException e) {
+                throw new QueryEvaluationException(e);
+            } else {
+                count = 0;
+            }
+            QueryBindingSet result = new QueryBindingSet(bindings);
+            result.setBinding(bindingName, SimpleValueFactory.getInstance().createLiteral(Long.toString(count), XMLSchema.INTEGER));
+            return new SingletonIteration<BindingSet, QueryEvaluationException>(result);
+        }
+
+        @Override
+        public <X extends Exception> void visitChildren(QueryModelVisitor<X> visitor) throws X {
+            //the pattern variables are exposed, so the values bound to the cloned cached plans are applied to the counted pattern
+            for (Var v : pattern.getVarList()) {
+                v.visit(visitor);
+            }
+        }
+
+        @Override
+        public String getSignature() {
+            return super.getSignature() + " (" + bindingName + ")";
+        }
+
+        @Override
+        public StatementCount clone() {
+            return new StatementCount(sail, bindingName, pattern.clone());
+        }
+    }
+}
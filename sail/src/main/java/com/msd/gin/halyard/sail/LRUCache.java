@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Synchronized least-recently-used cache bounded by the number of entries and by the total weight of the entries, with optional expiration of the entries.
+ * Each {@link #clear()} starts a new generation of the cache, so values computed before the clear can be rejected.
+ * @param <K> key type
+ * @param <V> value type
+ */
+final class LRUCache<K, V> {
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long weight, timestamp;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+
+    private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+    private final long maxWeight, timeToLive;
+    private long weight = 0, generation = 0, hits = 0, misses = 0;
+
+    /**
+     * Constructs LRUCache with entries that never expire
+     * @param maxEntries int maximal number of entries
+     * @param maxWeight long maximal total weight of all entries
+     */
+    LRUCache(int maxEntries, long maxWeight) {
+        this(maxEntries, maxWeight, 0);
+    }
+
+    /**
+     * Constructs LRUCache
+     * @param maxEntries int maximal number of entries
+     * @param maxWeight long maximal total weight of all entries
+     * @param timeToLive long time in milliseconds after which the entries expire, zero or negative value means no expiration
+     */
+    LRUCache(int maxEntries, long maxWeight, long timeToLive) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Retrieves cached value and marks it as recently used
+     * @param key key
+     * @return cached value or null if not present or expired
+     */
+    synchronized V get(K key) {
+        Entry<V> e = map.get(key);
+        if (e != null && timeToLive > 0 && e.timestamp + timeToLive < System.currentTimeMillis()) {
+            map.remove(key);
+            weight -= e.weight;
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.value;
+    }
+
+    /**
+     * Puts the value into the cache only if the cache has not been cleared since the given generation
+     * @param key key
+     * @param value value
+     * @param weight long weight of the value, values heavier than the maximal total weight are not cached
+     * @param generation long generation of the cache at the time the value computation started
+     */
+    synchronized void put(K key, V value, long weight, long generation) {
+        if (generation == this.generation) {
+            put(key, value, weight);
+        }
+    }
+
+    /**
+     * Puts the value into the cache and evicts the least recently used entries exceeding the limits
+     * @param key key
+     * @param value value
+     * @param weight long weight of the value, values heavier than the maximal total weight are not cached
+     */
+    synchronized void put(K key, V value, long weight) {
+        if (weight > maxWeight) {
+            return;
+        }
+        Entry<V> old = map.put(key, new Entry<>(value, weight));
+        if (old != null) {
+            this.weight -= old.weight;
+        }
+        this.weight += weight;
+        Iterator<Entry<V>> it = map.values().iterator();
+        while (map.size() > maxEntries || this.weight > maxWeight) {
+            this.weight -= it.next().weight;
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes all entries
+     */
+    synchronized void clear() {
+        map.clear();
+        weight = 0;
+        generation++;
+    }
+
+    /**
+     * @return long actual generation of the cache
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return long number of successful retrievals
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return long number of retrievals of missing or expired entries
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return int actual number of entries
+     */
+    synchronized int size() {
+        return map.size();
+    }
+}
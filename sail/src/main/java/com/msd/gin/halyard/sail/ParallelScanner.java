@@ -0,0 +1,282 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Scanner running multiple Scans concurrently with a bounded number of sub-scans in flight.
+ * In the ordered mode the results are returned in the order of the Scans, sub-scans ahead of the currently consumed one are prefetched into bounded queues.
+ * In the unordered mode all the sub-scans feed a single bounded queue and the results are merged into one stream as they arrive.
+ * The sub-scans rejected by the saturated thread pool are read directly by the consumer, so the scanners never wait for each other's threads.
+ */
+final class ParallelScanner implements Closeable {
+
+    private static final int QUEUE_CAPACITY = 100;
+    private static final long OFFER_TIMEOUT = 100;
+    private static final Result END = new Result();
+
+    /**
+     * Creates the bounded thread pool shared by the ParallelScanners, the pool never queues the sub-scans so the saturated pool rejects them
+     * @param threads int maximal number of the threads
+     * @return ExecutorService
+     */
+    static ExecutorService createExecutor(int threads) {
+        return new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Halyard Parallel Scanner " + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private final class SubScan implements Runnable {
+
+        private final Scan scan;
+        private final BlockingQueue<Result> queue;
+        private boolean inline = false;
+        private Table inlineTable = null;
+        private ResultScanner inlineScanner = null;
+
+        SubScan(Scan scan, BlockingQueue<Result> queue) {
+            this.scan = scan;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            boolean abandoned = false;
+            //each sub-scan uses its own lightweight Table instance, as the Table is not thread-safe
+            try (Table subTable = connection.getTable(tableName); ResultScanner rs = subTable.getScanner(scan)) {
+                Result r;
+                while (!closed && (r = rs.next()) != null) {
+                    if (!offer(r)) {
+                        abandoned = true;
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                exception = new InterruptedIOException(e.getMessage());
+            } catch (IOException e) {
+                exception = e;
+            } catch (Throwable t) {
+                //any failure must be reported, otherwise the END marker would silently truncate the results
+                exception = new IOException(t);
+            } finally {
+                if (!abandoned) try {
+                    offer(END);
+                } catch (InterruptedException ignore) {
+                    //the consumer is closed or interrupted
+                }
+            }
+        }
+
+        /**
+         * @return boolean false if the consumer has not asked for any result within the stall timeout, the whole scanner is then closed
+         */
+        private boolean offer(Result r) throws InterruptedException {
+            while (!closed && !queue.offer(r, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                if (System.currentTimeMillis() - lastConsumed > stallTimeout) {
+                    exception = new IOException("Parallel scan abandoned, no results consumed within " + stallTimeout + "ms");
+                    closed = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Result nextInline() throws IOException {
+            if (inlineScanner == null) {
+                inlineTable = connection.getTable(tableName);
+                inlineScanner = inlineTable.getScanner(scan);
+            }
+            Result r = inlineScanner.next();
+            if (r == null) {
+                closeInline();
+            }
+            return r;
+        }
+
+        void closeInline() throws IOException {
+            if (inlineScanner != null) {
+                inlineScanner.close();
+                inlineScanner = null;
+            }
+            if (inlineTable != null) {
+                inlineTable.close();
+                inlineTable = null;
+            }
+        }
+    }
+
+    private final Connection connection;
+    private final ExecutorService executor;
+    private final TableName tableName;
+    private final boolean ordered;
+    private final long stallTimeout;
+    private final BlockingQueue<Result> sharedQueue;
+    private final List<SubScan> subScans = new ArrayList<>();
+    private final Deque<SubScan> inlineScans = new ArrayDeque<>();
+    private int current = 0, started = 0;
+    private volatile boolean closed = false;
+    private volatile IOException exception = null;
+    private volatile long lastConsumed = System.currentTimeMillis();
+
+    /**
+     * Constructs ParallelScanner and starts the first sub-scans
+     * @param connection Connection providing the Table instance of each sub-scan
+     * @param executor ExecutorService running the sub-scans, see {@link #createExecutor(int)}
+     * @param tableName TableName of the table to scan
+     * @param scans List of Scans to run
+     * @param ordered boolean switch preserving the order of the Scans in the results
+     * @param maxParallelScans int maximal number of the sub-scans running concurrently
+     * @param stallTimeout long time in milliseconds after which the sub-scans of an abandoned scanner (with no results asked for) are stopped
+     */
+    ParallelScanner(Connection connection, ExecutorService executor, TableName tableName, List<Scan> scans, boolean ordered, int maxParallelScans, long stallTimeout) {
+        this.connection = connection;
+        this.executor = executor;
+        this.tableName = tableName;
+        this.ordered = ordered;
+        this.stallTimeout = stallTimeout;
+        this.sharedQueue = ordered ? null : new ArrayBlockingQueue<Result>(QUEUE_CAPACITY);
+        for (Scan scan : scans) {
+            subScans.add(new SubScan(scan, ordered ? new ArrayBlockingQueue<Result>(QUEUE_CAPACITY) : sharedQueue));
+        }
+        while (started < Math.max(1, maxParallelScans) && started < subScans.size()) {
+            startNext();
+        }
+    }
+
+    private void startNext() {
+        SubScan subScan = subScans.get(started++);
+        try {
+            executor.execute(subScan);
+        } catch (RejectedExecutionException e) {
+            //all the threads are busy, the consumer reads the sub-scan itself when it gets to it
+            subScan.inline = true;
+            inlineScans.add(subScan);
+        }
+    }
+
+    /**
+     * Splits the Scan key range at the region boundaries
+     * @param scan Scan to split
+     * @param regionStartKeys start keys of all the table regions
+     * @return List of sub-range Scans in the key order
+     * @throws IOException throws IOException in case of problem with the Scan copy
+     */
+    static List<Scan> split(Scan scan, byte[][] regionStartKeys) throws IOException {
+        List<Scan> scans = new ArrayList<>();
+        byte[] start = scan.getStartRow();
+        byte[] stop = scan.getStopRow();
+        for (byte[] key : regionStartKeys) {
+            if (key.length > 0 && Bytes.compareTo(key, start) > 0 && (stop.length == 0 || Bytes.compareTo(key, stop) < 0)) {
+                scans.add(new Scan(scan).setStartRow(start).setStopRow(key));
+                start = key;
+            }
+        }
+        scans.add(start == scan.getStartRow() ? scan : new Scan(scan).setStartRow(start).setStopRow(stop));
+        return scans;
+    }
+
+    /**
+     * Retrieves next Result, in the order of the Scans in the ordered mode
+     * @return next Result or null when all the sub-scans are exhausted
+     * @throws IOException throws IOException in case of a problem with any of the sub-scans
+     */
+    Result next() throws IOException {
+        lastConsumed = System.currentTimeMillis();
+        //current counts the exhausted sub-scans
+        while (current < subScans.size()) {
+            Result r;
+            if (ordered) {
+                SubScan subScan = subScans.get(current);
+                r = subScan.inline ? subScan.nextInline() : take(subScan.queue);
+            } else if (!inlineScans.isEmpty()) {
+                //the sub-scans running in the pool keep filling the shared queue meanwhile
+                r = inlineScans.peek().nextInline();
+                if (r == null) {
+                    inlineScans.remove();
+                }
+            } else {
+                r = take(sharedQueue);
+            }
+            if (r != null && r != END) {
+                return r;
+            }
+            if (started < subScans.size()) {
+                startNext();
+            }
+            current++;
+        }
+        return null;
+    }
+
+    private Result take(BlockingQueue<Result> queue) throws IOException {
+        try {
+            Result r;
+            while ((r = queue.poll(OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) == null) {
+                if (exception != null) {
+                    throw exception;
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+            return r;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (SubScan subScan : subScans) {
+            try {
+                subScan.closeInline();
+            } catch (IOException ignore) {
+                //the results are not consumed anymore
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.algebra.QueryModelNode;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.repository.sail.SailRepositoryConnection;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HBaseSailCountOptimizerTest {
+
+    private static HBaseSail sail;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "countoptimizertable", true, 0, true, 0, null);
+        sail.initialize();
+        IRI ctx = vf.createIRI("http://whatever/ctx");
+        for (int i = 0; i < 50; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj/" + i), vf.createIRI("http://whatever/pred"), vf.createLiteral(i));
+            sail.addStatement(vf.createIRI("http://whatever/subj/" + i), vf.createIRI("http://whatever/other"), vf.createLiteral(i % 5), ctx);
+        }
+        sail.commit();
+    }
+
+    @AfterClass
+    public static void teardown() throws Exception {
+        sail.shutDown();
+    }
+
+    private static int countRewrites(String query) {
+        TupleExpr expr = QueryParserUtil.parseQuery(QueryLanguage.SPARQL, query, null).getTupleExpr();
+        new HBaseSailCountOptimizer(sail).optimize(expr, null, EmptyBindingSet.getInstance());
+        final AtomicInteger rewrites = new AtomicInteger();
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            protected void meetNode(QueryModelNode node) throws RuntimeException {
+                if (node instanceof HBaseSailCountOptimizer.StatementCount) {
+                    rewrites.incrementAndGet();
+                }
+                super.meetNode(node);
+            }
+        });
+        return rewrites.get();
+    }
+
+    private static long evaluateCount(String query, String... bindings) throws Exception {
+        return evaluateCount(sail, query, bindings);
+    }
+
+    private static long evaluateCount(HBaseSail sail, String query, String... bindings) throws Exception {
+        SailRepositoryConnection con = new SailRepository(sail).getConnection();
+        TupleQuery q = con.prepareTupleQuery(QueryLanguage.SPARQL, query);
+        for (int i = 0; i < bindings.length; i += 2) {
+            q.setBinding(bindings[i], SimpleValueFactory.getInstance().createIRI(bindings[i + 1]));
+        }
+        try (TupleQueryResult res = q.evaluate()) {
+            assertTrue(res.hasNext());
+            long count = Long.parseLong(res.next().getValue("c").stringValue());
+            assertFalse(res.hasNext());
+            return count;
+        }
+    }
+
+    @Test
+    public void testEligibleQueries() throws Exception {
+        assertEquals(1, countRewrites("select (count(*) as ?c) where {?s <http://whatever/pred> ?o}"));
+        assertEquals(1, countRewrites("select (count(?o) as ?c) where {?s ?p ?o}"));
+        assertEquals(1, countRewrites("select (count(*) as ?c) where {graph <http://whatever/ctx> {?s ?p ?o}}"));
+    }
+
+    @Test
+    public void testNonEligibleQueries() throws Exception {
+        assertEquals(0, countRewrites("select (count(distinct ?o) as ?c) where {?s ?p ?o}"));
+        assertEquals(0, countRewrites("select ?s (count(*) as ?c) where {?s ?p ?o} group by ?s"));
+        assertEquals(0, countRewrites("select (count(*) as ?c) where {?s ?p ?s}"));
+        assertEquals(0, countRewrites("select (count(*) as ?c) where {graph ?g {?s ?p ?o}}"));
+        assertEquals(0, countRewrites("select (count(*) as ?c) where {?s ?p ?o. ?o ?p ?s}"));
+        assertEquals(0, countRewrites("select (count(*) as ?c) (max(?o) as ?m) where {?s ?p ?o}"));
+    }
+
+    @Test
+    public void testCounts() throws Exception {
+        assertEquals(100, evaluateCount("select (count(*) as ?c) where {?s ?p ?o}"));
+        assertEquals(50, evaluateCount("select (count(*) as ?c) where {?s <http://whatever/pred> ?o}"));
+        assertEquals(10, evaluateCount("select (count(?s) as ?c) where {?s <http://whatever/other> 1}"));
+        assertEquals(50, evaluateCount("select (count(*) as ?c) where {graph <http://whatever/ctx> {?s ?p ?o}}"));
+        assertEquals(0, evaluateCount("select (count(*) as ?c) where {graph <http://whatever/ctx> {?s <http://whatever/pred> ?o}}"));
+        assertEquals(0, evaluateCount("select (count(*) as ?c) where {?s <http://whatever/none> ?o}"));
+        assertEquals(5, evaluateCount("select (count(distinct ?o) as ?c) where {?s <http://whatever/other> ?o}"));
+        assertEquals(2, evaluateCount("select (count(*) as ?c) where {?s ?p ?o}", "s", "http://whatever/subj/3"));
+    }
+
+    @Test
+    public void testCountsWithPlanCache() throws Exception {
+        testCountsWithPlanCache(false);
+        testCountsWithPlanCache(true);
+    }
+
+    private static void testCountsWithPlanCache(boolean prepared) throws Exception {
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.PLAN_CACHE_SIZE_PROPERTY, 10);
+        conf.setBoolean(HBaseSail.PLAN_PREPARED_PROPERTY, prepared);
+        HBaseSail cachingSail = new HBaseSail(conf, "countoptimizertable", false, 0, true, 0, null);
+        cachingSail.initialize();
+        try {
+            String query = "select (count(*) as ?c) where {?s ?p ?o}";
+            assertEquals(100, evaluateCount(cachingSail, query));
+            //the second and the third evaluations reuse the cached plan with different binding values
+            assertEquals(2, evaluateCount(cachingSail, query, "s", "http://whatever/subj/3"));
+            assertEquals(2, evaluateCount(cachingSail, query, "s", "http://whatever/subj/4"));
+            assertEquals(50, evaluateCount(cachingSail, query, "p", "http://whatever/pred"));
+            assertEquals(0, evaluateCount(cachingSail, query, "p", "http://whatever/none"));
+            assertEquals(100, evaluateCount(cachingSail, query));
+        } finally {
+            cachingSail.shutDown();
+        }
+    }
+
+    @Test
+    public void testCountsWithReducedIndices() throws Exception {
+        testCountsWithIndices("SPO", "countoptimizerspotable");
+        testCountsWithIndices("CSPO", "countoptimizercspotable");
+    }
+
+    private static void testCountsWithIndices(String indices, String tableName) throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.set(HalyardTableUtils.INDICES_PROPERTY, indices);
+        HBaseSail reducedSail = new HBaseSail(conf, tableName, true, 0, true, 0, null);
+        reducedSail.initialize();
+        try {
+            IRI ctx = vf.createIRI("http://whatever/ctx");
+            for (int i = 0; i < 50; i++) {
+                reducedSail.addStatement(vf.createIRI("http://whatever/subj/" + i), vf.createIRI("http://whatever/pred"), vf.createLiteral(i));
+                reducedSail.addStatement(vf.createIRI("http://whatever/subj/" + i), vf.createIRI("http://whatever/other"), vf.createLiteral(i % 5), ctx);
+                reducedSail.addStatement(vf.createIRI("http://whatever/subj/" + i), vf.createIRI("http://whatever/pred"), vf.createLiteral(i + 100), ctx);
+            }
+            reducedSail.commit();
+            //the available indices do not cover the bound components, so the counts must not cover the whole table or graph
+            assertEquals(100, evaluateCount(reducedSail, "select (count(*) as ?c) where {?s <http://whatever/pred> ?o}"));
+            assertEquals(10, evaluateCount(reducedSail, "select (count(?s) as ?c) where {?s <http://whatever/other> 1}"));
+            assertEquals(100, evaluateCount(reducedSail, "select (count(*) as ?c) where {graph <http://whatever/ctx> {?s ?p ?o}}"));
+            assertEquals(50, evaluateCount(reducedSail, "select (count(*) as ?c) where {graph <http://whatever/ctx> {?s <http://whatever/pred> ?o}}"));
+            assertEquals(2, evaluateCount(reducedSail, "select (count(*) as ?c) where {graph <http://whatever/ctx> {?s ?p ?o}}", "s", "http://whatever/subj/3"));
+        } finally {
+            reducedSail.shutDown();
+        }
+    }
+}
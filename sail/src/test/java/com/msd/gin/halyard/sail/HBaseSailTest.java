@@ -17,9 +17,19 @@
 package com.msd.gin.halyard.sail;
 
 import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import com.msd.gin.halyard.strategy.KeyRangeFunction;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.eclipse.rdf4j.IsolationLevel;
 import org.eclipse.rdf4j.IsolationLevels;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
@@ -29,9 +39,11 @@ import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.QueryLanguage;
 import org.eclipse.rdf4j.query.TupleQuery;
 import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.FunctionRegistry;
 import org.eclipse.rdf4j.repository.sail.SailRepository;
 import org.eclipse.rdf4j.sail.SailException;
 import org.eclipse.rdf4j.sail.UnknownSailTransactionStateException;
@@ -136,6 +148,164 @@ public class HBaseSailTest {
         assertEquals(100, sail.size());
     }
 
+    @Test
+    public void testSizeOfContexts() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "whatevertablesizectx", true, 0, true, 0, null);
+        sail.initialize();
+        IRI ctx1 = vf.createIRI("http://whatever/ctx1");
+        IRI ctx2 = vf.createIRI("http://whatever/ctx2");
+        for (int i=0; i<100; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj/" + i), vf.createIRI("http://whatever/pred/" + i), vf.createLiteral(i), i < 30 ? ctx1 : ctx2);
+        }
+        sail.commit();
+        assertEquals(100, sail.size());
+        assertEquals(30, sail.size(ctx1));
+        assertEquals(70, sail.size(ctx2));
+        assertEquals(100, sail.size(ctx1, ctx2));
+        assertEquals(0, sail.size(vf.createIRI("http://whatever/ctx3")));
+        sail.shutDown();
+    }
+
+    @Test
+    public void testParallelScan() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.PARALLEL_SCANS_PROPERTY, 4);
+        HBaseSail sail = new HBaseSail(conf, "whatevertableparallel", true, 2, true, 0, null);
+        sail.initialize();
+        for (int i=0; i<500; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj/" + i), vf.createIRI("http://whatever/pred/" + (i % 5)), vf.createLiteral(i));
+        }
+        sail.commit();
+        Set<Statement> statements = new HashSet<>();
+        byte[] lastKey = null;
+        try (CloseableIteration<? extends Statement, SailException> it = sail.getStatements(null, null, null, true)) {
+            while (it.hasNext()) {
+                Statement st = it.next();
+                byte[] key = HalyardTableUtils.hashKey(st.getSubject());
+                assertTrue(lastKey == null || Bytes.compareTo(lastKey, key) <= 0);
+                lastKey = key;
+                statements.add(st);
+            }
+        }
+        assertEquals(500, statements.size());
+        sail.shutDown();
+    }
+
+    @Test
+    public void testMultiContextScan() throws Exception {
+        testMultiContextScan(0);
+        testMultiContextScan(1);
+        testMultiContextScan(4);
+    }
+
+    private static void testMultiContextScan(int parallelScans) throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.PARALLEL_SCANS_PROPERTY, parallelScans);
+        HBaseSail sail = new HBaseSail(conf, "whatevertablemulticontext", true, 0, true, 0, null);
+        sail.initialize();
+        IRI pred = vf.createIRI("http://whatever/pred/");
+        Resource contexts[] = new Resource[5];
+        for (int c=0; c<contexts.length; c++) {
+            contexts[c] = vf.createIRI("http://whatever/context/" + c);
+            for (int i=0; i<100; i++) {
+                sail.addStatement(vf.createIRI("http://whatever/subj/" + i), pred, vf.createLiteral(i), contexts[c]);
+            }
+        }
+        sail.commit();
+        //two interleaved scans compete for the threads, the sub-scans rejected by the saturated pool are read by the consumer
+        int count = 0, otherCount = 0;
+        try (CloseableIteration<? extends Statement, SailException> it = sail.getStatements(null, pred, null, true, contexts[0], contexts[2], contexts[4]);
+                CloseableIteration<? extends Statement, SailException> other = sail.getStatements(null, pred, null, true, contexts[1], contexts[3])) {
+            while (it.hasNext()) {
+                Statement st = it.next();
+                assertTrue(st.getContext().equals(contexts[0]) || st.getContext().equals(contexts[2]) || st.getContext().equals(contexts[4]));
+                count++;
+                if (other.hasNext()) {
+                    other.next();
+                    otherCount++;
+                }
+            }
+        }
+        assertEquals(300, count);
+        assertEquals(200, otherCount);
+        sail.shutDown();
+    }
+
+    @Test
+    public void testIndexProfile() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Configuration cfg = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        cfg.set(HalyardTableUtils.INDICES_PROPERTY, "POS");
+        HBaseSail sail = new HBaseSail(cfg, "whatevertableindexprofile", true, 0, true, 0, null);
+        sail.initialize();
+        assertEquals("SPO,POS", HalyardTableUtils.toIndicesString(HalyardTableUtils.getIndices(sail.table)));
+        IRI pred = vf.createIRI("http://whatever/pred/");
+        Resource contexts[] = new Resource[3];
+        for (int c=0; c<contexts.length; c++) {
+            contexts[c] = vf.createIRI("http://whatever/context/" + c);
+            for (int i=0; i<10; i++) {
+                sail.addStatement(vf.createIRI("http://whatever/subj/" + i), pred, vf.createLiteral(i), contexts[c]);
+            }
+        }
+        sail.commit();
+        int count = 0;
+        try (CloseableIteration<? extends Statement, SailException> it = sail.getStatements(null, null, vf.createLiteral(5), true, contexts[0], contexts[2])) {
+            while (it.hasNext()) {
+                Statement st = it.next();
+                assertTrue(st.getContext().equals(contexts[0]) || st.getContext().equals(contexts[2]));
+                count++;
+            }
+        }
+        assertEquals(2, count);
+        try (CloseableIteration<? extends Statement, SailException> it = sail.getStatements(vf.createIRI("http://whatever/subj/3"), pred, vf.createLiteral(3), true, contexts[1])) {
+            assertTrue(it.hasNext());
+            assertEquals(contexts[1], it.next().getContext());
+            assertFalse(it.hasNext());
+        }
+        sail.shutDown();
+    }
+
+    @Test
+    public void testKeyRangeFunction() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "whatevertablekeyrange", true, 0, true, 0, null);
+        sail.initialize();
+        IRI pred = vf.createIRI("http://whatever/pred/");
+        for (int i=0; i<100; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj/" + i), pred, vf.createLiteral(i));
+        }
+        sail.commit();
+        String uri = "http://whatever/keyRange";
+        int total = 0;
+        byte bounds[][] = new byte[][] {null, new byte[] {0x40}, new byte[] {(byte)0xc0}, null};
+        SailRepository rep = new SailRepository(sail);
+        for (int i = 0; i < bounds.length - 1; i++) {
+            KeyRangeFunction function = new KeyRangeFunction(uri, bounds[i], bounds[i + 1]) {
+                @Override
+                protected byte[] getKey(Value... args) {
+                    return HalyardTableUtils.hashKey(args[0]);
+                }
+            };
+            FunctionRegistry.getInstance().add(function);
+            try {
+                TupleQuery q = rep.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, "select ?o where {?s <http://whatever/pred/> ?o FILTER (<" + uri + ">(?o))}");
+                try (TupleQueryResult res = q.evaluate()) {
+                    while (res.hasNext()) {
+                        assertTrue(KeyRangeFunction.isInRange(HalyardTableUtils.hashKey(res.next().getValue("o")), function.getKeyRange()));
+                        total++;
+                    }
+                }
+            } finally {
+                FunctionRegistry.getInstance().remove(function);
+            }
+        }
+        assertEquals(100, total);
+        rep.shutDown();
+    }
+
     @Test(expected = UnknownSailTransactionStateException.class)
     public void testBegin() throws Exception {
         new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "whatevertable", true, 0, true, 0, null).begin(IsolationLevels.READ_COMMITTED);
@@ -223,6 +393,232 @@ public class HBaseSailTest {
         rep.shutDown();
     }
 
+    private static int countResults(SailRepository rep, String query) throws Exception {
+        int count = 0;
+        try (TupleQueryResult res = rep.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, query).evaluate()) {
+            while (res.hasNext()) {
+                res.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testResultCache() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI pred = vf.createIRI("http://whatever/pred/");
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.RESULT_CACHE_SIZE_PROPERTY, 10);
+        conf.setLong(HBaseSail.RESULT_CACHE_CHECK_INTERVAL_PROPERTY, 0);
+        HBaseSail cachingSail = new HBaseSail(conf, "whatevertablecache", true, 0, true, 0, null);
+        SailRepository rep = new SailRepository(cachingSail);
+        rep.initialize();
+        HBaseSail writingSail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "whatevertablecache", true, 0, true, 0, null);
+        writingSail.initialize();
+        for (int i=0; i<10; i++) {
+            writingSail.addStatement(vf.createIRI("http://whatever/subj/" + i), pred, vf.createLiteral(i));
+        }
+        writingSail.commit();
+        String query = "select * where {?s <http://whatever/pred/> ?o}";
+        assertEquals(10, countResults(rep, query));
+        writingSail.addStatement(vf.createIRI("http://whatever/subj/10"), pred, vf.createLiteral(10));
+        writingSail.commit();
+        assertEquals(11, countResults(rep, query));
+        String nonDeterministic[] = new String[] {
+            "select * where {?s <http://whatever/pred/> ?o bind(rand() as ?r)}",
+            "select * where {?s <http://whatever/pred/> ?o bind(now() as ?r)}",
+            "select * where {?s <http://whatever/pred/> ?o bind(struuid() as ?r)}",
+            "select * where {?s <http://whatever/pred/> ?o bind(bnode() as ?r)}"};
+        for (String q : nonDeterministic) {
+            assertEquals(11, countResults(rep, q));
+        }
+        //direct write without the modification marker is not visible through the cached results
+        HTable table = HalyardTableUtils.getTable(HBaseServerTestInstance.getInstanceConfig(), "whatevertablecache", false, 0, null);
+        for (KeyValue kv : HalyardTableUtils.toKeyValues(vf.createIRI("http://whatever/subj/11"), pred, vf.createLiteral(11), null)) {
+            table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+        }
+        table.flushCommits();
+        assertEquals(11, countResults(rep, query));
+        assertEquals(12, countResults(rep, "select * where {?s <http://whatever/pred/> ?o} limit 100"));
+        //results of the non-deterministic queries are never cached
+        for (String q : nonDeterministic) {
+            assertEquals(12, countResults(rep, q));
+        }
+        HalyardTableUtils.markModified(table);
+        table.close();
+        assertEquals(12, countResults(rep, query));
+        writingSail.shutDown();
+        rep.shutDown();
+    }
+
+    @Test
+    public void testResultCacheMemory() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI pred = vf.createIRI("http://whatever/pred/");
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.RESULT_CACHE_SIZE_PROPERTY, 10);
+        conf.setLong(HBaseSail.RESULT_CACHE_CHECK_INTERVAL_PROPERTY, 0);
+        conf.setLong(HBaseSail.RESULT_CACHE_MEMORY_PROPERTY, 10000);
+        HBaseSail cachingSail = new HBaseSail(conf, "whatevertablecachememory", true, 0, true, 0, null);
+        SailRepository rep = new SailRepository(cachingSail);
+        rep.initialize();
+        StringBuilder large = new StringBuilder();
+        for (int i=0; i<10000; i++) {
+            large.append('x');
+        }
+        cachingSail.addStatement(vf.createIRI("http://whatever/subj/small"), pred, vf.createLiteral("small"));
+        cachingSail.addStatement(vf.createIRI("http://whatever/subj/large"), pred, vf.createLiteral(large.toString()));
+        cachingSail.commit();
+        String smallQuery = "select * where {?s <http://whatever/pred/> \"small\"}";
+        String largeQuery = "select * where {?s <http://whatever/pred/> ?o filter(strlen(?o) > 100)}";
+        assertEquals(1, countResults(rep, smallQuery));
+        assertEquals(1, countResults(rep, largeQuery));
+        //direct writes are visible only through the result too large to be cached
+        HTable table = HalyardTableUtils.getTable(HBaseServerTestInstance.getInstanceConfig(), "whatevertablecachememory", false, 0, null);
+        for (Value o : new Value[] {vf.createLiteral("small"), vf.createLiteral(large.toString())}) {
+            for (KeyValue kv : HalyardTableUtils.toKeyValues(vf.createIRI("http://whatever/subj/other"), pred, o, null)) {
+                table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+            }
+        }
+        table.flushCommits();
+        table.close();
+        assertEquals(1, countResults(rep, smallQuery));
+        assertEquals(2, countResults(rep, largeQuery));
+        rep.shutDown();
+    }
+
+    @Test
+    public void testScanCache() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI pred = vf.createIRI("http://whatever/pred/");
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.SCAN_CACHE_SIZE_PROPERTY, 10);
+        conf.setLong(HBaseSail.SCAN_CACHE_TTL_PROPERTY, 1000);
+        HBaseSail sail = new HBaseSail(conf, "whatevertablescancache", true, 0, true, 0, null);
+        SailRepository rep = new SailRepository(sail);
+        rep.initialize();
+        for (int i=0; i<10; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj/" + i), pred, vf.createLiteral(i));
+        }
+        sail.commit();
+        String query = "select * where {?s <http://whatever/pred/> ?o}";
+        assertEquals(10, countResults(rep, query));
+        //direct write is not visible until the cached lookup expires
+        HTable table = HalyardTableUtils.getTable(HBaseServerTestInstance.getInstanceConfig(), "whatevertablescancache", false, 0, null);
+        for (KeyValue kv : HalyardTableUtils.toKeyValues(vf.createIRI("http://whatever/subj/10"), pred, vf.createLiteral(10), null)) {
+            table.put(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+        }
+        table.flushCommits();
+        table.close();
+        assertEquals(10, countResults(rep, query));
+        Thread.sleep(1500);
+        assertEquals(11, countResults(rep, query));
+        //write through the sail invalidates the cache immediately
+        sail.addStatement(vf.createIRI("http://whatever/subj/11"), pred, vf.createLiteral(11));
+        sail.commit();
+        assertEquals(12, countResults(rep, query));
+        rep.shutDown();
+    }
+
+    @Test
+    public void testPlanCache() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI pred = vf.createIRI("http://whatever/pred/");
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.PLAN_CACHE_SIZE_PROPERTY, 10);
+        HBaseSail sail = new HBaseSail(conf, "whatevertableplancache", true, 0, true, 0, null);
+        SailRepository rep = new SailRepository(sail);
+        rep.initialize();
+        for (int i=0; i<10; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj/" + i), pred, vf.createLiteral(i % 3));
+        }
+        sail.commit();
+        TupleQuery q = rep.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s <http://whatever/pred/> ?o}");
+        //the same cached plan is re-bound with different values
+        for (int i = 0; i < 3; i++) {
+            q.setBinding("o", vf.createLiteral(i));
+            int count = 0;
+            try (TupleQueryResult res = q.evaluate()) {
+                while (res.hasNext()) {
+                    res.next();
+                    count++;
+                }
+            }
+            assertEquals(i == 0 ? 4 : 3, count);
+        }
+        q.clearBindings();
+        assertEquals(10, countResults(rep, "select * where {?s <http://whatever/pred/> ?o}"));
+        rep.shutDown();
+    }
+
+    @Test
+    public void testPreparedPlan() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI pred = vf.createIRI("http://whatever/pred/");
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.PLAN_CACHE_SIZE_PROPERTY, 10);
+        conf.setBoolean(HBaseSail.PLAN_PREPARED_PROPERTY, true);
+        HBaseSail sail = new HBaseSail(conf, "whatevertablepreparedplan", true, 0, true, 0, null);
+        SailRepository rep = new SailRepository(sail);
+        rep.initialize();
+        for (int i=0; i<10; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj/" + i), pred, vf.createLiteral(i % 3));
+        }
+        sail.commit();
+        TupleQuery q = rep.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, "select * where {?s <http://whatever/pred/> ?o}");
+        //the same cached plan is evaluated with different bindings
+        for (int i = 0; i < 3; i++) {
+            q.setBinding("o", vf.createLiteral(i));
+            int count = 0;
+            try (TupleQueryResult res = q.evaluate()) {
+                while (res.hasNext()) {
+                    assertEquals(vf.createLiteral(i), res.next().getValue("o"));
+                    count++;
+                }
+            }
+            assertEquals(i == 0 ? 4 : 3, count);
+        }
+        q.clearBindings();
+        assertEquals(10, countResults(rep, "select * where {?s <http://whatever/pred/> ?o}"));
+        rep.shutDown();
+    }
+
+    @Test
+    public void testPreparedPlanProjection() throws Exception {
+        testPlanProjection(false, true);
+        testPlanProjection(true, true);
+        testPlanProjection(true, false);
+    }
+
+    private static void testPlanProjection(boolean prepared, boolean pushStrategy) throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI pred = vf.createIRI("http://whatever/pred/");
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HBaseSail.PLAN_CACHE_SIZE_PROPERTY, 10);
+        conf.setBoolean(HBaseSail.PLAN_PREPARED_PROPERTY, prepared);
+        HBaseSail sail = new HBaseSail(conf, "whatevertableplanprojection", true, 0, pushStrategy, 0, null);
+        SailRepository rep = new SailRepository(sail);
+        rep.initialize();
+        for (int i=0; i<10; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj/" + i), pred, vf.createLiteral(i % 3));
+        }
+        sail.commit();
+        TupleQuery q = rep.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, "select ?s where {?s <http://whatever/pred/> ?o}");
+        q.setBinding("o", vf.createLiteral(1));
+        int count = 0;
+        try (TupleQueryResult res = q.evaluate()) {
+            while (res.hasNext()) {
+                //the bound variable is not projected, so it is not returned in the results
+                BindingSet bs = res.next();
+                assertEquals(Collections.singleton("s"), bs.getBindingNames());
+                count++;
+            }
+        }
+        assertEquals(3, count);
+        rep.shutDown();
+    }
+
     @Test
     public void testEvaluateWithContext() throws Exception {
         ValueFactory vf = SimpleValueFactory.getInstance();
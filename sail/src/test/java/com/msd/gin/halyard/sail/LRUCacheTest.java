@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.sail;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LRUCacheTest {
+
+    @Test
+    public void testEntriesLimit() {
+        LRUCache<String, String> cache = new LRUCache<>(2, 100);
+        cache.put("a", "A", 1);
+        cache.put("b", "B", 1);
+        assertEquals("A", cache.get("a"));
+        cache.put("c", "C", 1);
+        assertEquals(2, cache.size());
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public void testWeightLimit() {
+        LRUCache<String, String> cache = new LRUCache<>(10, 10);
+        cache.put("a", "A", 6);
+        cache.put("b", "B", 6);
+        assertNull(cache.get("a"));
+        assertEquals("B", cache.get("b"));
+        cache.put("c", "C", 11);
+        assertNull(cache.get("c"));
+        assertEquals("B", cache.get("b"));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        LRUCache<String, String> cache = new LRUCache<>(10, 10, 100);
+        cache.put("a", "A", 1);
+        assertEquals("A", cache.get("a"));
+        Thread.sleep(200);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testGeneration() {
+        LRUCache<String, String> cache = new LRUCache<>(10, 10);
+        long generation = cache.getGeneration();
+        cache.put("a", "A", 1, generation);
+        assertEquals("A", cache.get("a"));
+        cache.clear();
+        cache.put("b", "B", 1, generation);
+        assertNull(cache.get("b"));
+        cache.put("b", "B", 1, cache.getGeneration());
+        assertEquals("B", cache.get("b"));
+    }
+}
@@ -27,6 +27,7 @@ import org.eclipse.rdf4j.query.algebra.ValueExpr;
 import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
 import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
 import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
 import org.eclipse.rdf4j.query.algebra.evaluation.federation.FederatedService;
 import org.eclipse.rdf4j.query.algebra.evaluation.util.EvaluationStrategies;
 
@@ -36,6 +37,16 @@ import org.eclipse.rdf4j.query.algebra.evaluation.util.EvaluationStrategies;
  */
 public final class HalyardEvaluationStrategy implements EvaluationStrategy {
 
+    /**
+     * Default number of independently locked partitions of each hash join table
+     */
+    public static final int DEFAULT_HASH_JOIN_PARTITIONS = 64;
+
+    /**
+     * Default maximal number of solutions of each hash join table held in memory
+     */
+    public static final long DEFAULT_HASH_JOIN_MEMORY_LIMIT = 100000;
+
     private final HalyardTupleExprEvaluation tupleEval;
     private final HalyardValueExprEvaluation valueEval;
 
@@ -48,7 +59,53 @@ public final class HalyardEvaluationStrategy implements EvaluationStrategy {
      * @param timeout long query evaluation timeout in seconds, negative values mean no timeout
      */
     public HalyardEvaluationStrategy(TripleSource tripleSource, Dataset dataset, long timeout) {
-        this.tupleEval = new HalyardTupleExprEvaluation(this, tripleSource, dataset, timeout);
+        this(tripleSource, dataset, timeout, null, 0);
+    }
+
+    /**
+     * Constructor of HalyardEvaluationStrategy with cost-based selection of hash joins
+     * @param tripleSource TripleSource
+     * @param dataset Dataset
+     * @param timeout long query evaluation timeout in seconds, negative values mean no timeout
+     * @param statistics optional EvaluationStatistics used to estimate cardinalities of the join arguments, null disables hash joins
+     * @param hashJoinLimit double minimal estimated cardinality of both join arguments to evaluate the join as a hash join, zero or negative values disable hash joins
+     */
+    public HalyardEvaluationStrategy(TripleSource tripleSource, Dataset dataset, long timeout, EvaluationStatistics statistics, double hashJoinLimit) {
+        this(tripleSource, dataset, timeout, statistics, hashJoinLimit, false);
+    }
+
+    /**
+     * Constructor of HalyardEvaluationStrategy with cost-based selection of hash joins and optional merge joins
+     * @param tripleSource TripleSource
+     * @param dataset Dataset
+     * @param timeout long query evaluation timeout in seconds, negative values mean no timeout
+     * @param statistics optional EvaluationStatistics used to estimate cardinalities of the join arguments, null disables hash joins
+     * @param hashJoinLimit double minimal estimated cardinality of both join arguments to evaluate the join as a hash join, zero or negative values disable hash joins
+     * @param mergeJoins boolean option to evaluate joins of two Statement patterns sharing the ordering variable as merge joins, applies to {@link OrderedTripleSource} only
+     */
+    public HalyardEvaluationStrategy(TripleSource tripleSource, Dataset dataset, long timeout, EvaluationStatistics statistics, double hashJoinLimit, boolean mergeJoins) {
+        this(tripleSource, dataset, timeout, statistics, hashJoinLimit, DEFAULT_HASH_JOIN_PARTITIONS, DEFAULT_HASH_JOIN_MEMORY_LIMIT, mergeJoins);
+    }
+
+    /**
+     * Constructor of HalyardEvaluationStrategy with cost-based selection of tuned hash joins and optional merge joins
+     * @param tripleSource TripleSource
+     * @param dataset Dataset
+     * @param timeout long query evaluation timeout in seconds, negative values mean no timeout
+     * @param statistics optional EvaluationStatistics used to estimate cardinalities of the join arguments, null disables hash joins
+     * @param hashJoinLimit double minimal estimated cardinality of both join arguments to evaluate the join as a hash join, zero or negative values disable hash joins
+     * @param hashJoinPartitions int number of independently locked partitions of each hash join table
+     * @param hashJoinMemoryLimit long maximal number of solutions of each hash join table held in memory, the rest is spilled to temporary files
+     * @param mergeJoins boolean option to evaluate joins of two Statement patterns sharing the ordering variable as merge joins, applies to {@link OrderedTripleSource} only
+     */
+    public HalyardEvaluationStrategy(TripleSource tripleSource, Dataset dataset, long timeout, EvaluationStatistics statistics, double hashJoinLimit, int hashJoinPartitions, long hashJoinMemoryLimit, boolean mergeJoins) {
+        if (hashJoinPartitions < 1) {
+            throw new IllegalArgumentException("Number of hash join partitions must be positive");
+        }
+        if (hashJoinMemoryLimit < 1) {
+            throw new IllegalArgumentException("Hash join memory limit must be positive");
+        }
+        this.tupleEval = new HalyardTupleExprEvaluation(this, tripleSource, dataset, timeout, hashJoinLimit > 0 ? statistics : null, hashJoinLimit, hashJoinPartitions, hashJoinMemoryLimit, mergeJoins);
         this.valueEval = new HalyardValueExprEvaluation(this, tripleSource.getValueFactory());
         EvaluationStrategies.register(this);
     }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import java.util.List;
+import java.util.Optional;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer;
+import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.Function;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.FunctionRegistry;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+
+/**
+ * Query optimizer pushing the {@link KeyRangeFunction} filters down to the filtered Statement patterns,
+ * so the Statements retrieval is restricted to the range of the ordering keys rather than the Statements are retrieved and discarded.
+ * Eligible are filters of a registered KeyRangeFunction with constant range arguments and a single key variable.
+ * All Statement patterns binding the variable within the joined patterns below the filter are restricted, as all of them bind the same filtered Value.
+ */
+public final class HalyardKeyRangeOptimizer implements QueryOptimizer {
+
+    @Override
+    public void optimize(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings) {
+        tupleExpr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(Filter filter) throws RuntimeException {
+                super.meet(filter);
+                if (filter.getCondition() instanceof FunctionCall) {
+                    FunctionCall call = (FunctionCall)filter.getCondition();
+                    byte[][] range = getKeyRange(call);
+                    if (range != null) {
+                        restrict(filter.getArg(), ((Var)call.getArgs().get(call.getArgs().size() - 1)).getName(), range);
+                    }
+                }
+            }
+        });
+    }
+
+    private static byte[][] getKeyRange(FunctionCall call) {
+        Optional<Function> function = FunctionRegistry.getInstance().get(call.getURI());
+        if (!function.isPresent() || !(function.get() instanceof KeyRangeFunction)) {
+            return null;
+        }
+        KeyRangeFunction keyRangeFunction = (KeyRangeFunction)function.get();
+        List<ValueExpr> args = call.getArgs();
+        if (args.size() != keyRangeFunction.getRangeArgCount() + 1) {
+            return null;
+        }
+        ValueExpr keyArg = args.get(args.size() - 1);
+        if (!(keyArg instanceof Var) || ((Var)keyArg).hasValue()) {
+            return null;
+        }
+        Value rangeArgs[] = new Value[args.size() - 1];
+        for (int i = 0; i < rangeArgs.length; i++) {
+            ValueExpr arg = args.get(i);
+            if (arg instanceof ValueConstant) {
+                rangeArgs[i] = ((ValueConstant)arg).getValue();
+            } else if ((arg instanceof Var) && ((Var)arg).hasValue()) {
+                rangeArgs[i] = ((Var)arg).getValue();
+            } else {
+                return null;
+            }
+        }
+        try {
+            return keyRangeFunction.getKeyRange(rangeArgs);
+        } catch (ValueExprEvaluationException e) {
+            //invalid range arguments are reported by the filter evaluation
+            return null;
+        }
+    }
+
+    private static void restrict(TupleExpr expr, String varName, byte[][] range) {
+        if (expr instanceof Filter) {
+            restrict(((Filter)expr).getArg(), varName, range);
+        } else if (expr instanceof Join) {
+            restrict(((Join)expr).getLeftArg(), varName, range);
+            restrict(((Join)expr).getRightArg(), varName, range);
+        } else if ((expr instanceof StatementPattern) && !(expr instanceof KeyRangeStatementPattern) && isBoundByStatement((StatementPattern)expr, varName)) {
+            expr.replaceWith(new KeyRangeStatementPattern((StatementPattern)expr, varName, range[0], range[1]));
+        }
+    }
+    private static boolean isBoundByStatement(StatementPattern sp, String varName) {
+        //context is never the ordering component
+        for (Var v : new Var[] {sp.getSubjectVar(), sp.getPredicateVar(), sp.getObjectVar()}) {
+            if (varName.equals(v.getName()) && !v.hasValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
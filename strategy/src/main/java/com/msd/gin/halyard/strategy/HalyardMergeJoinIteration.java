@@ -0,0 +1,277 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.EmptyIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+
+/**
+ * Merge join of two Statement patterns sharing a variable in the ordering component of both ordered Statement streams.
+ * Both streams are read in groups of Statements with the same ordering key and only the groups with matching keys are joined.
+ * When one of the streams skips too many groups in a row (the other pattern is much more selective), the merge falls back
+ * to lookups of the skipping pattern bound by the Statements of the selective one.
+ */
+final class HalyardMergeJoinIteration extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+
+    private static final int MAX_SKIPPED_GROUPS = 10000;
+
+    private final class Side {
+
+        private final StatementPattern pattern;
+        private final Value values[];
+        private final int component;
+        private final CloseableIteration<? extends Statement, QueryEvaluationException> iter;
+        private final List<Statement> group = new ArrayList<>();
+        private Statement peek = null;
+        private byte[] key = null;
+        private int skipped = 0, groupIndex = 0;
+
+        Side(StatementPattern pattern, Value values[], int component) throws QueryEvaluationException {
+            this.pattern = pattern;
+            this.values = values;
+            this.component = component;
+            //the key range restricts the ordered Statements stream only, the lookups are bound in the ordering component
+            if ((pattern instanceof KeyRangeStatementPattern) && ((KeyRangeStatementPattern)pattern).getKeyRangeVarName().equals(pattern.getVarList().get(component).getName())) {
+                KeyRangeStatementPattern ksp = (KeyRangeStatementPattern)pattern;
+                this.iter = getStatements(values, ksp.getStartKey(), ksp.getStopKey());
+            } else {
+                this.iter = getStatements(values, null, null);
+            }
+        }
+
+        boolean nextGroup() throws QueryEvaluationException {
+            group.clear();
+            key = null;
+            if (peek == null && iter.hasNext()) {
+                peek = iter.next();
+            }
+            if (peek == null) {
+                return false;
+            }
+            key = source.getOrderingKey(getComponent(peek, component));
+            do {
+                group.add(peek);
+                peek = iter.hasNext() ? iter.next() : null;
+            } while (peek != null && Arrays.equals(key, source.getOrderingKey(getComponent(peek, component))));
+            return true;
+        }
+
+        Statement nextStatement() throws QueryEvaluationException {
+            if (groupIndex < group.size()) {
+                return group.get(groupIndex++);
+            }
+            if (peek != null) {
+                Statement st = peek;
+                peek = null;
+                return st;
+            }
+            return iter.hasNext() ? iter.next() : null;
+        }
+
+        CloseableIteration<? extends Statement, QueryEvaluationException> lookup(Value value) throws QueryEvaluationException {
+            Value boundValues[] = Arrays.copyOf(values, values.length);
+            boundValues[component] = value;
+            return getStatements(boundValues, null, null);
+        }
+    }
+
+    private final OrderedTripleSource source;
+    private final BindingSet bindings;
+    private final Side left, right;
+    private boolean matching = false;
+    private int leftIndex, rightIndex;
+    private Side driving = null, lookupSide = null;
+    private Statement drivingStatement = null;
+    private CloseableIteration<? extends Statement, QueryEvaluationException> lookup = null;
+
+    /**
+     * Constructs merge join of two Statement patterns
+     * @param source OrderedTripleSource
+     * @param left left StatementPattern
+     * @param leftValues resolved subject, predicate, object and context values of the left pattern
+     * @param leftComponent ordering component of the left pattern
+     * @param right right StatementPattern
+     * @param rightValues resolved subject, predicate, object and context values of the right pattern
+     * @param rightComponent ordering component of the right pattern
+     * @param bindings parent BindingSet
+     * @throws QueryEvaluationException
+     */
+    HalyardMergeJoinIteration(OrderedTripleSource source, StatementPattern left, Value leftValues[], int leftComponent, StatementPattern right, Value rightValues[], int rightComponent, BindingSet bindings) throws QueryEvaluationException {
+        this.source = source;
+        this.bindings = bindings;
+        this.left = new Side(left, leftValues, leftComponent);
+        this.right = new Side(right, rightValues, rightComponent);
+    }
+
+    @Override
+    protected BindingSet getNextElement() throws QueryEvaluationException {
+        while (true) {
+            if (driving != null) {
+                if (lookup != null) {
+                    while (lookup.hasNext()) {
+                        BindingSet bs = join(drivingStatement, driving, lookup.next(), lookupSide);
+                        if (bs != null) {
+                            return bs;
+                        }
+                    }
+                    lookup.close();
+                    lookup = null;
+                }
+                drivingStatement = driving.nextStatement();
+                if (drivingStatement == null) {
+                    return null;
+                }
+                lookup = lookupSide.lookup(getComponent(drivingStatement, driving.component));
+            } else if (matching) {
+                while (leftIndex < left.group.size()) {
+                    Statement l = left.group.get(leftIndex);
+                    while (rightIndex < right.group.size()) {
+                        BindingSet bs = join(l, left, right.group.get(rightIndex++), right);
+                        if (bs != null) {
+                            return bs;
+                        }
+                    }
+                    leftIndex++;
+                    rightIndex = 0;
+                }
+                matching = false;
+                left.key = null;
+                right.key = null;
+            } else {
+                if (left.key == null && !left.nextGroup()) {
+                    return null;
+                }
+                if (right.key == null && !right.nextGroup()) {
+                    return null;
+                }
+                int c = compare(left.key, right.key);
+                if (c == 0) {
+                    matching = true;
+                    leftIndex = 0;
+                    rightIndex = 0;
+                    left.skipped = 0;
+                    right.skipped = 0;
+                } else if (c < 0) {
+                    left.key = null;
+                    right.skipped = 0;
+                    if (++left.skipped > MAX_SKIPPED_GROUPS) {
+                        switchToLookups(right, left);
+                    }
+                } else {
+                    right.key = null;
+                    left.skipped = 0;
+                    if (++right.skipped > MAX_SKIPPED_GROUPS) {
+                        switchToLookups(left, right);
+                    }
+                }
+            }
+        }
+    }
+
+    private void switchToLookups(Side drivingSide, Side skippingSide) throws QueryEvaluationException {
+        skippingSide.iter.close();
+        drivingSide.groupIndex = drivingSide.key == null ? drivingSide.group.size() : 0;
+        driving = drivingSide;
+        lookupSide = skippingSide;
+    }
+
+    @Override
+    protected void handleClose() throws QueryEvaluationException {
+        try {
+            super.handleClose();
+        } finally {
+            try {
+                left.iter.close();
+            } finally {
+                try {
+                    right.iter.close();
+                } finally {
+                    if (lookup != null) {
+                        lookup.close();
+                    }
+                }
+            }
+        }
+    }
+
+    private CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Value values[], byte[] startKey, byte[] stopKey) throws QueryEvaluationException {
+        if ((values[0] == null || values[0] instanceof Resource) && (values[1] == null || values[1] instanceof IRI) && (values[3] == null || values[3] instanceof Resource)) {
+            Resource contexts[] = values[3] == null ? new Resource[0] : new Resource[]{(Resource)values[3]};
+            if (startKey != null || stopKey != null) {
+                return source.getStatements((Resource)values[0], (IRI)values[1], values[2], startKey, stopKey, contexts);
+            }
+            return source.getStatements((Resource)values[0], (IRI)values[1], values[2], contexts);
+        } else {
+            return new EmptyIteration<>();
+        }
+    }
+
+    private BindingSet join(Statement st1, Side side1, Statement st2, Side side2) {
+        QueryBindingSet result = new QueryBindingSet(bindings);
+        return bind(result, side1.pattern, st1) && bind(result, side2.pattern, st2) ? result : null;
+    }
+
+    private static boolean bind(QueryBindingSet result, StatementPattern sp, Statement st) {
+        return bind(result, sp.getSubjectVar(), st.getSubject())
+            && bind(result, sp.getPredicateVar(), st.getPredicate())
+            && bind(result, sp.getObjectVar(), st.getObject())
+            && (st.getContext() == null || bind(result, sp.getContextVar(), st.getContext()));
+    }
+
+    private static boolean bind(QueryBindingSet result, Var var, Value value) {
+        if (var == null || var.hasValue()) {
+            return true;
+        }
+        Value bound = result.getValue(var.getName());
+        if (bound == null) {
+            result.addBinding(var.getName(), value);
+            return true;
+        }
+        return bound.equals(value);
+    }
+
+    static Value getComponent(Statement st, int component) {
+        switch (component) {
+            case 0: return st.getSubject();
+            case 1: return st.getPredicate();
+            default: return st.getObject();
+        }
+    }
+
+    private static int compare(byte[] key1, byte[] key2) {
+        for (int i = 0; i < key1.length && i < key2.length; i++) {
+            int d = (key1[i] & 0xff) - (key2[i] & 0xff);
+            if (d != 0) {
+                return d;
+            }
+        }
+        return key1.length - key2.length;
+    }
+}
@@ -17,7 +17,9 @@
 package com.msd.gin.halyard.strategy;
 
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -35,6 +37,7 @@ import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.Join;
 import org.eclipse.rdf4j.query.algebra.QueryModelNode;
 import org.eclipse.rdf4j.query.algebra.StatementPattern;
 import org.eclipse.rdf4j.query.algebra.Var;
@@ -274,7 +277,7 @@ final class HalyardStatementPatternEvaluation {
                     }
                 }
 
-                stIter = tripleSource.getStatements((Resource) subjValue, (IRI) predValue, objValue, contexts);
+                stIter = getStatements(sp, (Resource) subjValue, (IRI) predValue, objValue, contexts);
 
                 if (contexts.length == 0 && sp.getScope() == StatementPattern.Scope.NAMED_CONTEXTS) {
                     // Named contexts are matched by retrieving all statements from
@@ -367,6 +370,80 @@ final class HalyardStatementPatternEvaluation {
         }, sp);
     }
 
+    private CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(StatementPattern sp, Resource subj, IRI pred, Value obj, Resource[] contexts) throws QueryEvaluationException {
+        if ((sp instanceof KeyRangeStatementPattern) && (tripleSource instanceof OrderedTripleSource)) {
+            KeyRangeStatementPattern ksp = (KeyRangeStatementPattern)sp;
+            OrderedTripleSource source = (OrderedTripleSource)tripleSource;
+            int component = source.getOrderingComponent(subj, pred, obj, contexts);
+            //the key range applies only when the restricted variable leads the order of the actually retrieved Statements
+            if (component >= 0 && ksp.getKeyRangeVarName().equals(sp.getVarList().get(component).getName())) {
+                return source.getStatements(subj, pred, obj, ksp.getStartKey(), ksp.getStopKey(), contexts);
+            }
+        }
+        return tripleSource.getStatements(subj, pred, obj, contexts);
+    }
+
+    /**
+     * Evaluates join of two Statement patterns as a merge join of the ordered Statement streams when possible
+     * @param parent parent BindingSetPipe
+     * @param join Join of two StatementPatterns
+     * @param bindings parent BindingSet
+     * @return boolean true if the join is evaluated as a merge join, false if the merge join is not applicable
+     */
+    boolean evaluateMergeJoin(HalyardTupleExprEvaluation.BindingSetPipe parent, Join join, BindingSet bindings) {
+        if (!(tripleSource instanceof OrderedTripleSource) || (dataset != null && (!dataset.getDefaultGraphs().isEmpty() || !dataset.getNamedGraphs().isEmpty()))) {
+            return false;
+        }
+        OrderedTripleSource source = (OrderedTripleSource)tripleSource;
+        StatementPattern left = (StatementPattern)join.getLeftArg();
+        StatementPattern right = (StatementPattern)join.getRightArg();
+        Value leftValues[] = getOrderableValues(left, bindings);
+        Value rightValues[] = getOrderableValues(right, bindings);
+        if (leftValues == null || rightValues == null) {
+            return false;
+        }
+        int leftComponent = getOrderingComponent(source, leftValues);
+        int rightComponent = getOrderingComponent(source, rightValues);
+        if (leftComponent < 0 || rightComponent < 0) {
+            return false;
+        }
+        Var leftVar = left.getVarList().get(leftComponent);
+        Var rightVar = right.getVarList().get(rightComponent);
+        if (leftValues[leftComponent] != null || rightValues[rightComponent] != null || !leftVar.getName().equals(rightVar.getName())) {
+            return false;
+        }
+        try {
+            enqueue(parent, new HalyardMergeJoinIteration(source, left, leftValues, leftComponent, right, rightValues, rightComponent, bindings), join);
+        } catch (QueryEvaluationException e) {
+            parent.handleException(e);
+        }
+        return true;
+    }
+
+    private static Value[] getOrderableValues(StatementPattern sp, BindingSet bindings) {
+        if (sp.getScope() == StatementPattern.Scope.NAMED_CONTEXTS && getVarValue(sp.getContextVar(), bindings) == null) {
+            return null;
+        }
+        Value values[] = new Value[4];
+        Set<String> unboundNames = new HashSet<>();
+        List<Var> vars = sp.getVarList();
+        for (int i = 0; i < vars.size(); i++) {
+            Var v = vars.get(i);
+            values[i] = getVarValue(v, bindings);
+            if (values[i] == null && !unboundNames.add(v.getName())) {
+                return null;
+            }
+        }
+        if ((values[0] == null || values[0] instanceof Resource) && (values[1] == null || values[1] instanceof IRI) && (values[3] == null || values[3] instanceof Resource)) {
+            return values;
+        }
+        return null;
+    }
+
+    private static int getOrderingComponent(OrderedTripleSource source, Value values[]) {
+        return source.getOrderingComponent((Resource)values[0], (IRI)values[1], values[2], values[3] == null ? new Resource[0] : new Resource[]{(Resource)values[3]});
+    }
+
     private static Value getVarValue(Var var, BindingSet bindings) {
         if (var == null) {
             return null;
@@ -17,15 +17,19 @@
 package com.msd.gin.halyard.strategy;
 
 import com.msd.gin.halyard.strategy.HalyardTupleExprEvaluation.BindingSetPipe;
+import com.msd.gin.halyard.strategy.collections.BigHashMultimap;
 import com.msd.gin.halyard.strategy.collections.BigHashSet;
 import com.msd.gin.halyard.strategy.collections.Sorter;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -33,7 +37,10 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
 import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.Binding;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
@@ -76,9 +83,9 @@ import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
 import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
 import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.ExternalSet;
 import org.eclipse.rdf4j.query.algebra.evaluation.impl.StrictEvaluationStrategy;
-import org.eclipse.rdf4j.query.algebra.evaluation.iterator.DescribeIteration;
 import org.eclipse.rdf4j.query.algebra.evaluation.iterator.GroupIterator;
 import org.eclipse.rdf4j.query.algebra.evaluation.iterator.PathIteration;
 import org.eclipse.rdf4j.query.algebra.evaluation.iterator.ProjectionIterator;
@@ -130,15 +137,29 @@ final class HalyardTupleExprEvaluation {
         }
     }
 
+    private static final String DESCRIBE_SUBJECT = "subject";
+    private static final String DESCRIBE_PREDICATE = "predicate";
+    private static final String DESCRIBE_OBJECT = "object";
+
     private final HalyardEvaluationStrategy parentStrategy;
     private final HalyardStatementPatternEvaluation statementEvaluation;
     private final long startTime, timeout;
+    private final EvaluationStatistics statistics;
+    private final double hashJoinLimit;
+    private final int hashJoinPartitions;
+    private final long hashJoinMemoryLimit;
+    private final boolean mergeJoins;
 
-    HalyardTupleExprEvaluation(HalyardEvaluationStrategy parentStrategy, TripleSource tripleSource, Dataset dataset, long timeout) {
+    HalyardTupleExprEvaluation(HalyardEvaluationStrategy parentStrategy, TripleSource tripleSource, Dataset dataset, long timeout, EvaluationStatistics statistics, double hashJoinLimit, int hashJoinPartitions, long hashJoinMemoryLimit, boolean mergeJoins) {
         this.parentStrategy = parentStrategy;
         this.statementEvaluation = new HalyardStatementPatternEvaluation(dataset, tripleSource);
         this.startTime = System.currentTimeMillis();
         this.timeout = timeout;
+        this.statistics = statistics;
+        this.hashJoinLimit = hashJoinLimit;
+        this.hashJoinPartitions = hashJoinPartitions;
+        this.hashJoinMemoryLimit = hashJoinMemoryLimit;
+        this.mergeJoins = mergeJoins;
     }
 
     CloseableIteration<BindingSet, QueryEvaluationException> evaluate(TupleExpr expr, BindingSet bindings) {
@@ -207,14 +228,26 @@ final class HalyardTupleExprEvaluation {
     }
 
     private void evaluateProjection(BindingSetPipe parent, final Projection projection, final BindingSet bindings) {
+        //only sub-select projections pass through the parent bindings, the outermost projection returns just the projected variables
+        final boolean includeAllParentBindings = !isOuterProjection(projection);
         evaluateTupleExpr(new BindingSetPipe(parent) {
             @Override
             public boolean push(BindingSet bs) throws InterruptedException {
-                return parent.push(bs == null ? null : ProjectionIterator.project(projection.getProjectionElemList(), bs, bindings, true));
+                return parent.push(bs == null ? null : ProjectionIterator.project(projection.getProjectionElemList(), bs, bindings, includeAllParentBindings));
             }
         }, projection.getArg(), bindings);
     }
 
+    private static boolean isOuterProjection(QueryModelNode node) {
+        while (node.getParentNode() != null) {
+            node = node.getParentNode();
+            if (node instanceof Projection || node instanceof MultiProjection) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void evaluateMultiProjection(BindingSetPipe parent, final MultiProjection multiProjection, final BindingSet bindings) {
         final List<ProjectionElemList> projections = multiProjection.getProjections();
         final BindingSet prev[] = new BindingSet[projections.size()];
@@ -281,8 +314,64 @@ final class HalyardTupleExprEvaluation {
         }, filter.getArg(), bindings);
     }
 
-    private void evaluateDescribeOperator(BindingSetPipe parent, DescribeOperator operator, BindingSet bindings) {
-        HalyardStatementPatternEvaluation.enqueue(parent, new DescribeIteration(evaluate(operator.getArg(), bindings), parentStrategy, operator.getBindingNames(), bindings), operator);
+    /**
+     * Evaluates DESCRIBE as a symmetric concise bounded description of all the described resources.
+     * Each resource is described just once and the outgoing and incoming statements of all the resources are retrieved concurrently,
+     * with the blank nodes closure expanded as the statements arrive.
+     */
+    private void evaluateDescribeOperator(BindingSetPipe parent, final DescribeOperator operator, BindingSet bindings) {
+        final DescribePipe describePipe = new DescribePipe(parent, bindings);
+        evaluateTupleExpr(new BindingSetPipe(describePipe) {
+            @Override
+            public boolean push(BindingSet bs) throws InterruptedException {
+                if (bs == null) {
+                    return parent.push(null);
+                }
+                for (String name : operator.getBindingNames()) {
+                    describePipe.describe(bs.getValue(name));
+                }
+                return true;
+            }
+        }, operator.getArg(), bindings);
+    }
+
+    private final class DescribePipe extends BindingSetPipe {
+
+        private final BindingSet bindings;
+        private final Set<Value> described = Collections.newSetFromMap(new ConcurrentHashMap<Value, Boolean>());
+        private final AtomicLong lookupsInProgress = new AtomicLong(1);
+
+        DescribePipe(BindingSetPipe parent, BindingSet bindings) {
+            super(parent);
+            this.bindings = bindings;
+        }
+
+        void describe(Value value) {
+            if (value instanceof Resource && described.add(value)) {
+                lookupsInProgress.addAndGet(2);
+                statementEvaluation.evaluateStatementPattern(this, new StatementPattern(new Var(DESCRIBE_SUBJECT, value), new Var(DESCRIBE_PREDICATE), new Var(DESCRIBE_OBJECT)), bindings);
+                statementEvaluation.evaluateStatementPattern(this, new StatementPattern(new Var(DESCRIBE_SUBJECT), new Var(DESCRIBE_PREDICATE), new Var(DESCRIBE_OBJECT, value)), bindings);
+            }
+        }
+
+        @Override
+        public boolean push(BindingSet bs) throws InterruptedException {
+            if (bs == null) {
+                if (lookupsInProgress.decrementAndGet() == 0) {
+                    parent.push(null);
+                }
+                return false;
+            }
+            Value subj = bs.getValue(DESCRIBE_SUBJECT);
+            if (subj instanceof BNode) {
+                describe(subj);
+            }
+            Value obj = bs.getValue(DESCRIBE_OBJECT);
+            if (obj instanceof BNode) {
+                describe(obj);
+            }
+            return parent.push(bs);
+        }
     }
 
     private static class ComparableBindingSetWrapper implements Comparable<ComparableBindingSetWrapper>, Serializable {
@@ -510,6 +599,12 @@ final class HalyardTupleExprEvaluation {
     }
 
     private void evaluateJoin(BindingSetPipe topPipe, final Join join, final BindingSet bindings) {
+        if (mergeJoins && (join.getLeftArg() instanceof StatementPattern) && (join.getRightArg() instanceof StatementPattern) && statementEvaluation.evaluateMergeJoin(topPipe, join, bindings)) {
+            return;
+        }
+        if (statistics != null && evaluateHashJoin(topPipe, join, bindings)) {
+            return;
+        }
         final AtomicLong joinsInProgress = new AtomicLong(1);
         BindingSetPipe rightPipe = new BindingSetPipe(topPipe) {
             @Override
@@ -538,6 +633,103 @@ final class HalyardTupleExprEvaluation {
         }, join.getLeftArg(), bindings);
     }
 
+    /**
+     * Evaluates the join as a hash join when both arguments are estimated to be large and independent of the parent bindings.
+     * The argument with lower estimated cardinality is collected into a partitioned hash table, which is then probed in parallel by the other argument.
+     * @return boolean true if the join is evaluated as a hash join, false if the hash join is not applicable
+     */
+    private boolean evaluateHashJoin(BindingSetPipe topPipe, final Join join, final BindingSet bindings) {
+        Set<String> argNames = new HashSet<>(join.getLeftArg().getBindingNames());
+        argNames.addAll(join.getRightArg().getBindingNames());
+        for (String name : bindings.getBindingNames()) {
+            if (argNames.contains(name)) {
+                return false;
+            }
+        }
+        final List<String> keyNames = new ArrayList<>(join.getLeftArg().getAssuredBindingNames());
+        keyNames.retainAll(join.getRightArg().getAssuredBindingNames());
+        if (keyNames.isEmpty()) {
+            return false;
+        }
+        double leftCard = statistics.getCardinality(join.getLeftArg());
+        double rightCard = statistics.getCardinality(join.getRightArg());
+        if (leftCard < hashJoinLimit || rightCard < hashJoinLimit) {
+            return false;
+        }
+        final TupleExpr buildArg = leftCard < rightCard ? join.getLeftArg() : join.getRightArg();
+        final TupleExpr probeArg = leftCard < rightCard ? join.getRightArg() : join.getLeftArg();
+        evaluateTupleExpr(new BindingSetPipe(topPipe) {
+            private final BigHashMultimap<ArrayList<Value>, BindingSet> table = new BigHashMultimap<>(hashJoinPartitions, hashJoinMemoryLimit);
+            @Override
+            protected void handleException(Exception e) {
+                table.close();
+                super.handleException(e);
+            }
+            @Override
+            public boolean push(BindingSet bs) throws InterruptedException {
+                if (bs != null) try {
+                    ArrayList<Value> key = getJoinKey(bs, keyNames);
+                    if (key != null) {
+                        table.put(key, bs);
+                    }
+                    return true;
+                } catch (IOException e) {
+                    handleException(e);
+                    return false;
+                } else {
+                    evaluateTupleExpr(new BindingSetPipe(parent) {
+                        @Override
+                        protected void handleException(Exception e) {
+                            table.close();
+                            super.handleException(e);
+                        }
+                        @Override
+                        public boolean push(BindingSet bs) throws InterruptedException {
+                            if (bs == null) {
+                                table.close();
+                                return parent.push(null);
+                            }
+                            ArrayList<Value> key = getJoinKey(bs, keyNames);
+                            if (key != null) try {
+                                for (BindingSet match : table.get(key)) {
+                                    if (QueryResults.bindingSetsCompatible(match, bs)) {
+                                        QueryBindingSet result = new QueryBindingSet(bs);
+                                        for (Binding b : match) {
+                                            if (!result.hasBinding(b.getName())) {
+                                                result.addBinding(b);
+                                            }
+                                        }
+                                        if (!parent.push(result)) {
+                                            return false;
+                                        }
+                                    }
+                                }
+                            } catch (IOException e) {
+                                handleException(e);
+                                return false;
+                            }
+                            return true;
+                        }
+                    }, probeArg, bindings);
+                    return false;
+                }
+            }
+        }, buildArg, bindings);
+        return true;
+    }
+
+    private static ArrayList<Value> getJoinKey(BindingSet bs, List<String> keyNames) {
+        ArrayList<Value> key = new ArrayList<>(keyNames.size());
+        for (String name : keyNames) {
+            Value v = bs.getValue(name);
+            if (v == null) {
+                return null;
+            }
+            key.add(v);
+        }
+        return key;
+    }
+
     private void evaluateLeftJoin(BindingSetPipe parentPipe, final LeftJoin leftJoin, final BindingSet bindings) {
         // Check whether optional join is "well designed" as defined in section
         // 4.2 of "Semantics and Complexity of SPARQL", 2006, Jorge Pérez et al.
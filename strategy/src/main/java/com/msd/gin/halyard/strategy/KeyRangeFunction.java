@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import java.util.Arrays;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.Function;
+
+/**
+ * Boolean filter function accepting the Values with the key within a range.
+ * The range is either fixed or selected by the leading constant arguments of each function call, the key is calculated from the following arguments.
+ * The key of a single Value must be the ordering key of the {@link OrderedTripleSource} (see {@link OrderedTripleSource#getOrderingKey(Value)}),
+ * so {@link HalyardKeyRangeOptimizer} can push the filter down to the Statement patterns binding the Value in their ordering component.
+ */
+public abstract class KeyRangeFunction implements Function {
+
+    private final String uri;
+    private final int rangeArgCount;
+    private final byte[] startKey, stopKey;
+
+    /**
+     * Constructs KeyRangeFunction with a fixed key range
+     * @param uri String URI of the function
+     * @param startKey optional inclusive lower bound of the key, null for unbounded
+     * @param stopKey optional exclusive upper bound of the key, null for unbounded
+     */
+    public KeyRangeFunction(String uri, byte[] startKey, byte[] stopKey) {
+        this.uri = uri;
+        this.rangeArgCount = 0;
+        this.startKey = startKey;
+        this.stopKey = stopKey;
+    }
+
+    /**
+     * Constructs KeyRangeFunction with the key range selected by the leading arguments of each function call, see {@link #getKeyRange(Value...)}
+     * @param uri String URI of the function
+     * @param rangeArgCount int number of the leading arguments selecting the key range
+     */
+    protected KeyRangeFunction(String uri, int rangeArgCount) {
+        this.uri = uri;
+        this.rangeArgCount = rangeArgCount;
+        this.startKey = null;
+        this.stopKey = null;
+    }
+
+    /**
+     * Calculates the key of the function arguments following the range arguments
+     * @param args Values of the key arguments, at least one
+     * @return key as byte array, compared as unsigned byte arrays
+     */
+    protected abstract byte[] getKey(Value... args);
+
+    /**
+     * @return int number of the leading arguments selecting the key range
+     */
+    public int getRangeArgCount() {
+        return rangeArgCount;
+    }
+
+    /**
+     * Selects the key range, the fixed key range is returned unless overridden
+     * @param rangeArgs Values of the leading range arguments
+     * @return two-element array of the inclusive lower bound and the exclusive upper bound of the key, null elements for unbounded
+     * @throws ValueExprEvaluationException throws ValueExprEvaluationException in case of invalid range arguments
+     */
+    public byte[][] getKeyRange(Value... rangeArgs) throws ValueExprEvaluationException {
+        return new byte[][] {startKey, stopKey};
+    }
+
+    /**
+     * Checks the key against the range
+     * @param key key as byte array
+     * @param range two-element array of the inclusive lower bound and the exclusive upper bound of the key, null elements for unbounded
+     * @return boolean true if the key is within the range
+     */
+    public static boolean isInRange(byte[] key, byte[][] range) {
+        return (range[0] == null || compare(key, range[0]) >= 0) && (range[1] == null || compare(key, range[1]) < 0);
+    }
+
+    /**
+     * Calculates the key range of one of the equal slices of the key space, so the slices are disjoint and cover the whole key space
+     * @param index int index of the slice, from 0 to count - 1
+     * @param count int positive number of the slices
+     * @return two-element array of the inclusive lower bound and the exclusive upper bound of the slice, null elements for unbounded
+     * @throws ValueExprEvaluationException throws ValueExprEvaluationException in case of invalid index or count
+     */
+    public static byte[][] getSlice(int index, int count) throws ValueExprEvaluationException {
+        if (index < 0 || index >= count) {
+            throw new ValueExprEvaluationException("Invalid slice index " + index + " of " + count + " slices");
+        }
+        return new byte[][] {getSliceBoundary(index, count), getSliceBoundary(index + 1, count)};
+    }
+
+    /**
+     * Calculates the lower bound of one of the equal slices of the key space, so the slices are disjoint and cover the whole key space
+     * @param index int index of the slice, from 0 to count (for the upper bound of the last slice)
+     * @param count int positive number of the slices
+     * @return the lower bound of the slice as byte array, null for the first slice (and for the upper bound of the last slice)
+     * @throws ValueExprEvaluationException throws ValueExprEvaluationException in case of invalid index or count
+     */
+    public static byte[] getSliceBoundary(int index, int count) throws ValueExprEvaluationException {
+        if (count <= 0 || index < 0 || index > count) {
+            throw new ValueExprEvaluationException("Invalid slice boundary index " + index + " of " + count + " slices");
+        }
+        if (index == 0 || index == count) {
+            return null;
+        }
+        long boundary = ((long)index << 32) / count;
+        return new byte[] {(byte)(boundary >> 24), (byte)(boundary >> 16), (byte)(boundary >> 8), (byte)boundary};
+    }
+
+    @Override
+    public String getURI() {
+        return uri;
+    }
+
+    @Override
+    public Value evaluate(ValueFactory valueFactory, Value... args) throws ValueExprEvaluationException {
+        if (args.length <= rangeArgCount) {
+            throw new ValueExprEvaluationException("Minimal number of arguments for " + uri + " function is " + (rangeArgCount + 1));
+        }
+        return valueFactory.createLiteral(isInRange(getKey(Arrays.copyOfRange(args, rangeArgCount, args.length)), getKeyRange(Arrays.copyOf(args, rangeArgCount))));
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length && i < b.length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+
+/**
+ * StatementPattern with a range of the ordering keys of one of its variables, set by {@link HalyardKeyRangeOptimizer}.
+ * The range restricts the Statements retrieval when the variable is the ordering component of the evaluated pattern, the original filter is kept in place.
+ */
+public class KeyRangeStatementPattern extends StatementPattern {
+
+    private final String keyRangeVarName;
+    private final byte[] startKey, stopKey;
+
+    /**
+     * Constructs KeyRangeStatementPattern taking over the variables of the original StatementPattern
+     * @param sp original StatementPattern
+     * @param keyRangeVarName String name of the variable restricted by the key range
+     * @param startKey optional inclusive lower bound of the ordering key, null for unbounded
+     * @param stopKey optional exclusive upper bound of the ordering key, null for unbounded
+     */
+    public KeyRangeStatementPattern(StatementPattern sp, String keyRangeVarName, byte[] startKey, byte[] stopKey) {
+        super(sp.getScope(), sp.getSubjectVar(), sp.getPredicateVar(), sp.getObjectVar(), sp.getContextVar());
+        this.keyRangeVarName = keyRangeVarName;
+        this.startKey = startKey;
+        this.stopKey = stopKey;
+    }
+
+    /**
+     * @return String name of the variable restricted by the key range
+     */
+    public String getKeyRangeVarName() {
+        return keyRangeVarName;
+    }
+
+    /**
+     * @return inclusive lower bound of the ordering key or null for unbounded
+     */
+    public byte[] getStartKey() {
+        return startKey;
+    }
+
+    /**
+     * @return exclusive upper bound of the ordering key or null for unbounded
+     */
+    public byte[] getStopKey() {
+        return stopKey;
+    }
+
+    @Override
+    public String getSignature() {
+        return super.getSignature() + " KeyRange(" + keyRangeVarName + ")";
+    }
+}
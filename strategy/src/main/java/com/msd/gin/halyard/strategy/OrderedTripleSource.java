@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+
+/**
+ * TripleSource returning Statements ordered by a key of one of the Statement components, for example by a hash key of the leading component of an index.
+ * {@link HalyardEvaluationStrategy} can use the order to evaluate joins of Statement patterns sharing the ordering variable as merge joins, when enabled.
+ */
+public interface OrderedTripleSource extends TripleSource {
+
+    /**
+     * Identifies the component determining the order of the Statements returned by {@link #getStatements(Resource, IRI, Value, Resource...)} with the same arguments.
+     * Statements are ordered by the {@link #getOrderingKey(Value)} of the component, compared as unsigned byte arrays.
+     * @param subj optional subject Resource
+     * @param pred optional predicate IRI
+     * @param obj optional object Value
+     * @param contexts optional contexts
+     * @return int 0 for subject, 1 for predicate, 2 for object or -1 if the Statements are not ordered
+     */
+    public int getOrderingComponent(Resource subj, IRI pred, Value obj, Resource... contexts);
+
+    /**
+     * Calculates the ordering key of a Value.
+     * @param value Value
+     * @return ordering key as byte array
+     */
+    public byte[] getOrderingKey(Value value);
+
+    /**
+     * Retrieves Statements of the pattern restricted to a range of the ordering keys of the ordering component (see {@link #getOrderingComponent(Resource, IRI, Value, Resource...)}).
+     * The range may be ignored (for example when the Statements are not ordered), so the Statements still have to be filtered.
+     * @param subj optional subject Resource
+     * @param pred optional predicate IRI
+     * @param obj optional object Value
+     * @param startKey optional inclusive lower bound of the ordering key, null for unbounded
+     * @param stopKey optional exclusive upper bound of the ordering key, null for unbounded
+     * @param contexts optional contexts
+     * @return iteration of the Statements
+     * @throws QueryEvaluationException throws QueryEvaluationException in case of any problem with the Statements retrieval
+     */
+    public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, byte[] startKey, byte[] stopKey, Resource... contexts) throws QueryEvaluationException;
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy.collections;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+
+/**
+ * Hash multimap split into independently locked partitions, so it can be concurrently filled and probed.
+ * Each partition is held in memory until it exceeds its share of the memory limit, then it is spilled to a temporary file.
+ * @param <K> Serializable key type
+ * @param <V> Serializable value type
+ */
+public class BigHashMultimap<K extends Serializable, V extends Serializable> implements Closeable {
+
+    private static final String COUNTS_NAME = "counts";
+    private static final String VALUES_NAME = "values";
+
+    private final class Partition {
+
+        private Map<K, List<V>> memory = new HashMap<>();
+        private DB db = null;
+        private Map<K, Integer> counts;
+        private Map<List<Object>, V> values;
+        private long size = 0;
+
+        synchronized void put(K key, V value) {
+            if (memory != null) {
+                List<V> list = memory.get(key);
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    memory.put(key, list);
+                }
+                list.add(value);
+                if (++size > partitionLimit) {
+                    spill();
+                }
+            } else {
+                store(key, value);
+            }
+        }
+
+        private void spill() {
+            db = DBMaker.newTempFileDB().deleteFilesAfterClose().closeOnJvmShutdown().transactionDisable().make();
+            counts = db.getHashMap(COUNTS_NAME);
+            values = db.getHashMap(VALUES_NAME);
+            for (Map.Entry<K, List<V>> e : memory.entrySet()) {
+                for (V v : e.getValue()) {
+                    store(e.getKey(), v);
+                }
+            }
+            memory = null;
+        }
+
+        private void store(K key, V value) {
+            Integer count = counts.get(key);
+            int i = count == null ? 0 : count;
+            values.put(Arrays.<Object>asList(key, i), value);
+            counts.put(key, i + 1);
+        }
+
+        synchronized List<V> get(K key) {
+            if (memory != null) {
+                List<V> list = memory.get(key);
+                return list == null ? Collections.<V>emptyList() : list;
+            }
+            Integer count = counts.get(key);
+            if (count == null) {
+                return Collections.emptyList();
+            }
+            List<V> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                list.add(values.get(Arrays.<Object>asList(key, i)));
+            }
+            return list;
+        }
+
+        synchronized void close() {
+            memory = null;
+            if (db != null) {
+                db.close();
+                db = null;
+            }
+        }
+    }
+
+    private final List<Partition> partitions;
+    private final long partitionLimit;
+
+    /**
+     * Constructs BigHashMultimap
+     * @param partitions int number of independently locked partitions
+     * @param memoryLimit long maximal number of entries held in memory, each partition exceeding its share of the limit is spilled to a temporary file
+     */
+    public BigHashMultimap(int partitions, long memoryLimit) {
+        this.partitions = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            this.partitions.add(new Partition());
+        }
+        this.partitionLimit = Math.max(1, memoryLimit / partitions);
+    }
+
+    private Partition getPartition(K key) {
+        return partitions.get((key.hashCode() & Integer.MAX_VALUE) % partitions.size());
+    }
+
+    /**
+     * Adds a value under the key, multiple values of the same key are preserved
+     * @param key Serializable key
+     * @param value Serializable value
+     * @throws IOException throws IOException in case of problem with underlying storage
+     */
+    public void put(K key, V value) throws IOException {
+        try {
+            getPartition(key).put(key, value);
+        } catch (IllegalAccessError err) {
+            throw new IOException(err);
+        }
+    }
+
+    /**
+     * Retrieves all values stored under the key
+     * @param key Serializable key
+     * @return List of values, empty list if the key is not present
+     * @throws IOException throws IOException in case of problem with underlying storage
+     */
+    public List<V> get(K key) throws IOException {
+        try {
+            return getPartition(key).get(key);
+        } catch (IllegalAccessError err) {
+            throw new IOException(err);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Partition p : partitions) {
+            try {
+                p.close();
+            } catch (IllegalAccessError ignore) {
+                //silent close
+            }
+        }
+    }
+}
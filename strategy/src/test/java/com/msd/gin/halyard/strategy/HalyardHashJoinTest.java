@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.repository.sail.SailRepositoryConnection;
+import org.eclipse.rdf4j.sail.NotifyingSailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.eclipse.rdf4j.sail.memory.MemoryStoreConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HalyardHashJoinTest {
+
+    private static final class HashJoinMemoryStore extends MemoryStore {
+
+        private final int partitions;
+        private final long memoryLimit;
+
+        HashJoinMemoryStore(int partitions, long memoryLimit) {
+            this.partitions = partitions;
+            this.memoryLimit = memoryLimit;
+        }
+
+        @Override
+        protected NotifyingSailConnection getConnectionInternal() throws SailException {
+            return new MemoryStoreConnection(this) {
+                @Override
+                protected EvaluationStrategy getEvaluationStrategy(Dataset dataset, TripleSource tripleSource) {
+                    return new HalyardEvaluationStrategy(tripleSource, dataset, -1, new EvaluationStatistics(), 1, partitions, memoryLimit, false);
+                }
+            };
+        }
+    }
+
+    private SailRepository hashJoin, spillingHashJoin, reference;
+
+    @Before
+    public void setUp() throws Exception {
+        hashJoin = new SailRepository(new HashJoinMemoryStore(HalyardEvaluationStrategy.DEFAULT_HASH_JOIN_PARTITIONS, HalyardEvaluationStrategy.DEFAULT_HASH_JOIN_MEMORY_LIMIT));
+        hashJoin.initialize();
+        spillingHashJoin = new SailRepository(new HashJoinMemoryStore(2, 10));
+        spillingHashJoin.initialize();
+        reference = new SailRepository(new MemoryStore());
+        reference.initialize();
+        ValueFactory vf = hashJoin.getValueFactory();
+        IRI pred1 = vf.createIRI("http://whatever/pred1");
+        IRI pred2 = vf.createIRI("http://whatever/pred2");
+        IRI pred3 = vf.createIRI("http://whatever/pred3");
+        for (SailRepository repo : new SailRepository[]{hashJoin, spillingHashJoin, reference}) {
+            try (SailRepositoryConnection con = repo.getConnection()) {
+                con.begin();
+                for (int i = 0; i < 200; i++) {
+                    con.add(vf.createIRI("http://whatever/subj" + i), pred1, vf.createIRI("http://whatever/obj" + (i % 20)));
+                    con.add(vf.createIRI("http://whatever/obj" + (i % 30)), pred2, vf.createIRI("http://whatever/val" + i));
+                    if (i % 7 == 0) {
+                        con.add(vf.createIRI("http://whatever/val" + i), pred3, vf.createLiteral("x" + i));
+                    }
+                }
+                con.commit();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        hashJoin.shutDown();
+        spillingHashJoin.shutDown();
+        reference.shutDown();
+    }
+
+    private static Set<BindingSet> evaluate(SailRepository repo, String query) throws Exception {
+        Set<BindingSet> results = new HashSet<>();
+        try (SailRepositoryConnection con = repo.getConnection()) {
+            try (TupleQueryResult res = con.prepareTupleQuery(QueryLanguage.SPARQL, query).evaluate()) {
+                while (res.hasNext()) {
+                    results.add(res.next());
+                }
+            }
+        }
+        return results;
+    }
+
+    private void assertSameResults(String query) throws Exception {
+        Set<BindingSet> expected = evaluate(reference, query);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, evaluate(hashJoin, query));
+        assertEquals(expected, evaluate(spillingHashJoin, query));
+    }
+
+    @Test
+    public void testHashJoin() throws Exception {
+        assertSameResults("select * where {?s <http://whatever/pred1> ?o. ?o <http://whatever/pred2> ?v}");
+        assertSameResults("select * where {?s <http://whatever/pred1> ?o. ?o <http://whatever/pred2> ?v. ?v <http://whatever/pred3> ?x}");
+    }
+
+    @Test
+    public void testHashJoinWithOptional() throws Exception {
+        assertSameResults("select * where {?s <http://whatever/pred1> ?o. {?o <http://whatever/pred2> ?v optional {?v <http://whatever/pred3> ?x}}}");
+    }
+
+    @Test
+    public void testBoundJoin() throws Exception {
+        assertSameResults("select * where {values ?o {<http://whatever/obj3>} ?s <http://whatever/pred1> ?o. ?o <http://whatever/pred2> ?v}");
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.FunctionRegistry;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.FilterOptimizer;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HalyardKeyRangeOptimizerTest {
+
+    private static final String FUNCTION_URI = "http://whatever/keyRange";
+    private static final String SLICE_FUNCTION_URI = "http://whatever/slice";
+    private static final KeyRangeFunction FUNCTION = new KeyRangeFunction(FUNCTION_URI, new byte[] {'b'}, new byte[] {'d'}) {
+        @Override
+        protected byte[] getKey(Value... args) {
+            return args[0].stringValue().getBytes(StandardCharsets.UTF_8);
+        }
+    };
+    private static final KeyRangeFunction SLICE_FUNCTION = new KeyRangeFunction(SLICE_FUNCTION_URI, 2) {
+        @Override
+        protected byte[] getKey(Value... args) {
+            return args[0].stringValue().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[][] getKeyRange(Value... rangeArgs) throws ValueExprEvaluationException {
+            return getSlice(((Literal)rangeArgs[0]).intValue(), ((Literal)rangeArgs[1]).intValue());
+        }
+    };
+
+    @BeforeClass
+    public static void setup() {
+        FunctionRegistry.getInstance().add(FUNCTION);
+        FunctionRegistry.getInstance().add(SLICE_FUNCTION);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        FunctionRegistry.getInstance().remove(FUNCTION);
+        FunctionRegistry.getInstance().remove(SLICE_FUNCTION);
+    }
+
+    private static List<KeyRangeStatementPattern> optimize(String query) {
+        return optimize(query, true);
+    }
+
+    private static List<KeyRangeStatementPattern> optimize(String query, boolean pushFilters) {
+        TupleExpr expr = QueryParserUtil.parseQuery(QueryLanguage.SPARQL, query, null).getTupleExpr();
+        if (pushFilters) {
+            new FilterOptimizer().optimize(expr, null, EmptyBindingSet.getInstance());
+        }
+        new HalyardKeyRangeOptimizer().optimize(expr, null, EmptyBindingSet.getInstance());
+        final List<KeyRangeStatementPattern> patterns = new ArrayList<>();
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(StatementPattern node) throws RuntimeException {
+                if (node instanceof KeyRangeStatementPattern) {
+                    patterns.add((KeyRangeStatementPattern)node);
+                }
+            }
+        });
+        return patterns;
+    }
+
+    @Test
+    public void testPushDown() {
+        List<KeyRangeStatementPattern> patterns = optimize("select * where {?s <http://whatever/p> ?o . ?o <http://whatever/q> ?x . FILTER (<" + FUNCTION_URI + ">(?x))}");
+        assertEquals(1, patterns.size());
+        assertEquals("x", patterns.get(0).getKeyRangeVarName());
+        assertArrayEquals(new byte[] {'b'}, patterns.get(0).getStartKey());
+        assertArrayEquals(new byte[] {'d'}, patterns.get(0).getStopKey());
+    }
+
+    @Test
+    public void testPushDownToJoinedPatterns() {
+        //both patterns bind the same filtered value of ?x
+        List<KeyRangeStatementPattern> patterns = optimize("select * where {?x <http://whatever/p> ?o . ?x <http://whatever/q> ?y FILTER (<" + SLICE_FUNCTION_URI + ">(1, 4, ?x))}", false);
+        assertEquals(2, patterns.size());
+        for (KeyRangeStatementPattern p : patterns) {
+            assertEquals("x", p.getKeyRangeVarName());
+            assertArrayEquals(new byte[] {0x40, 0, 0, 0}, p.getStartKey());
+            assertArrayEquals(new byte[] {(byte)0x80, 0, 0, 0}, p.getStopKey());
+        }
+        //optional patterns are not restricted
+        patterns = optimize("select * where {?x <http://whatever/p> ?o OPTIONAL {?x <http://whatever/q> ?y} FILTER (<" + SLICE_FUNCTION_URI + ">(1, 4, ?x))}", false);
+        assertTrue(patterns.isEmpty());
+        assertTrue(optimize("select * where {?x <http://whatever/p> ?o FILTER (<" + SLICE_FUNCTION_URI + ">(?o, 4, ?x))}").isEmpty());
+    }
+
+    @Test
+    public void testSlices() {
+        assertNull(KeyRangeFunction.getSliceBoundary(0, 3));
+        assertNull(KeyRangeFunction.getSliceBoundary(3, 3));
+        byte key[] = new byte[] {(byte)0x55, (byte)0x55, (byte)0x55, (byte)0x55, 1};
+        int accepted = 0;
+        for (int i = 0; i < 3; i++) {
+            if (KeyRangeFunction.isInRange(key, new byte[][] {KeyRangeFunction.getSliceBoundary(i, 3), KeyRangeFunction.getSliceBoundary(i + 1, 3)})) {
+                accepted++;
+            }
+        }
+        assertEquals(1, accepted);
+    }
+
+    @Test(expected = ValueExprEvaluationException.class)
+    public void testInvalidSliceIndex() {
+        KeyRangeFunction.getSlice(3, 3);
+    }
+
+    @Test(expected = ValueExprEvaluationException.class)
+    public void testNegativeSliceIndex() {
+        KeyRangeFunction.getSlice(-1, 3);
+    }
+
+    @Test(expected = ValueExprEvaluationException.class)
+    public void testInvalidSliceCount() {
+        KeyRangeFunction.getSlice(0, 0);
+    }
+
+    @Test
+    public void testNoPushDown() {
+        assertTrue(optimize("select * where {graph ?g {?s ?p ?o} FILTER (<" + FUNCTION_URI + ">(?g))}").isEmpty());
+        assertTrue(optimize("select * where {?s ?p ?o FILTER (<" + FUNCTION_URI + ">(str(?s)))}").isEmpty());
+        assertTrue(optimize("select * where {?s ?p ?o FILTER (<http://whatever/otherFunction>(?s))}").isEmpty());
+    }
+
+    @Test
+    public void testEvaluate() {
+        SimpleValueFactory vf = SimpleValueFactory.getInstance();
+        byte range[][] = FUNCTION.getKeyRange();
+        assertTrue(KeyRangeFunction.isInRange("b".getBytes(StandardCharsets.UTF_8), range));
+        assertTrue(KeyRangeFunction.isInRange("cz".getBytes(StandardCharsets.UTF_8), range));
+        assertFalse(KeyRangeFunction.isInRange("a".getBytes(StandardCharsets.UTF_8), range));
+        assertFalse(KeyRangeFunction.isInRange("d".getBytes(StandardCharsets.UTF_8), range));
+        assertEquals(vf.createLiteral(true), FUNCTION.evaluate(vf, vf.createLiteral("c")));
+        assertEquals(vf.createLiteral(false), FUNCTION.evaluate(vf, vf.createLiteral("e")));
+        assertEquals(vf.createLiteral(true), SLICE_FUNCTION.evaluate(vf, vf.createLiteral(0), vf.createLiteral(2), vf.createLiteral("a")));
+        assertEquals(vf.createLiteral(false), SLICE_FUNCTION.evaluate(vf, vf.createLiteral(1), vf.createLiteral(2), vf.createLiteral("a")));
+    }
+}
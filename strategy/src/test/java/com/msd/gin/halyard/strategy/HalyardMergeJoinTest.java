@@ -0,0 +1,294 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.rdf4j.common.iteration.FilterIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.common.iteration.Iterations;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
+import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
+import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.function.FunctionRegistry;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.repository.sail.SailRepositoryConnection;
+import org.eclipse.rdf4j.sail.NotifyingSailConnection;
+import org.eclipse.rdf4j.sail.SailException;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.eclipse.rdf4j.sail.memory.MemoryStoreConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class HalyardMergeJoinTest {
+
+    private static final AtomicLong ORDERING_KEYS = new AtomicLong();
+
+    private static final class OrderedMemoryStore extends MemoryStore {
+
+        @Override
+        protected NotifyingSailConnection getConnectionInternal() throws SailException {
+            return new MemoryStoreConnection(this) {
+                @Override
+                protected EvaluationStrategy getEvaluationStrategy(Dataset dataset, final TripleSource tripleSource) {
+                    return new HalyardEvaluationStrategy(new OrderedTripleSource() {
+                        @Override
+                        public int getOrderingComponent(Resource subj, IRI pred, Value obj, Resource... contexts) {
+                            return subj == null ? (pred != null && obj == null ? 2 : 0) : pred == null ? 1 : obj == null ? 2 : -1;
+                        }
+
+                        @Override
+                        public byte[] getOrderingKey(Value value) {
+                            ORDERING_KEYS.incrementAndGet();
+                            return value.stringValue().getBytes(StandardCharsets.UTF_8);
+                        }
+
+                        @Override
+                        public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
+                            List<Statement> list = new ArrayList<>(Iterations.asList(tripleSource.getStatements(subj, pred, obj, contexts)));
+                            final int component = getOrderingComponent(subj, pred, obj, contexts);
+                            if (component >= 0) {
+                                Collections.sort(list, new Comparator<Statement>() {
+                                    @Override
+                                    public int compare(Statement o1, Statement o2) {
+                                        return HalyardMergeJoinIteration.getComponent(o1, component).stringValue().compareTo(HalyardMergeJoinIteration.getComponent(o2, component).stringValue());
+                                    }
+                                });
+                            }
+                            return new CloseableIteratorIteration<>(list.iterator());
+                        }
+
+                        @Override
+                        public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, byte[] startKey, byte[] stopKey, Resource... contexts) throws QueryEvaluationException {
+                            return getStatements(subj, pred, obj, contexts);
+                        }
+
+                        @Override
+                        public ValueFactory getValueFactory() {
+                            return tripleSource.getValueFactory();
+                        }
+                    }, dataset, -1, null, 0, true);
+                }
+            };
+        }
+    }
+
+    private SailRepository ordered, reference;
+
+    @Before
+    public void setUp() throws Exception {
+        ordered = new SailRepository(new OrderedMemoryStore());
+        ordered.initialize();
+        reference = new SailRepository(new MemoryStore());
+        reference.initialize();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ordered.shutDown();
+        reference.shutDown();
+    }
+
+    private void add(Resource subj, IRI pred, Value obj) throws Exception {
+        try (SailRepositoryConnection con = ordered.getConnection()) {
+            con.add(subj, pred, obj);
+        }
+        try (SailRepositoryConnection con = reference.getConnection()) {
+            con.add(subj, pred, obj);
+        }
+    }
+
+    private static Set<BindingSet> evaluate(SailRepository repo, String query) throws Exception {
+        Set<BindingSet> results = new HashSet<>();
+        try (SailRepositoryConnection con = repo.getConnection()) {
+            try (TupleQueryResult res = con.prepareTupleQuery(QueryLanguage.SPARQL, query).evaluate()) {
+                while (res.hasNext()) {
+                    results.add(res.next());
+                }
+            }
+        }
+        return results;
+    }
+
+    private void assertSameResults(String query, int expectedSize) throws Exception {
+        ORDERING_KEYS.set(0);
+        Set<BindingSet> results = evaluate(ordered, query);
+        assertTrue(ORDERING_KEYS.get() > 0);
+        assertEquals(expectedSize, results.size());
+        assertEquals(evaluate(reference, query), results);
+    }
+
+    @Test
+    public void testSubjectStarJoin() throws Exception {
+        ValueFactory vf = ordered.getValueFactory();
+        IRI pred1 = vf.createIRI("http://whatever/pred1");
+        IRI pred2 = vf.createIRI("http://whatever/pred2");
+        for (int i = 0; i < 100; i++) {
+            add(vf.createIRI("http://whatever/subj" + i), pred1, vf.createLiteral("v" + i));
+            if (i % 3 == 0) {
+                add(vf.createIRI("http://whatever/subj" + i), pred2, vf.createLiteral("a" + i));
+                add(vf.createIRI("http://whatever/subj" + i), pred2, vf.createLiteral("b" + i));
+            }
+        }
+        assertSameResults("select * where {?s <http://whatever/pred1> ?a. ?s <http://whatever/pred2> ?b}", 68);
+        assertSameResults("select * where {?s <http://whatever/pred1> \"v9\". ?s <http://whatever/pred2> ?b}", 2);
+    }
+
+    @Test
+    public void testObjectJoin() throws Exception {
+        ValueFactory vf = ordered.getValueFactory();
+        IRI pred1 = vf.createIRI("http://whatever/pred1");
+        IRI pred2 = vf.createIRI("http://whatever/pred2");
+        for (int i = 0; i < 50; i++) {
+            add(vf.createIRI("http://whatever/subj" + i), pred1, vf.createIRI("http://whatever/obj" + (i % 10)));
+            add(vf.createIRI("http://whatever/other" + i), pred2, vf.createIRI("http://whatever/obj" + (i % 7)));
+        }
+        assertSameResults("select * where {?s <http://whatever/pred1> ?o. ?x <http://whatever/pred2> ?o}", 250);
+    }
+
+    @Test
+    public void testFallbackToLookups() throws Exception {
+        ValueFactory vf = ordered.getValueFactory();
+        IRI pred1 = vf.createIRI("http://whatever/pred1");
+        IRI pred2 = vf.createIRI("http://whatever/pred2");
+        for (int i = 0; i < 12000; i++) {
+            add(vf.createIRI("http://whatever/subj" + i), pred1, vf.createLiteral(i));
+        }
+        add(vf.createIRI("http://whatever/subj1"), pred2, vf.createLiteral("first"));
+        add(vf.createIRI("http://whatever/subj9999"), pred2, vf.createLiteral("last"));
+        assertSameResults("select * where {?s <http://whatever/pred1> ?a. ?s <http://whatever/pred2> ?b}", 2);
+    }
+
+    private static final String SLICE_FUNCTION_URI = "http://whatever/slice";
+
+    private static byte[] hashKey(Value value) {
+        int h = value.stringValue().hashCode();
+        return new byte[] {(byte)(h >> 24), (byte)(h >> 16), (byte)(h >> 8), (byte)h};
+    }
+
+    @Test
+    public void testKeyRangeSlices() throws Exception {
+        final KeyRangeFunction slice = new KeyRangeFunction(SLICE_FUNCTION_URI, 2) {
+            @Override
+            protected byte[] getKey(Value... args) {
+                return hashKey(args[0]);
+            }
+
+            @Override
+            public byte[][] getKeyRange(Value... rangeArgs) throws ValueExprEvaluationException {
+                return getSlice(((Literal)rangeArgs[0]).intValue(), ((Literal)rangeArgs[1]).intValue());
+            }
+        };
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI type = vf.createIRI("http://whatever/type");
+        IRI pred = vf.createIRI("http://whatever/pred");
+        final List<Statement> statements = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            statements.add(vf.createStatement(vf.createIRI("http://whatever/subj" + i), type, vf.createIRI("http://whatever/type" + (i % 3))));
+            statements.add(vf.createStatement(vf.createIRI("http://whatever/subj" + i), pred, vf.createLiteral(i)));
+        }
+        final AtomicLong rangedScans = new AtomicLong();
+        OrderedTripleSource source = new OrderedTripleSource() {
+            @Override
+            public int getOrderingComponent(Resource subj, IRI pred, Value obj, Resource... contexts) {
+                return subj == null ? 0 : -1;
+            }
+
+            @Override
+            public byte[] getOrderingKey(Value value) {
+                return hashKey(value);
+            }
+
+            @Override
+            public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, Resource... contexts) throws QueryEvaluationException {
+                List<Statement> list = new ArrayList<>();
+                for (Statement st : statements) {
+                    if ((subj == null || subj.equals(st.getSubject())) && (pred == null || pred.equals(st.getPredicate())) && (obj == null || obj.equals(st.getObject()))) {
+                        list.add(st);
+                    }
+                }
+                Collections.sort(list, new Comparator<Statement>() {
+                    @Override
+                    public int compare(Statement o1, Statement o2) {
+                        return Integer.compareUnsigned(o1.getSubject().stringValue().hashCode(), o2.getSubject().stringValue().hashCode());
+                    }
+                });
+                return new CloseableIteratorIteration<>(list.iterator());
+            }
+
+            @Override
+            public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subj, IRI pred, Value obj, final byte[] startKey, final byte[] stopKey, Resource... contexts) throws QueryEvaluationException {
+                rangedScans.incrementAndGet();
+                return new FilterIteration<Statement, QueryEvaluationException>((CloseableIteration<Statement, QueryEvaluationException>)getStatements(subj, pred, obj, contexts)) {
+                    @Override
+                    protected boolean accept(Statement st) {
+                        return KeyRangeFunction.isInRange(hashKey(st.getSubject()), new byte[][] {startKey, stopKey});
+                    }
+                };
+            }
+
+            @Override
+            public ValueFactory getValueFactory() {
+                return SimpleValueFactory.getInstance();
+            }
+        };
+        FunctionRegistry.getInstance().add(slice);
+        try {
+            Set<BindingSet> all = new HashSet<>();
+            int total = 0;
+            for (int i = 0; i < 3; i++) {
+                TupleExpr expr = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, "select * where {?s <http://whatever/type> ?t . ?s <http://whatever/pred> ?o FILTER (<" + SLICE_FUNCTION_URI + ">(" + i + ", 3, ?s))}", null).getTupleExpr();
+                new HalyardKeyRangeOptimizer().optimize(expr, null, EmptyBindingSet.getInstance());
+                rangedScans.set(0);
+                List<BindingSet> results = Iterations.asList(new HalyardEvaluationStrategy(source, null, -1, null, 0, true).evaluate(expr, EmptyBindingSet.getInstance()));
+                //both sides of the merge join scan the slice only
+                assertEquals(2, rangedScans.get());
+                total += results.size();
+                all.addAll(results);
+            }
+            //the slices are disjoint and cover all the join results
+            assertEquals(100, total);
+            assertEquals(100, all.size());
+        } finally {
+            FunctionRegistry.getInstance().remove(slice);
+        }
+    }
+}
@@ -17,9 +17,12 @@
 package com.msd.gin.halyard.strategy;
 
 import junit.framework.TestCase;
+import org.eclipse.rdf4j.model.BNode;
 import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Model;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.QueryResults;
 import org.eclipse.rdf4j.query.TupleQueryResult;
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
@@ -110,6 +113,27 @@ public class HalyardStrategyExtendedTest extends TestCase {
         assertEquals(2, ((Literal) res.next().getValue("val")).intValue());
     }
 
+    @Test
+    public void testDescribe() throws Exception {
+        ValueFactory vf = con.getValueFactory();
+        BNode address = vf.createBNode();
+        BNode origin = vf.createBNode();
+        con.add(vf.createIRI("http://whatever/a"), vf.createIRI("http://whatever/type"), vf.createIRI("http://whatever/Person"));
+        con.add(vf.createIRI("http://whatever/a"), vf.createIRI("http://whatever/address"), address);
+        con.add(address, vf.createIRI("http://whatever/city"), vf.createLiteral("Prague"));
+        con.add(origin, vf.createIRI("http://whatever/created"), vf.createIRI("http://whatever/a"));
+        con.add(origin, vf.createIRI("http://whatever/date"), vf.createLiteral("2016"));
+        con.add(vf.createIRI("http://whatever/b"), vf.createIRI("http://whatever/type"), vf.createIRI("http://whatever/Person"));
+        con.add(vf.createIRI("http://whatever/c"), vf.createIRI("http://whatever/type"), vf.createIRI("http://whatever/Company"));
+        Model model = QueryResults.asModel(con.prepareGraphQuery(QueryLanguage.SPARQL, "describe <http://whatever/a>").evaluate());
+        assertEquals(5, model.size());
+        assertTrue(model.contains(address, vf.createIRI("http://whatever/city"), vf.createLiteral("Prague")));
+        assertTrue(model.contains(origin, vf.createIRI("http://whatever/date"), vf.createLiteral("2016")));
+        model = QueryResults.asModel(con.prepareGraphQuery(QueryLanguage.SPARQL, "describe ?s where {?s <http://whatever/type> <http://whatever/Person>}").evaluate());
+        assertEquals(6, model.size());
+        assertFalse(model.contains(vf.createIRI("http://whatever/c"), null, null));
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void testService() throws Exception {
         String sparql = "SELECT * WHERE {?s ?p ?o . SERVICE <http://whatever/> { ?s ?p ?o . }}";
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.strategy.collections;
+
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BigHashMultimapTest {
+
+    @Test
+    public void testSpilledPartitions() throws Exception {
+        try (BigHashMultimap<String, Integer> map = new BigHashMultimap<>(4, 100)) {
+            for (int i = 0; i < 1000; i++) {
+                map.put("key" + (i % 10), i);
+            }
+            for (int k = 0; k < 10; k++) {
+                List<Integer> values = map.get("key" + k);
+                assertEquals(100, values.size());
+                assertEquals(100, new HashSet<>(values).size());
+                for (Integer v : values) {
+                    assertEquals(k, v % 10);
+                }
+            }
+            assertTrue(map.get("none").isEmpty());
+        }
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        try (BigHashMultimap<String, Integer> map = new BigHashMultimap<>(4, 1000)) {
+            map.put("a", 1);
+            map.put("a", 2);
+            map.put("b", 3);
+            assertEquals(2, map.get("a").size());
+            assertEquals(1, map.get("b").size());
+            assertTrue(map.get("c").isEmpty());
+        }
+    }
+}
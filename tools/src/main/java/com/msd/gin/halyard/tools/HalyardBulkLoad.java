@@ -20,17 +20,32 @@ import com.msd.gin.halyard.common.HalyardTableUtils;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
@@ -38,6 +53,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.Seekable;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
@@ -49,21 +65,26 @@ import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
+import org.eclipse.rdf4j.model.BNode;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Resource;
 import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
@@ -72,6 +93,7 @@ import org.eclipse.rdf4j.rio.RDFParserFactory;
 import org.eclipse.rdf4j.rio.RDFParserRegistry;
 import org.eclipse.rdf4j.rio.Rio;
 import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+import org.eclipse.rdf4j.rio.helpers.BasicParserSettings;
 import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
 
 /**
@@ -104,34 +126,150 @@ public class HalyardBulkLoad implements Tool {
      * Property defining default context for triples (or even for quads when context override is set)
      */
     public static final String DEFAULT_CONTEXT_PROPERTY = "halyard.parser.context.default";
+
+    /**
+     * Property defining number of threads generating the KeyValues in each Mapper, defaults to the number of Mapper virtual cores
+     */
+    public static final String MAPPER_THREADS_PROPERTY = "halyard.bulkload.mapper.threads";
+
+    /**
+     * Property defining number of recently written statements remembered by each Mapper to skip their duplicates
+     */
+    public static final String DEDUP_CACHE_SIZE_PROPERTY = "halyard.bulkload.dedup.cache.size";
+
+    static final int DEFAULT_DEDUP_CACHE_SIZE = 100000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int QUEUE_BATCHES = 10;
     private static final Logger LOG = Logger.getLogger(HalyardBulkLoad.class.getName());
 
     private Configuration conf;
 
+    /**
+     * Bounded set of the recently written statements, identified by the qualifier of their SPO KeyValue (holding the full statement including its context)
+     */
+    static final class RecentStatements {
+
+        private final Map<ByteBuffer, Boolean> recent;
+
+        RecentStatements(final int maxSize) {
+            this.recent = new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        /**
+         * Remembers the statement
+         * @param keyValues all the KeyValues of the statement as produced by {@link HalyardTableUtils#toKeyValues}
+         * @return boolean true if the statement has not been seen recently
+         */
+        boolean add(KeyValue keyValues[]) {
+            return recent.put(ByteBuffer.wrap(CellUtil.cloneQualifier(keyValues[0])), Boolean.TRUE) == null;
+        }
+    }
+
+    /**
+     * Combiner class dropping duplicate KeyValues of the same row before the shuffle
+     */
+    public static class DedupCombiner extends Reducer<ImmutableBytesWritable, KeyValue, ImmutableBytesWritable, KeyValue> {
+
+        @Override
+        protected void reduce(ImmutableBytesWritable key, Iterable<KeyValue> values, Context context) throws IOException, InterruptedException {
+            Set<ByteBuffer> qualifiers = new HashSet<>();
+            for (KeyValue kv : values) {
+                if (qualifiers.add(ByteBuffer.wrap(CellUtil.cloneQualifier(kv)))) {
+                    context.write(key, kv);
+                }
+            }
+        }
+    }
+
     /**
      * Mapper class transforming each parsed Statement into set of HBase KeyValues
+     * Statements are collected into batches and the KeyValues of the batches are generated by a pool of worker threads, while written to the context in the original order
      */
     public static class RDFMapper extends Mapper<LongWritable, Statement, ImmutableBytesWritable, KeyValue> {
 
         private IRI defaultRdfContext;
         private boolean overrideRdfContext;
+        private ExecutorService executor;
+        private int maxPendingBatches;
+        private final Deque<Future<List<KeyValue[]>>> pendingBatches = new ArrayDeque<>();
+        private List<Statement> batch = new ArrayList<>(BATCH_SIZE);
+        private RecentStatements recentStatements;
+        private int indices;
 
         @Override
         protected void setup(Context context) throws IOException, InterruptedException {
             Configuration conf = context.getConfiguration();
+            indices = HalyardTableUtils.parseIndices(conf.get(HalyardTableUtils.INDICES_PROPERTY));
             overrideRdfContext = conf.getBoolean(OVERRIDE_CONTEXT_PROPERTY, false);
             String defCtx = conf.get(DEFAULT_CONTEXT_PROPERTY);
             defaultRdfContext = defCtx == null ? null : SimpleValueFactory.getInstance().createIRI(defCtx);
+            int threads = Math.max(1, conf.getInt(MAPPER_THREADS_PROPERTY, conf.getInt(MRJobConfig.MAP_CPU_VCORES, MRJobConfig.DEFAULT_MAP_CPU_VCORES)));
+            executor = Executors.newFixedThreadPool(threads);
+            maxPendingBatches = 2 * threads;
+            recentStatements = new RecentStatements(conf.getInt(DEDUP_CACHE_SIZE_PROPERTY, DEFAULT_DEDUP_CACHE_SIZE));
         }
 
         @Override
         protected void map(LongWritable key, Statement value, final Context context) throws IOException, InterruptedException {
-            Resource rdfContext;
-            if (overrideRdfContext || (rdfContext = value.getContext()) == null) {
-                rdfContext = defaultRdfContext;
+            batch.add(value);
+            if (batch.size() >= BATCH_SIZE) {
+                submitBatch();
+                while (pendingBatches.size() > maxPendingBatches) {
+                    writeBatch(context);
+                }
             }
-            for (KeyValue keyValue: HalyardTableUtils.toKeyValues(value.getSubject(), value.getPredicate(), value.getObject(), rdfContext)) {
-                context.write(new ImmutableBytesWritable(keyValue.getRowArray(), keyValue.getRowOffset(), keyValue.getRowLength()), keyValue);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            try {
+                submitBatch();
+                while (!pendingBatches.isEmpty()) {
+                    writeBatch(context);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        private void submitBatch() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            final List<Statement> statements = batch;
+            batch = new ArrayList<>(BATCH_SIZE);
+            pendingBatches.add(executor.submit(new Callable<List<KeyValue[]>>() {
+                @Override
+                public List<KeyValue[]> call() {
+                    List<KeyValue[]> keyValues = new ArrayList<>(statements.size());
+                    for (Statement st : statements) {
+                        Resource rdfContext;
+                        if (overrideRdfContext || (rdfContext = st.getContext()) == null) {
+                            rdfContext = defaultRdfContext;
+                        }
+                        keyValues.add(HalyardTableUtils.toKeyValues(st.getSubject(), st.getPredicate(), st.getObject(), rdfContext, indices));
+                    }
+                    return keyValues;
+                }
+            }));
+        }
+
+        private void writeBatch(Context context) throws IOException, InterruptedException {
+            try {
+                for (KeyValue keyValues[] : pendingBatches.poll().get()) {
+                    if (recentStatements.add(keyValues)) {
+                        for (KeyValue keyValue: keyValues) {
+                            context.write(new ImmutableBytesWritable(keyValue.getRowArray(), keyValue.getRowOffset(), keyValue.getRowLength()), keyValue);
+                        }
+                    }
+                }
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
             }
         }
     }
@@ -139,7 +277,7 @@ public class HalyardBulkLoad implements Tool {
     @Override
     public int run(String[] args) throws Exception {
         if (args.length != 3) {
-            System.err.println("Usage: bulkload [-D" + MRJobConfig.QUEUE_NAME + "=proofofconcepts] [-D" + SKIP_INVALID_PROPERTY + "=true] [-D" + SPLIT_BITS_PROPERTY + "=8] [-D" + DEFAULT_CONTEXT_PROPERTY + "=http://new_context] [-D" + OVERRIDE_CONTEXT_PROPERTY + "=true] <input_path(s)> <output_path> <table_name>");
+            System.err.println("Usage: bulkload [-D" + MRJobConfig.QUEUE_NAME + "=proofofconcepts] [-D" + SKIP_INVALID_PROPERTY + "=true] [-D" + SPLIT_BITS_PROPERTY + "=8] [-D" + DEFAULT_CONTEXT_PROPERTY + "=http://new_context] [-D" + OVERRIDE_CONTEXT_PROPERTY + "=true] [-D" + MAPPER_THREADS_PROPERTY + "=4] [-D" + HalyardTableUtils.INDICES_PROPERTY + "=SPO,POS,OSP,CSPO] <input_path(s)> <output_path> <table_name>");
             return -1;
         }
         TableMapReduceUtil.addDependencyJars(getConf(),
@@ -157,11 +295,12 @@ public class HalyardBulkLoad implements Tool {
         getConf().setLong(MRJobConfig.TASK_TIMEOUT, 3600000l);
         getConf().setInt(MRJobConfig.IO_SORT_FACTOR, 100);
         getConf().setInt(MRJobConfig.IO_SORT_MB, 1000);
-        getConf().setInt(FileInputFormat.SPLIT_MAXSIZE, 1000000000);
+        getConf().setLong(FileInputFormat.SPLIT_MAXSIZE, getConf().getLong(FileInputFormat.SPLIT_MAXSIZE, 1000000000));
         getConf().setInt(LoadIncrementalHFiles.MAX_FILES_PER_REGION_PER_FAMILY, 2048);
         Job job = Job.getInstance(getConf(), "HalyardBulkLoad -> " + args[1] + " -> " + args[2]);
         job.setJarByClass(HalyardBulkLoad.class);
         job.setMapperClass(RDFMapper.class);
+        job.setCombinerClass(DedupCombiner.class);
         job.setMapOutputKeyClass(ImmutableBytesWritable.class);
         job.setMapOutputValueClass(KeyValue.class);
         job.setInputFormatClass(RioFileInputFormat.class);
@@ -176,6 +315,8 @@ public class HalyardBulkLoad implements Tool {
             }
         }
         try (HTable hTable = HalyardTableUtils.getTable(getConf(), args[2], true, getConf().getInt(SPLIT_BITS_PROPERTY, 3), contextSplitsMap)) {
+            //the mappers build only the indices of the table
+            job.getConfiguration().set(HalyardTableUtils.INDICES_PROPERTY, HalyardTableUtils.toIndicesString(HalyardTableUtils.getIndices(hTable)));
             HFileOutputFormat2.configureIncrementalLoad(job, hTable.getTableDescriptor(), hTable.getRegionLocator());
             FileInputFormat.setInputDirRecursive(job, true);
             FileInputFormat.setInputPaths(job, args[0]);
@@ -184,6 +325,7 @@ public class HalyardBulkLoad implements Tool {
             TableMapReduceUtil.initCredentials(job);
             if (job.waitForCompletion(true)) {
                 new LoadIncrementalHFiles(getConf()).doBulkLoad(new Path(args[1]), hTable);
+                HalyardTableUtils.markModified(hTable);
                 LOG.info("Bulk Load Completed..");
                 return 0;
             }
@@ -221,9 +363,17 @@ public class HalyardBulkLoad implements Tool {
             }
         }
 
+        /**
+         * Only the line based N-Triples and N-Quads files, uncompressed or compressed by a splittable codec, are splittable
+         */
         @Override
         protected boolean isSplitable(JobContext context, Path file) {
-            return false;
+            Optional<RDFFormat> format = Rio.getParserFormatForFileName(file.getName());
+            if (!format.isPresent() || !isLineFormat(format.get())) {
+                return false;
+            }
+            CompressionCodec codec = new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+            return codec == null || codec instanceof SplittableCompressionCodec;
         }
 
         @Override
@@ -255,7 +405,7 @@ public class HalyardBulkLoad implements Tool {
                     close();
                     pump = null;
                     try {
-                        pump = new ParserPump((FileSplit)split, context.getConfiguration());
+                        pump = new ParserPump((FileSplit)split, context);
                         pumpThread = new Thread(pump);
                         pumpThread.setDaemon(true);
                         pumpThread.start();
@@ -315,66 +465,129 @@ public class HalyardBulkLoad implements Tool {
         }
     }
 
-    private static final IRI NOP = SimpleValueFactory.getInstance().createIRI(":");
-    private static final Statement END_STATEMENT = SimpleValueFactory.getInstance().createStatement(NOP, NOP, NOP);
+    private static final List<Statement> END_BATCH = new ArrayList<>();
+
+    private static boolean isLineFormat(RDFFormat format) {
+        return RDFFormat.NTRIPLES.equals(format) || RDFFormat.NQUADS.equals(format);
+    }
 
     private static final class ParserPump extends AbstractRDFHandler implements Closeable, Runnable {
         private final String baseUri;
+        private final RDFFormat format;
         private final Seekable seek;
         private final InputStream in;
+        private final LineRecordReader lines;
         private final long size;
-        private final SynchronousQueue<Statement> queue = new SynchronousQueue<>();
+        private final BlockingQueue<List<Statement>> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
         private final boolean skipInvalid;
+        private final String bnodePrefix;
+        private List<Statement> batch = new ArrayList<>(BATCH_SIZE);
+        private Iterator<Statement> current = null;
+        private boolean finished = false;
         private Exception ex = null;
 
-        public ParserPump(FileSplit split, Configuration conf) throws IOException {
+        public ParserPump(FileSplit split, TaskAttemptContext context) throws IOException {
+            Configuration conf = context.getConfiguration();
             this.size = split.getLength();
             Path file = split.getPath();
             this.baseUri = file.toString();
-            FileSystem fs = file.getFileSystem(conf);
-            FSDataInputStream fileIn = fs.open(file);
-            this.seek = fileIn;
-            CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
-            if (codec != null) {
-                this.in = codec.createInputStream(fileIn, CodecPool.getDecompressor(codec));
+            this.format = Rio.getParserFormatForFileName(baseUri).get();
+            if (isLineFormat(format)) {
+                //line based formats are read by lines from the split boundaries
+                this.lines = new LineRecordReader();
+                this.lines.initialize(split, context);
+                this.seek = null;
+                this.in = null;
+                //the preserved blank node labels are scoped to the file by a prefix derived from the file path
+                this.bnodePrefix = "f" + DigestUtils.sha1Hex(baseUri).substring(0, 16) + "_";
             } else {
-                this.in = fileIn;
+                this.lines = null;
+                this.bnodePrefix = null;
+                FileSystem fs = file.getFileSystem(conf);
+                FSDataInputStream fileIn = fs.open(file);
+                this.seek = fileIn;
+                CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+                if (codec != null) {
+                    this.in = codec.createInputStream(fileIn, CodecPool.getDecompressor(codec));
+                } else {
+                    this.in = fileIn;
+                }
             }
             this.skipInvalid = conf.getBoolean(SKIP_INVALID_PROPERTY, false);
         }
 
         public Statement getNext() throws IOException, InterruptedException {
-            Statement s = queue.take();
-            if (ex != null) {
-                throw new IOException("Exception while parsing: " + baseUri, ex);
+            while (current == null || !current.hasNext()) {
+                if (finished) {
+                    return null;
+                }
+                List<Statement> b = queue.take();
+                if (ex != null) {
+                    throw new IOException("Exception while parsing: " + baseUri, ex);
+                }
+                finished = b == END_BATCH;
+                current = b.iterator();
             }
-            return s == END_STATEMENT ? null : s;
+            return current.next();
         }
 
         public float getProgress() throws IOException {
-            return (float)seek.getPos() / (float)size;
+            return lines != null ? lines.getProgress() : (float)seek.getPos() / (float)size;
         }
 
         @Override
         public void run() {
             try {
-                RDFParser parser = Rio.createParser(Rio.getParserFormatForFileName(baseUri).get());
+                RDFParser parser = Rio.createParser(format);
                 parser.setRDFHandler(this);
                 parser.setStopAtFirstError(!skipInvalid);
-                parser.parse(in, baseUri);
+                if (lines == null) {
+                    parser.parse(in, baseUri);
+                } else {
+                    //blank node labels must be preserved, as the lines of the same file are parsed in chunks by multiple Mappers (they are prefixed per file in handleStatement)
+                    parser.getParserConfig().set(BasicParserSettings.PRESERVE_BNODE_IDS, true);
+                    StringBuilder chunk = new StringBuilder();
+                    int count = 0;
+                    while (lines.nextKeyValue()) {
+                        chunk.append(lines.getCurrentValue().toString()).append('\n');
+                        if (++count >= BATCH_SIZE) {
+                            parser.parse(new StringReader(chunk.toString()), baseUri);
+                            chunk.setLength(0);
+                            count = 0;
+                        }
+                    }
+                    if (count > 0) {
+                        parser.parse(new StringReader(chunk.toString()), baseUri);
+                    }
+                }
             } catch (Exception e) {
                 ex = e;
             } finally {
                 try {
-                    queue.put(END_STATEMENT);
+                    if (!batch.isEmpty()) {
+                        queue.put(batch);
+                    }
+                    queue.put(END_BATCH);
                 } catch (InterruptedException ignore) {}
             }
         }
 
+        private Value scopeBNode(Value v) {
+            return v instanceof BNode ? SimpleValueFactory.getInstance().createBNode(bnodePrefix + ((BNode)v).getID()) : v;
+        }
+
         @Override
         public void handleStatement(Statement st) throws RDFHandlerException {
-            try {
-                queue.put(st);
+            if (bnodePrefix != null && (st.getSubject() instanceof BNode || st.getObject() instanceof BNode || st.getContext() instanceof BNode)) {
+                Resource subj = (Resource)scopeBNode(st.getSubject());
+                Value obj = scopeBNode(st.getObject());
+                st = st.getContext() == null ? SimpleValueFactory.getInstance().createStatement(subj, st.getPredicate(), obj)
+                        : SimpleValueFactory.getInstance().createStatement(subj, st.getPredicate(), obj, (Resource)scopeBNode(st.getContext()));
+            }
+            batch.add(st);
+            if (batch.size() >= BATCH_SIZE) try {
+                queue.put(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
             } catch (InterruptedException e) {
                 throw new RDFHandlerException(e);
             }
@@ -382,7 +595,11 @@ public class HalyardBulkLoad implements Tool {
 
         @Override
         public void close() throws IOException {
-            in.close();
+            if (lines != null) {
+                lines.close();
+            } else {
+                in.close();
+            }
         }
     }
 
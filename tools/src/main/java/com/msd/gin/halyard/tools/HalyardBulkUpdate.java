@@ -17,11 +17,17 @@
 package com.msd.gin.halyard.tools;
 
 import com.msd.gin.halyard.common.HalyardTableUtils;
+import static com.msd.gin.halyard.tools.HalyardBulkLoad.DEDUP_CACHE_SIZE_PROPERTY;
 import static com.msd.gin.halyard.tools.HalyardBulkLoad.DEFAULT_CONTEXT_PROPERTY;
+import static com.msd.gin.halyard.tools.HalyardBulkLoad.DEFAULT_DEDUP_CACHE_SIZE;
 import static com.msd.gin.halyard.tools.HalyardBulkLoad.OVERRIDE_CONTEXT_PROPERTY;
 import com.msd.gin.halyard.sail.HBaseSail;
+import com.msd.gin.halyard.strategy.KeyRangeFunction;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -29,7 +35,9 @@ import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTable;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
@@ -40,15 +48,17 @@ import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
-import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Resource;
@@ -60,10 +70,31 @@ import org.eclipse.rdf4j.query.GraphQuery;
 import org.eclipse.rdf4j.query.MalformedQueryException;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.ArbitraryLengthPath;
+import org.eclipse.rdf4j.query.algebra.Difference;
+import org.eclipse.rdf4j.query.algebra.Distinct;
+import org.eclipse.rdf4j.query.algebra.Exists;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
+import org.eclipse.rdf4j.query.algebra.Group;
+import org.eclipse.rdf4j.query.algebra.LeftJoin;
+import org.eclipse.rdf4j.query.algebra.MultiProjection;
+import org.eclipse.rdf4j.query.algebra.Order;
+import org.eclipse.rdf4j.query.algebra.Projection;
+import org.eclipse.rdf4j.query.algebra.QueryModelNode;
+import org.eclipse.rdf4j.query.algebra.Service;
+import org.eclipse.rdf4j.query.algebra.Slice;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.Union;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.ZeroLengthPath;
 import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
-import org.eclipse.rdf4j.query.algebra.evaluation.function.Function;
 import org.eclipse.rdf4j.query.algebra.evaluation.function.FunctionRegistry;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
 import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.sail.SailQuery;
 import org.eclipse.rdf4j.repository.sail.SailRepository;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFHandlerException;
@@ -71,7 +102,6 @@ import org.eclipse.rdf4j.rio.RDFParser;
 import org.eclipse.rdf4j.rio.Rio;
 import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
 import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
-import org.eclipse.rdf4j.sail.SailException;
 
 /**
  * Apache Hadoop MapReduce tool performing SPARQL Graph queries and BulkLoading results back into HBase
@@ -85,11 +115,24 @@ public class HalyardBulkUpdate implements Tool {
     public static final String DECIMATE_FUNCTION_NAME = "decimate_by";
 
     /**
-     * Full URI of a custom SPARQL function to decimate parallel evaluation based on Mapper index
+     * Full URI of a custom SPARQL function to decimate parallel evaluation based on Mapper index,
+     * decimate_by(index, count, ?var1, ...) accepts the values with the hash key in the index-th of count equal slices of the hash key space,
+     * only the first decimated argument is hashed and the following arguments are ignored
      */
     public static final String DECIMATE_FUNCTION_URI = "http://gin.msd.com/halyard/" + DECIMATE_FUNCTION_NAME;
+
+    /**
+     * Property defining number of Mappers each SPARQL query is split into by hash partitioning of a variable
+     */
+    public static final String SPLITS_PROPERTY = "halyard.bulkupdate.splits";
+
+    /**
+     * Property defining name of the variable used for the query split, the subject variable of the first statement pattern is used by default
+     */
+    public static final String SPLIT_VARIABLE_PROPERTY = "halyard.bulkupdate.split.variable";
     private static final String TABLE_NAME_PROPERTY = "halyard.table.name";
     private static final String CHECK_BEFORE_WRITE_PROPERTY = "halyard.check.before.write";
+    private static final int CHECK_BATCH_SIZE = 1000;
     private static final Logger LOG = Logger.getLogger(HalyardBulkUpdate.class.getName());
     private Configuration conf;
 
@@ -102,22 +145,28 @@ public class HalyardBulkUpdate implements Tool {
         private boolean overrideRdfContext;
         private String tableName;
         private boolean checkBeforeWrite;
+        private HTable table;
+        private HalyardBulkLoad.RecentStatements recentStatements;
+        private int indices;
 
         @Override
         protected void setup(Context context) throws IOException, InterruptedException {
-            FunctionRegistry.getInstance().add(new Function() {
+            //each partition is a slice of the hash key space, so HBaseSail restricts the scans of the decimated variable to the same slice
+            FunctionRegistry.getInstance().add(new KeyRangeFunction(DECIMATE_FUNCTION_URI, 2) {
                 @Override
-                public String getURI() {
-                        return DECIMATE_FUNCTION_URI;
+                public byte[][] getKeyRange(Value... rangeArgs) throws ValueExprEvaluationException {
+                    if (!(rangeArgs[0] instanceof Literal) || !(rangeArgs[1] instanceof Literal)) throw new ValueExprEvaluationException("First two two arguments of " + DECIMATE_FUNCTION_URI + " function must be literals");
+                    try {
+                        return getSlice(((Literal)rangeArgs[0]).intValue(), ((Literal)rangeArgs[1]).intValue());
+                    } catch (NumberFormatException e) {
+                        throw new ValueExprEvaluationException(e);
+                    }
                 }
 
                 @Override
-                public Value evaluate(ValueFactory valueFactory, Value... args) throws ValueExprEvaluationException {
-                    if (args.length < 3) throw new ValueExprEvaluationException("Minimal number of arguments for " + DECIMATE_FUNCTION_URI + " function is 3");
-                    if (!(args[0] instanceof Literal) || !(args[1] instanceof Literal)) throw new ValueExprEvaluationException("First two two arguments of " + DECIMATE_FUNCTION_URI + " function must be literals");
-                    int index = ((Literal)args[0]).intValue();
-                    int size = ((Literal)args[1]).intValue();
-                    return valueFactory.createLiteral(Arrays.hashCode(args) % size == index);
+                protected byte[] getKey(Value... args) {
+                    //all the decimated arguments are hashed, only a single argument hash key matches the index keys
+                    return HalyardTableUtils.hashKey(args);
                 }
             });
             Configuration conf = context.getConfiguration();
@@ -125,7 +174,21 @@ public class HalyardBulkUpdate implements Tool {
             String defCtx = conf.get(DEFAULT_CONTEXT_PROPERTY);
             defaultRdfContext = defCtx == null ? null : SimpleValueFactory.getInstance().createIRI(defCtx);
             tableName = conf.get(TABLE_NAME_PROPERTY);
+            indices = HalyardTableUtils.parseIndices(conf.get(HalyardTableUtils.INDICES_PROPERTY));
             checkBeforeWrite = conf.getBoolean(CHECK_BEFORE_WRITE_PROPERTY, false);
+            if (checkBeforeWrite) {
+                table = HalyardTableUtils.getTable(conf, tableName, false, 0, null);
+            }
+            //recently written or checked statements are skipped
+            recentStatements = new HalyardBulkLoad.RecentStatements(conf.getInt(DEDUP_CACHE_SIZE_PROPERTY, DEFAULT_DEDUP_CACHE_SIZE));
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (table != null) {
+                table.close();
+                table = null;
+            }
         }
 
         @Override
@@ -145,11 +208,22 @@ public class HalyardBulkUpdate implements Tool {
                 try {
                     rep.initialize();
                     GraphQuery gq = rep.getConnection().prepareGraphQuery(QueryLanguage.SPARQL, query);
+                    if (context.getInputSplit() instanceof QuerySplit) {
+                        QuerySplit split = (QuerySplit)context.getInputSplit();
+                        if (split.getCount() > 1 && !splitQuery(((SailQuery)gq).getParsedQuery().getTupleExpr(), context.getConfiguration().get(SPLIT_VARIABLE_PROPERTY), split.getIndex(), split.getCount())) {
+                            if (split.getIndex() > 0) {
+                                LOG.log(Level.WARNING, "Query can not be split, it is evaluated by the first Mapper only: {0}", fistLine);
+                                return;
+                            }
+                        }
+                    }
                     LOG.log(Level.INFO, "Execution of: {0}", query);
                     context.setStatus(fistLine);
                     final AtomicLong counter = new AtomicLong();
                     final AtomicLong newCounter = new AtomicLong();
                     gq.evaluate(new AbstractRDFHandler() {
+                        private final List<KeyValue[]> batch = new ArrayList<>(CHECK_BATCH_SIZE);
+
                         @Override
                         public void handleStatement(Statement statement) throws RDFHandlerException {
                             context.progress();
@@ -158,27 +232,60 @@ public class HalyardBulkUpdate implements Tool {
                                 rdfContext = defaultRdfContext;
                             }
                             try {
-                                if (checkBeforeWrite) {
-                                    try (CloseableIteration<? extends Statement, SailException> iter = sail.getStatements(statement.getSubject(), statement.getPredicate(), statement.getObject(), true, rdfContext)) {
-                                        if (!iter.hasNext()) {
-                                            newCounter.incrementAndGet();
-                                            write(statement, rdfContext);
+                                KeyValue keyValues[] = HalyardTableUtils.toKeyValues(statement.getSubject(), statement.getPredicate(), statement.getObject(), rdfContext, indices);
+                                if (recentStatements.add(keyValues)) {
+                                    if (checkBeforeWrite) {
+                                        batch.add(keyValues);
+                                        if (batch.size() >= CHECK_BATCH_SIZE) {
+                                            flush();
                                         }
+                                    } else {
+                                        newCounter.incrementAndGet();
+                                        write(keyValues);
                                     }
-                                } else {
-                                    newCounter.incrementAndGet();
-                                    write(statement, rdfContext);
                                 }
                                 if (counter.incrementAndGet() % 1000l == 0) {
                                     context.setStatus(fistLine + " - " + newCounter.get() + "/" + counter.get());
                                     LOG.log(Level.INFO, "{0} new out of {1} statements", new Object[] {newCounter.get(), counter.get()});
                                 }
-                            } catch (IOException | InterruptedException | SailException ex) {
+                            } catch (IOException | InterruptedException ex) {
                                 throw new RDFHandlerException(ex);
                             }
                         }
-                        private void write(Statement statement, Resource rdfContext) throws IOException, InterruptedException {
-                            for (KeyValue keyValue: HalyardTableUtils.toKeyValues(statement.getSubject(), statement.getPredicate(), statement.getObject(), rdfContext)) {
+
+                        @Override
+                        public void endRDF() throws RDFHandlerException {
+                            try {
+                                flush();
+                            } catch (IOException | InterruptedException ex) {
+                                throw new RDFHandlerException(ex);
+                            }
+                        }
+
+                        /**
+                         * Checks existence of the batched statements by a single multi-get of the exact SPO cells (their qualifiers include the context) and writes only the missing ones
+                         */
+                        private void flush() throws IOException, InterruptedException {
+                            if (batch.isEmpty()) {
+                                return;
+                            }
+                            List<Get> gets = new ArrayList<>(batch.size());
+                            for (KeyValue kvs[] : batch) {
+                                KeyValue kv = kvs[0];
+                                gets.add(new Get(CellUtil.cloneRow(kv)).addColumn(CellUtil.cloneFamily(kv), CellUtil.cloneQualifier(kv)));
+                            }
+                            boolean exists[] = table.existsAll(gets);
+                            for (int i = 0; i < exists.length; i++) {
+                                if (!exists[i]) {
+                                    newCounter.incrementAndGet();
+                                    write(batch.get(i));
+                                }
+                            }
+                            batch.clear();
+                        }
+
+                        private void write(KeyValue keyValues[]) throws IOException, InterruptedException {
+                            for (KeyValue keyValue: keyValues) {
                                 context.write(new ImmutableBytesWritable(keyValue.getRowArray(), keyValue.getRowOffset(), keyValue.getRowLength()), keyValue);
                             }
                         }
@@ -196,10 +303,204 @@ public class HalyardBulkUpdate implements Tool {
         }
     }
 
+    /**
+     * Restricts the query evaluation to a single partition by a filter of the first statement pattern binding the split variable.
+     * Statement patterns in optional, union and minus branches are not considered, as filtering them would not partition the results.
+     * The query is not split when the first eligible statement pattern is evaluated under an aggregation, a slice, an order,
+     * a distinct sub-select, an exists condition, a property path or a service call, as the partitions of these would not add up to the complete results.
+     * @param root TupleExpr root of the query
+     * @param splitVariable optional name of the split variable, the subject variable of the first statement pattern is used when null
+     * @param index int index of the partition
+     * @param count int number of the partitions
+     * @return boolean true if the query has been split
+     */
+    static boolean splitQuery(TupleExpr root, final String splitVariable, int index, int count) {
+        final Var split[] = new Var[1];
+        final StatementPattern pattern[] = new StatementPattern[1];
+        final boolean splittable[] = new boolean[] {true};
+        root.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            private int unsafeDepth = 0, projectionDepth = 0;
+
+            @Override
+            public void meet(StatementPattern node) {
+                if (pattern[0] == null && splittable[0]) {
+                    for (Var v : node.getVarList()) {
+                        if (!v.hasValue() && (splitVariable == null ? v == node.getSubjectVar() : splitVariable.equals(v.getName()))) {
+                            if (unsafeDepth > 0) {
+                                splittable[0] = false;
+                            } else {
+                                split[0] = v;
+                                pattern[0] = node;
+                            }
+                            return;
+                        }
+                    }
+                }
+            }
+
+            private void meetUnsafe(QueryModelNode node) {
+                unsafeDepth++;
+                node.visitChildren(this);
+                unsafeDepth--;
+            }
+
+            @Override
+            public void meet(Filter node) {
+                //the filtered argument is preferred to the patterns of the condition
+                node.getArg().visit(this);
+                node.getCondition().visit(this);
+            }
+
+            @Override
+            public void meet(Projection node) {
+                projectionDepth++;
+                super.meet(node);
+                projectionDepth--;
+            }
+
+            @Override
+            public void meet(MultiProjection node) {
+                projectionDepth++;
+                super.meet(node);
+                projectionDepth--;
+            }
+
+            @Override
+            public void meet(Distinct node) {
+                if (projectionDepth > 0) {
+                    meetUnsafe(node);
+                } else {
+                    super.meet(node);
+                }
+            }
+
+            @Override
+            public void meet(Group node) {
+                meetUnsafe(node);
+            }
+
+            @Override
+            public void meet(Slice node) {
+                meetUnsafe(node);
+            }
+
+            @Override
+            public void meet(Order node) {
+                meetUnsafe(node);
+            }
+
+            @Override
+            public void meet(Exists node) {
+                meetUnsafe(node);
+            }
+
+            @Override
+            public void meet(Service node) {
+                meetUnsafe(node);
+            }
+
+            @Override
+            public void meet(ArbitraryLengthPath node) {
+                meetUnsafe(node);
+            }
+
+            @Override
+            public void meet(ZeroLengthPath node) {
+                meetUnsafe(node);
+            }
+
+            @Override
+            public void meet(LeftJoin node) {
+                node.getLeftArg().visit(this);
+            }
+
+            @Override
+            public void meet(Difference node) {
+                node.getLeftArg().visit(this);
+            }
+
+            @Override
+            public void meet(Union node) {
+            }
+        });
+        if (!splittable[0]) {
+            return false;
+        }
+        if (pattern[0] == null) {
+            return false;
+        }
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Filter filter = new Filter();
+        pattern[0].replaceWith(filter);
+        filter.setArg(pattern[0]);
+        filter.setCondition(new FunctionCall(DECIMATE_FUNCTION_URI, new ValueConstant(vf.createLiteral(index)), new ValueConstant(vf.createLiteral(count)), split[0].clone()));
+        return true;
+    }
+
+    /**
+     * FileSplit of the SPARQL queries file evaluated as one of the partitions of each query
+     */
+    public static final class QuerySplit extends FileSplit {
+
+        private int index, count;
+
+        /**
+         * Default constructor for deserialization
+         */
+        public QuerySplit() {
+        }
+
+        QuerySplit(FileSplit split, int index, int count) throws IOException {
+            super(split.getPath(), split.getStart(), split.getLength(), split.getLocations());
+            this.index = index;
+            this.count = count;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            super.write(out);
+            out.writeInt(index);
+            out.writeInt(count);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            super.readFields(in);
+            index = in.readInt();
+            count = in.readInt();
+        }
+    }
+
+    /**
+     * NLineInputFormat producing multiple QuerySplits of each line with SPARQL query
+     */
+    public static final class QueryInputFormat extends NLineInputFormat {
+
+        @Override
+        public List<InputSplit> getSplits(JobContext job) throws IOException {
+            int count = Math.max(1, job.getConfiguration().getInt(SPLITS_PROPERTY, 1));
+            List<InputSplit> splits = new ArrayList<>();
+            for (InputSplit split : super.getSplits(job)) {
+                for (int i = 0; i < count; i++) {
+                    splits.add(new QuerySplit((FileSplit)split, i, count));
+                }
+            }
+            return splits;
+        }
+    }
+
     @Override
     public int run(String[] args) throws Exception {
         if (args.length != 3) {
-            System.err.println("Usage: bulkupdate [-D" + MRJobConfig.QUEUE_NAME + "=proofofconcepts] [-D" + DEFAULT_CONTEXT_PROPERTY + "=http://new_context] [-D" + OVERRIDE_CONTEXT_PROPERTY + "=true] <input_file_with_SPARQL_queries> <output_path> <table_name>");
+            System.err.println("Usage: bulkupdate [-D" + MRJobConfig.QUEUE_NAME + "=proofofconcepts] [-D" + DEFAULT_CONTEXT_PROPERTY + "=http://new_context] [-D" + OVERRIDE_CONTEXT_PROPERTY + "=true] [-D" + SPLITS_PROPERTY + "=10] [-D" + SPLIT_VARIABLE_PROPERTY + "=s] <input_file_with_SPARQL_queries> <output_path> <table_name>");
             return -1;
         }
         TableMapReduceUtil.addDependencyJars(getConf(),
@@ -223,12 +524,15 @@ public class HalyardBulkUpdate implements Tool {
         NLineInputFormat.setNumLinesPerSplit(job, 1);
         job.setJarByClass(HalyardBulkUpdate.class);
         job.setMapperClass(SPARQLMapper.class);
+        job.setCombinerClass(HalyardBulkLoad.DedupCombiner.class);
         job.setMapOutputKeyClass(ImmutableBytesWritable.class);
         job.setMapOutputValueClass(KeyValue.class);
-        job.setInputFormatClass(NLineInputFormat.class);
+        job.setInputFormatClass(QueryInputFormat.class);
         job.setSpeculativeExecution(false);
         job.setReduceSpeculativeExecution(false);
         try (HTable hTable = HalyardTableUtils.getTable(getConf(), args[2], false, 0, null)) {
+            //the mappers build only the indices of the table
+            job.getConfiguration().set(HalyardTableUtils.INDICES_PROPERTY, HalyardTableUtils.toIndicesString(HalyardTableUtils.getIndices(hTable)));
             HFileOutputFormat2.configureIncrementalLoad(job, hTable.getTableDescriptor(), hTable.getRegionLocator());
             FileInputFormat.setInputPaths(job, args[0]);
             FileOutputFormat.setOutputPath(job, new Path(args[1]));
@@ -236,6 +540,7 @@ public class HalyardBulkUpdate implements Tool {
             TableMapReduceUtil.initCredentials(job);
             if (job.waitForCompletion(true)) {
                 new LoadIncrementalHFiles(getConf()).doBulkLoad(new Path(args[1]), hTable);
+                HalyardTableUtils.markModified(hTable);
                 LOG.info("Bulk Update Completed..");
                 return 0;
             }
@@ -21,12 +21,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.charset.Charset;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
@@ -43,11 +43,21 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import org.apache.commons.cli.CommandLine;
@@ -61,6 +71,14 @@ import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.hive.ql.io.orc.CompressionKind;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
 import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.query.BindingSet;
@@ -85,6 +103,41 @@ import org.eclipse.rdf4j.rio.Rio;
  */
 public final class HalyardExport {
 
+    /**
+     * Property defining number of JDBC connections inserting the exported rows in parallel (default 1),
+     * the export into multiple connections is not atomic as each connection commits independently
+     */
+    public static final String JDBC_WRITERS_PROPERTY = "halyard.export.jdbc.writers";
+
+    /**
+     * Property defining number of rows inserted in a single JDBC batch
+     */
+    public static final String JDBC_BATCH_SIZE_PROPERTY = "halyard.export.jdbc.batch.size";
+
+    /**
+     * Property defining number of rows inserted by each JDBC connection between commits, zero or negative value means a single commit of each connection at the end of the export
+     */
+    public static final String JDBC_COMMIT_ROWS_PROPERTY = "halyard.export.jdbc.commit.rows";
+
+    /**
+     * Boolean property enabling bulk copy of the rows for the JDBC connections supporting it (PostgreSQL COPY)
+     */
+    public static final String JDBC_BULK_COPY_PROPERTY = "halyard.export.jdbc.bulk.copy";
+
+    /**
+     * Property defining compression of the ORC files (NONE, ZLIB, SNAPPY or LZO), defaults to ZLIB
+     */
+    public static final String ORC_COMPRESSION_PROPERTY = "halyard.export.orc.compression";
+
+    /**
+     * Property defining explicit types of the ORC columns of tuple query results as a comma separated list of column:type pairs
+     * (for example count:bigint,created:timestamp), the supported types are boolean, bigint, double, timestamp, date and string (default)
+     */
+    public static final String ORC_TYPES_PROPERTY = "halyard.export.orc.types";
+
+    private static final int DEFAULT_JDBC_WRITERS = 1;
+    private static final int DEFAULT_JDBC_BATCH_SIZE = 1000;
+
     /**
      * A generic exception during export
      */
@@ -106,6 +159,15 @@ public final class HalyardExport {
         public ExportException(Throwable cause) {
             super(cause);
         }
+
+        /**
+         * ExportException constructor
+         * @param message String exception message
+         * @param cause Throwable exception cause
+         */
+        public ExportException(String message, Throwable cause) {
+            super(message, cause);
+        }
     }
 
     /**
@@ -127,7 +189,7 @@ public final class HalyardExport {
     }
 
     private static abstract class QueryResultWriter implements AutoCloseable {
-        private final AtomicLong counter = new AtomicLong();
+        private long counter = 0;
         private final StatusLog log;
         private long startTime;
 
@@ -141,7 +203,7 @@ public final class HalyardExport {
 
         protected final long tick() {
             log.tick();
-            long count = counter.incrementAndGet();
+            long count = ++counter;
             if ((count % 10000l) == 0) {
                 long time = System.currentTimeMillis();
                 log.logStatus(MessageFormat.format("Exported {0} records/triples in average speed {1}/s", count, (1000 * count)/(time - startTime)));
@@ -155,82 +217,110 @@ public final class HalyardExport {
         public abstract void close() throws ExportException;
     }
 
+    /**
+     * CSV writer encoding the fields directly into a reused byte buffer, the escaped output is pure ASCII.
+     */
     private static class CSVResultWriter extends QueryResultWriter {
 
-        private static final char[] HEX_DIGIT = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
-
-        private static String escapeAndQuoteField(String field) {
-            char fch[] = field.toCharArray();
-            boolean quoted = fch.length == 0;
-            StringBuilder sb = new StringBuilder();
-            for (char c : fch) {
-                if (c == '"') {
-                    sb.append("\"\"");
-                    quoted = true;
-                } else if (c == '\n') {
-                    sb.append("\\n");
-                } else if (c == '\r') {
-                    sb.append("\\r");
-                } else if (c == '\\'){
-                    sb.append("\\\\");
-                } else if (c == ',') {
-                    sb.append(',');
-                    quoted = true;
-                } else if (c < 32 || c > 126) {
-                    sb.append("\\u");
-                    sb.append(HEX_DIGIT[(c >> 12) & 0xF]);
-                    sb.append(HEX_DIGIT[(c >>  8) & 0xF]);
-                    sb.append(HEX_DIGIT[(c >>  4) & 0xF]);
-                    sb.append(HEX_DIGIT[ c        & 0xF]);
-                } else {
-                    sb.append(c);
-                }
-            }
-            if (quoted) {
-                return "\"" + sb.toString() + "\"";
-            } else {
-                return sb.toString();
+        private static final int BUFFER_SIZE = 1 << 20;
+        private static final byte[] HEX_DIGIT = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
+        private static final byte[][] ESCAPES = new byte[127][];
+        static {
+            for (char c = 0; c < 32; c++) {
+                ESCAPES[c] = new byte[] {'\\', 'u', '0', '0', HEX_DIGIT[c >> 4], HEX_DIGIT[c & 0xF]};
             }
+            ESCAPES['\n'] = new byte[] {'\\', 'n'};
+            ESCAPES['\r'] = new byte[] {'\\', 'r'};
+            ESCAPES['\\'] = new byte[] {'\\', '\\'};
+            ESCAPES['"'] = new byte[] {'"', '"'};
         }
 
-        private final Writer writer;
+        private final OutputStream out;
+        private final byte buffer[] = new byte[BUFFER_SIZE];
+        private int length = 0;
 
         public CSVResultWriter(StatusLog log, OutputStream out) {
             super(log);
-            this.writer = new OutputStreamWriter(out, Charset.forName("UTF-8"));
+            this.out = out;
+        }
+
+        private void write(byte b) throws IOException {
+            if (length == buffer.length) {
+                flushBuffer();
+            }
+            buffer[length++] = b;
+        }
+
+        private void flushBuffer() throws IOException {
+            out.write(buffer, 0, length);
+            length = 0;
+        }
+
+        private void writeEscapedAndQuoted(String field) throws IOException {
+            int len = field.length();
+            boolean quoted = len == 0;
+            for (int i = 0; i < len && !quoted; i++) {
+                char c = field.charAt(i);
+                quoted = c == '"' || c == ',';
+            }
+            if (quoted) {
+                write((byte)'"');
+            }
+            for (int i = 0; i < len; i++) {
+                char c = field.charAt(i);
+                //each char takes at most 6 bytes
+                if (length > buffer.length - 6) {
+                    flushBuffer();
+                }
+                if (c > 126) {
+                    buffer[length++] = '\\';
+                    buffer[length++] = 'u';
+                    buffer[length++] = HEX_DIGIT[(c >> 12) & 0xF];
+                    buffer[length++] = HEX_DIGIT[(c >>  8) & 0xF];
+                    buffer[length++] = HEX_DIGIT[(c >>  4) & 0xF];
+                    buffer[length++] = HEX_DIGIT[ c        & 0xF];
+                } else {
+                    byte esc[] = ESCAPES[c];
+                    if (esc == null) {
+                        buffer[length++] = (byte)c;
+                    } else {
+                        System.arraycopy(esc, 0, buffer, length, esc.length);
+                        length += esc.length;
+                    }
+                }
+            }
+            if (quoted) {
+                write((byte)'"');
+            }
         }
 
         @Override
         public void writeTupleQueryResult(TupleQueryResult queryResult) throws ExportException {
             try {
                 List<String> bns = queryResult.getBindingNames();
-                boolean first = true;
-                for (String bn : bns) {
-                    if (first) {
-                        first = false;
-                    } else {
-                        writer.write(',');
+                String names[] = bns.toArray(new String[bns.size()]);
+                for (int i = 0; i < names.length; i++) {
+                    if (i > 0) {
+                        write((byte)',');
                     }
-                    writer.write(escapeAndQuoteField(bn));
+                    writeEscapedAndQuoted(names[i]);
                 }
-                writer.write('\n');
+                write((byte)'\n');
                 while (queryResult.hasNext()) {
                     BindingSet bs = queryResult.next();
-                    first = true;
-                    for (String bn : bns) {
-                        if (first) {
-                            first = false;
-                        } else {
-                            writer.write(',');
+                    for (int i = 0; i < names.length; i++) {
+                        if (i > 0) {
+                            write((byte)',');
                         }
-                        Value v = bs.getValue(bn);
+                        Value v = bs.getValue(names[i]);
                         if (v != null) {
-                            writer.write(escapeAndQuoteField(v.stringValue()));
+                            writeEscapedAndQuoted(v.stringValue());
                         }
                     }
-                    writer.write('\n');
+                    write((byte)'\n');
                     tick();
                 }
+                flushBuffer();
             } catch (QueryEvaluationException | IOException e) {
                 throw new ExportException(e);
             }
@@ -244,7 +334,8 @@ public final class HalyardExport {
         @Override
         public void close() throws ExportException {
             try {
-                writer.close();
+                flushBuffer();
+                out.close();
             } catch (IOException e) {
                 throw new ExportException(e);
             }
@@ -294,18 +385,246 @@ public final class HalyardExport {
         }
     }
 
+    /**
+     * Writer of the query results into ORC columnar file with compressed stripes written as the results stream.
+     * The columns of the tuple query results are strings unless explicitly typed, so all the files of a parallel export share the same schema,
+     * the export fails on a value not convertible to the explicit column type.
+     * Graph query results are written as subject, predicate, object and context string columns.
+     */
+    private static class ORCResultWriter extends QueryResultWriter {
+
+        private static final Collection<TypeInfo> SUPPORTED_TYPES = Arrays.<TypeInfo>asList(TypeInfoFactory.booleanTypeInfo, TypeInfoFactory.longTypeInfo, TypeInfoFactory.doubleTypeInfo,
+                TypeInfoFactory.timestampTypeInfo, TypeInfoFactory.dateTypeInfo, TypeInfoFactory.stringTypeInfo);
+
+        private final Path path;
+        private final Configuration conf;
+        private final Map<String, TypeInfo> columnTypes = new HashMap<>();
+        private final CompressionKind compression;
+        private org.apache.hadoop.hive.ql.io.orc.Writer writer = null;
+
+        public ORCResultWriter(StatusLog log, Path path, Configuration conf) throws ExportException {
+            super(log);
+            this.path = path;
+            this.conf = conf;
+            String compressionName = conf.getTrimmed(ORC_COMPRESSION_PROPERTY, CompressionKind.ZLIB.name());
+            try {
+                this.compression = CompressionKind.valueOf(compressionName.toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new ExportException("Invalid ORC compression: " + compressionName, e);
+            }
+            for (String columnType : conf.getTrimmedStrings(ORC_TYPES_PROPERTY)) {
+                int i = columnType.indexOf(':');
+                TypeInfo type = null;
+                if (i > 0) {
+                    try {
+                        type = TypeInfoUtils.getTypeInfoFromTypeString(columnType.substring(i + 1).trim().toLowerCase(Locale.ENGLISH));
+                    } catch (IllegalArgumentException e) {
+                        //reported below as invalid definition
+                    }
+                }
+                if (!SUPPORTED_TYPES.contains(type)) {
+                    throw new ExportException("Invalid ORC column type definition: " + columnType);
+                }
+                columnTypes.put(columnType.substring(0, i).trim(), type);
+            }
+        }
+
+        private static Object convert(String name, Value v, TypeInfo type) throws ExportException {
+            if (v == null) {
+                return null;
+            } else if (type.equals(TypeInfoFactory.stringTypeInfo)) {
+                return v.stringValue();
+            }
+            try {
+                if (v instanceof Literal) {
+                    Literal l = (Literal)v;
+                    if (type.equals(TypeInfoFactory.booleanTypeInfo)) {
+                        return l.booleanValue();
+                    } else if (type.equals(TypeInfoFactory.longTypeInfo)) {
+                        return l.longValue();
+                    } else if (type.equals(TypeInfoFactory.doubleTypeInfo)) {
+                        return l.doubleValue();
+                    } else if (type.equals(TypeInfoFactory.timestampTypeInfo)) {
+                        return new Timestamp(l.calendarValue().toGregorianCalendar().getTimeInMillis());
+                    } else {
+                        return new java.sql.Date(l.calendarValue().toGregorianCalendar().getTimeInMillis());
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                throw new ExportException("Value " + v + " of column " + name + " can not be written as " + type.getTypeName(), e);
+            }
+            throw new ExportException("Value " + v + " of column " + name + " can not be written as " + type.getTypeName());
+        }
+
+        private void open(List<String> names, List<TypeInfo> types) throws IOException {
+            ObjectInspector inspector = TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(TypeInfoFactory.getStructTypeInfo(names, types));
+            writer = OrcFile.createWriter(path, OrcFile.writerOptions(conf).inspector(inspector)
+                    .compress(compression));
+        }
+
+        @Override
+        public void writeTupleQueryResult(TupleQueryResult queryResult) throws ExportException {
+            try {
+                List<String> bns = queryResult.getBindingNames();
+                List<TypeInfo> types = new ArrayList<>(bns.size());
+                for (String bn : bns) {
+                    TypeInfo type = columnTypes.get(bn);
+                    types.add(type == null ? TypeInfoFactory.stringTypeInfo : type);
+                }
+                open(bns, types);
+                //the row is copied into the column buffers, so it is reused
+                Object row[] = new Object[bns.size()];
+                while (queryResult.hasNext()) {
+                    BindingSet bs = queryResult.next();
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = convert(bns.get(i), bs.getValue(bns.get(i)), types.get(i));
+                    }
+                    writer.addRow(row);
+                    tick();
+                }
+            } catch (QueryEvaluationException | IOException e) {
+                throw new ExportException(e);
+            }
+        }
+
+        @Override
+        public void writeGraphQueryResult(GraphQueryResult queryResult) throws ExportException {
+            try {
+                open(Arrays.asList("subject", "predicate", "object", "context"), Collections.<TypeInfo>nCopies(4, TypeInfoFactory.stringTypeInfo));
+                Object row[] = new Object[4];
+                while (queryResult.hasNext()) {
+                    org.eclipse.rdf4j.model.Statement st = queryResult.next();
+                    row[0] = st.getSubject().stringValue();
+                    row[1] = st.getPredicate().stringValue();
+                    row[2] = st.getObject().stringValue();
+                    row[3] = st.getContext() == null ? null : st.getContext().stringValue();
+                    writer.addRow(row);
+                    tick();
+                }
+            } catch (QueryEvaluationException | IOException e) {
+                throw new ExportException(e);
+            }
+        }
+
+        @Override
+        public void close() throws ExportException {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                throw new ExportException(e);
+            }
+        }
+    }
+
+    /**
+     * JDBC writer decoupling the query evaluation from the inserts through a bounded queue of row batches consumed by multiple connections.
+     * PostgreSQL connections use the bulk COPY instead of the batched inserts.
+     * A single connection trims the target table and inserts the rows in one transaction (unless committing after the given number of rows),
+     * which is rolled back when the export fails. Multiple connections commit independently and the target table is trimmed in a separate transaction before the export.
+     */
     private static class JDBCResultWriter extends QueryResultWriter {
 
         private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("^[a-zA-Z_0-9\\.]+$");
         private static final Collection<Integer> DATE_TIME_TYPES = Arrays.asList(Types.DATE, Types.TIME, Types.TIMESTAMP);
+        private static final String PG_CONNECTION_CLASS = "org.postgresql.PGConnection";
+        private static final List<Object[]> END = new ArrayList<>();
+        private static final long OFFER_TIMEOUT = 100;
+
+        private static final class BatchWriter implements Callable<Void> {
+
+            private final Connection con;
+            private final BlockingQueue<List<Object[]>> queue;
+            private final String sql;
+            private final int columnTypes[];
+            private final long commitRows;
+            private final Object copyManager;
+
+            BatchWriter(Connection con, BlockingQueue<List<Object[]>> queue, String sql, int columnTypes[], long commitRows, Object copyManager) {
+                this.con = con;
+                this.queue = queue;
+                this.sql = sql;
+                this.columnTypes = columnTypes;
+                this.commitRows = commitRows;
+                this.copyManager = copyManager;
+            }
+
+            @Override
+            public Void call() throws SQLException, InterruptedException {
+                long uncommitted = 0;
+                try (PreparedStatement ps = copyManager == null ? con.prepareStatement(sql) : null) {
+                    List<Object[]> batch;
+                    while ((batch = queue.take()) != END) {
+                        if (ps == null) {
+                            copy(batch);
+                        } else {
+                            insert(ps, batch);
+                        }
+                        uncommitted += batch.size();
+                        if (commitRows > 0 && uncommitted >= commitRows) {
+                            con.commit();
+                            uncommitted = 0;
+                        }
+                    }
+                }
+                con.commit();
+                return null;
+            }
+
+            private void insert(PreparedStatement ps, List<Object[]> batch) throws SQLException {
+                for (Object row[] : batch) {
+                    for (int i = 0; i < row.length; i++) {
+                        if (row[i] instanceof Timestamp) {
+                            ps.setTimestamp(i+1, (Timestamp)row[i]);
+                        } else {
+                            ps.setObject(i+1, row[i], columnTypes[i]);
+                        }
+                    }
+                    ps.addBatch();
+                }
+                for (int i : ps.executeBatch()) {
+                    if (i != 1) throw new SQLException("Row has not been inserted for uknown reason");
+                }
+            }
 
-        private final Connection con;
+            private void copy(List<Object[]> batch) throws SQLException {
+                //rows are passed in CSV format, where the unquoted empty field is null
+                StringBuilder sb = new StringBuilder();
+                for (Object row[] : batch) {
+                    for (int i = 0; i < row.length; i++) {
+                        if (i > 0) {
+                            sb.append(',');
+                        }
+                        if (row[i] != null) {
+                            sb.append('"').append(row[i].toString().replace("\"", "\"\"")).append('"');
+                        }
+                    }
+                    sb.append('\n');
+                }
+                try {
+                    Object rows = copyManager.getClass().getMethod("copyIn", String.class, Reader.class).invoke(copyManager, sql, new StringReader(sb.toString()));
+                    if (((Number)rows).longValue() != batch.size()) throw new SQLException("Rows have not been copied for uknown reason");
+                } catch (InvocationTargetException e) {
+                    throw e.getCause() instanceof SQLException ? (SQLException)e.getCause() : new SQLException(e.getCause());
+                } catch (ReflectiveOperationException e) {
+                    throw new SQLException(e);
+                }
+            }
+        }
+
+        private final List<Connection> cons = new ArrayList<>();
         private final String tableName;
-        private final boolean trimTable;
+        private final boolean trimTable, bulkCopy;
+        private final int batchSize;
+        private final long commitRows;
 
-        public JDBCResultWriter(StatusLog log, String dbUrl, String tableName, String[] connProps, final String driverClass, URL[] driverClasspath, boolean trimTable) throws ExportException {
+        public JDBCResultWriter(StatusLog log, String dbUrl, String tableName, String[] connProps, final String driverClass, URL[] driverClasspath, boolean trimTable, int writers, int batchSize, long commitRows, boolean bulkCopy) throws ExportException {
             super(log);
             this.trimTable = trimTable;
+            this.batchSize = Math.max(1, batchSize);
+            this.commitRows = commitRows;
+            this.bulkCopy = bulkCopy;
             try {
                 this.tableName = tableName;
                 if (!TABLE_NAME_PATTERN.matcher(tableName).matches()) {
@@ -332,73 +651,148 @@ public final class HalyardExport {
                         }
                     }
                 }
-                this.con = driver.connect(dbUrl, props);
+                for (int i = 0; i < Math.max(1, writers); i++) {
+                    cons.add(driver.connect(dbUrl, props));
+                }
             } catch (SQLException | PrivilegedActionException e) {
+                try {
+                    close();
+                } catch (ExportException ignore) {
+                    //the original exception is reported
+                }
                 throw new ExportException(e);
             }
         }
 
+        private static Object getCopyManager(Connection con) {
+            try {
+                Class<?> pgConnection = Class.forName(PG_CONNECTION_CLASS, false, con.getClass().getClassLoader());
+                if (con.isWrapperFor(pgConnection)) {
+                    return pgConnection.getMethod("getCopyAPI").invoke(con.unwrap(pgConnection));
+                }
+            } catch (ReflectiveOperationException | SQLException e) {
+                //not a PostgreSQL connection
+            }
+            return null;
+        }
+
         @Override
         public void writeTupleQueryResult(TupleQueryResult queryResult) throws ExportException {
             try {
                 List<String> bns = queryResult.getBindingNames();
                 if (bns.size() < 1) return;
-                con.setAutoCommit(false);
-                if (trimTable) try (Statement s = con.createStatement()) {
-                    s.execute("delete from " + tableName);
+                Connection con = cons.get(0);
+                for (Connection c : cons) {
+                    c.setAutoCommit(false);
                 }
-                StringBuilder sb = new StringBuilder("select ").append(bns.get(0));
+                if (trimTable) {
+                    try (Statement s = con.createStatement()) {
+                        s.execute("delete from " + tableName);
+                    }
+                    if (cons.size() > 1) {
+                        //the other connections would wait for the uncommitted trim
+                        con.commit();
+                    }
+                }
+                StringBuilder columns = new StringBuilder(bns.get(0));
                 for (int i = 1; i < bns.size(); i++) {
-                    sb.append(',').append(bns.get(i));
+                    columns.append(',').append(bns.get(i));
                 }
-                sb.append(" from ").append(tableName);
                 int columnTypes[] = new int[bns.size()];
                 try (Statement s = con.createStatement()) {
-                    try (ResultSet rs = s.executeQuery(sb.toString())) {
+                    try (ResultSet rs = s.executeQuery("select " + columns + " from " + tableName + " where 1 = 0")) {
                         ResultSetMetaData meta = rs.getMetaData();
                         for (int i=0; i<meta.getColumnCount(); i++) {
                             columnTypes[i] = meta.getColumnType(i+1);
                         }
                     }
                 }
-                sb = new StringBuilder("insert into ").append(tableName).append(" (").append(bns.get(0));
-                for (int i = 1; i < bns.size(); i++) {
-                    sb.append(',').append(bns.get(i));
-                }
-                sb.append(") values (?");
+                StringBuilder sb = new StringBuilder("insert into ").append(tableName).append(" (").append(columns).append(") values (?");
                 for (int i = 1; i < bns.size(); i++) {
                     sb.append(",?");
                 }
                 sb.append(')');
-                try (PreparedStatement ps = con.prepareStatement(sb.toString())) {
+                String insertSql = sb.toString();
+                String copySql = "COPY " + tableName + " (" + columns + ") FROM STDIN WITH (FORMAT csv)";
+                BlockingQueue<List<Object[]>> queue = new ArrayBlockingQueue<>(2 * cons.size());
+                ExecutorService executor = Executors.newFixedThreadPool(cons.size());
+                try {
+                    List<Future<Void>> writers = new ArrayList<>(cons.size());
+                    for (Connection c : cons) {
+                        Object copyManager = bulkCopy ? getCopyManager(c) : null;
+                        writers.add(executor.submit(new BatchWriter(c, queue, copyManager == null ? insertSql : copySql, columnTypes, commitRows, copyManager)));
+                    }
+                    List<Object[]> batch = new ArrayList<>(batchSize);
                     while (queryResult.hasNext()) {
                         BindingSet bs = queryResult.next();
+                        Object row[] = new Object[bns.size()];
                         for (int i=0; i < bns.size(); i++) {
-                            String bn = bns.get(i);
-                            Value v = bs.getValue(bn);
+                            Value v = bs.getValue(bns.get(i));
                             if (v instanceof Literal && DATE_TIME_TYPES.contains(columnTypes[i])) {
-                                ps.setTimestamp(i+1, new Timestamp(((Literal)v).calendarValue().toGregorianCalendar().getTimeInMillis()));
+                                try {
+                                    row[i] = new Timestamp(((Literal)v).calendarValue().toGregorianCalendar().getTimeInMillis());
+                                } catch (IllegalArgumentException e) {
+                                    throw new ExportException("Value " + v + " of column " + bns.get(i) + " can not be written as a timestamp", e);
+                                }
                             } else {
-                                ps.setObject(i+1, v == null ? null : v.stringValue(), columnTypes[i]);
+                                row[i] = v == null ? null : v.stringValue();
                             }
                         }
-                        ps.addBatch();
-                        if (tick() % 1000 == 0) {
-                            for (int i : ps.executeBatch()) {
-                                if (i != 1) throw new SQLException("Row has not been inserted for uknown reason");
-                            }
+                        batch.add(row);
+                        tick();
+                        if (batch.size() >= batchSize) {
+                            put(queue, batch, writers);
+                            batch = new ArrayList<>(batchSize);
                         }
                     }
-                    for (int i : ps.executeBatch()) {
-                        if (i != 1) throw new SQLException("Row has not been inserted for uknown reason");
+                    if (!batch.isEmpty()) {
+                        put(queue, batch, writers);
+                    }
+                    for (int i = 0; i < writers.size(); i++) {
+                        put(queue, END, writers);
                     }
+                    for (Future<Void> w : writers) {
+                        w.get();
+                    }
+                } finally {
+                    executor.shutdownNow();
+                    //the connections are not rolled back while still used by the writers
+                    executor.awaitTermination(1, TimeUnit.MINUTES);
                 }
-                con.commit();
-            } catch (SQLException | QueryEvaluationException e) {
+            } catch (ExportException e) {
+                rollback();
+                throw e;
+            } catch (ExecutionException e) {
+                rollback();
+                throw new ExportException(e.getCause());
+            } catch (SQLException | QueryEvaluationException | InterruptedException e) {
+                rollback();
                 throw new ExportException(e);
             }
         }
 
+        private void rollback() {
+            for (Connection c : cons) {
+                try {
+                    c.rollback();
+                } catch (SQLException ignore) {
+                    //the original exception is reported
+                }
+            }
+        }
+
+        private static void put(BlockingQueue<List<Object[]>> queue, List<Object[]> batch, List<Future<Void>> writers) throws InterruptedException, ExecutionException {
+            while (!queue.offer(batch, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                //a failed writer would block the query evaluation forever
+                for (Future<Void> w : writers) {
+                    if (w.isDone()) {
+                        w.get();
+                        throw new ExecutionException(new SQLException("JDBC writer finished prematurely"));
+                    }
+                }
+            }
+        }
+
         @Override
         public void writeGraphQueryResult(GraphQueryResult queryResult) throws ExportException {
             throw new ExportException("Graph query results could not be written to JDBC table.");
@@ -406,10 +800,16 @@ public final class HalyardExport {
 
         @Override
         public void close() throws ExportException {
-            try {
-                con.close();
-            } catch (SQLException e) {
-                throw new ExportException(e);
+            SQLException ex = null;
+            for (Connection con : cons) {
+                try {
+                    con.close();
+                } catch (SQLException e) {
+                    ex = e;
+                }
+            }
+            if (ex != null) {
+                throw new ExportException(ex);
             }
         }
     }
@@ -480,7 +880,10 @@ public final class HalyardExport {
     public static void export(Configuration conf, StatusLog log, String source, String query, String targetUrl, String driverClass, URL[] driverClasspath, String[] jdbcProperties, boolean trimTable) throws ExportException {
         try {
             QueryResultWriter writer = null;
-            if (targetUrl.startsWith("file:") || targetUrl.startsWith("hdfs:")) {
+            if ((targetUrl.startsWith("file:") || targetUrl.startsWith("hdfs:")) && targetUrl.endsWith(".orc")) {
+                //ORC files are compressed internally
+                writer = new ORCResultWriter(log, new Path(targetUrl), conf);
+            } else if (targetUrl.startsWith("file:") || targetUrl.startsWith("hdfs:")) {
                 OutputStream out = FileSystem.get(URI.create(targetUrl), conf).create(new Path(targetUrl));
                 try {
                     if (targetUrl.endsWith(".bz2")) {
@@ -489,8 +892,15 @@ public final class HalyardExport {
                     } else if (targetUrl.endsWith(".gz")) {
                         out = new CompressorStreamFactory().createCompressorOutputStream(CompressorStreamFactory.GZIP, out);
                         targetUrl = targetUrl.substring(0, targetUrl.length() - 3);
+                    } else {
+                        //other compressions (for example .snappy, .lz4 or .deflate) are provided by the Hadoop codecs
+                        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(new Path(targetUrl));
+                        if (codec != null) {
+                            out = codec.createOutputStream(out);
+                            targetUrl = CompressionCodecFactory.removeSuffix(targetUrl, codec.getDefaultExtension());
+                        }
                     }
-                } catch (CompressorException e) {
+                } catch (CompressorException | IOException e) {
                     IOUtils.closeQuietly(out);
                     throw new ExportException(e);
                 }
@@ -505,7 +915,8 @@ public final class HalyardExport {
                 int i = targetUrl.lastIndexOf('/');
                 if (i < 0) throw new ExportException("Taret URL does not end with /<table_name>");
                 if (driverClass == null) throw new ExportException("Missing mandatory JDBC driver class name argument -c <driver_class>");
-                writer = new JDBCResultWriter(log, targetUrl.substring(0, i), targetUrl.substring(i+1), jdbcProperties, driverClass, driverClasspath, trimTable);
+                writer = new JDBCResultWriter(log, targetUrl.substring(0, i), targetUrl.substring(i+1), jdbcProperties, driverClass, driverClasspath, trimTable,
+                        conf.getInt(JDBC_WRITERS_PROPERTY, DEFAULT_JDBC_WRITERS), conf.getInt(JDBC_BATCH_SIZE_PROPERTY, DEFAULT_JDBC_BATCH_SIZE), conf.getLong(JDBC_COMMIT_ROWS_PROPERTY, 0), conf.getBoolean(JDBC_BULK_COPY_PROPERTY, true));
             } else {
                 throw new ExportException("Unsupported target URL protocol " + targetUrl);
             }
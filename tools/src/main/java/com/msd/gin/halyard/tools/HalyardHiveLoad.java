@@ -84,6 +84,7 @@ public class HalyardHiveLoad implements Tool {
         private int dataColumnIndex;
         private RDFFormat rdfFormat;
         private String baseUri;
+        private int indices;
 
         @Override
         protected void setup(Context context) throws IOException, InterruptedException {
@@ -94,6 +95,7 @@ public class HalyardHiveLoad implements Tool {
             dataColumnIndex = conf.getInt(HIVE_DATA_COLUMN_INDEX_PROPERTY, 0);
             rdfFormat = Rio.getParserFormatForMIMEType(conf.get(RDF_MIME_TYPE_PROPERTY)).get();
             baseUri = conf.get(BASE_URI_PROPERTY);
+            indices = HalyardTableUtils.parseIndices(conf.get(HalyardTableUtils.INDICES_PROPERTY));
         }
 
         @Override
@@ -107,7 +109,7 @@ public class HalyardHiveLoad implements Tool {
                     if (overrideRdfContext || (rdfContext = st.getContext()) == null) {
                         rdfContext = defaultRdfContext;
                     }
-                    for (KeyValue keyValue: HalyardTableUtils.toKeyValues(st.getSubject(), st.getPredicate(), st.getObject(), rdfContext)) try {
+                    for (KeyValue keyValue: HalyardTableUtils.toKeyValues(st.getSubject(), st.getPredicate(), st.getObject(), rdfContext, indices)) try {
                         context.write(new ImmutableBytesWritable(keyValue.getRowArray(), keyValue.getRowOffset(), keyValue.getRowLength()), keyValue);
                     } catch (IOException | InterruptedException e) {
                         throw new RDFHandlerException(e);
@@ -164,6 +166,8 @@ public class HalyardHiveLoad implements Tool {
             }
         }
         try (HTable hTable = HalyardTableUtils.getTable(getConf(), args[2], true, getConf().getInt(HalyardBulkLoad.SPLIT_BITS_PROPERTY, 3), contextSplitsMap)) {
+            //the mappers build only the indices of the table
+            job.getConfiguration().set(HalyardTableUtils.INDICES_PROPERTY, HalyardTableUtils.toIndicesString(HalyardTableUtils.getIndices(hTable)));
             HFileOutputFormat2.configureIncrementalLoad(job, hTable.getTableDescriptor(), hTable.getRegionLocator());
             FileInputFormat.setInputDirRecursive(job, true);
             FileInputFormat.setInputPaths(job, args[0]);
@@ -172,6 +176,7 @@ public class HalyardHiveLoad implements Tool {
             TableMapReduceUtil.initCredentials(job);
             if (job.waitForCompletion(true)) {
                 new LoadIncrementalHFiles(getConf()).doBulkLoad(new Path(args[1]), hTable);
+                HalyardTableUtils.markModified(hTable);
                 LOG.info("Bulk Load Completed..");
                 return 0;
             }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.tools;
+
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.rio.Rio;
+
+/**
+ * Apache Hadoop Tool loading RDF directly into HBase within a single JVM.
+ * RDF files are parsed and encoded into KeyValues by a pool of parser threads and written through a shared BufferedMutator,
+ * which sends the batched Puts to the region servers in parallel.
+ */
+public class HalyardLoad implements Tool {
+
+    /**
+     * Property defining number of parser threads, defaults to the number of available processors
+     */
+    public static final String THREADS_PROPERTY = "halyard.load.threads";
+
+    /**
+     * Property defining number of threads sending the batched Puts to the region servers
+     */
+    public static final String WRITER_THREADS_PROPERTY = "halyard.load.writer.threads";
+
+    /**
+     * Property defining size of the write buffer in bytes
+     */
+    public static final String WRITE_BUFFER_PROPERTY = "halyard.load.write.buffer";
+
+    private static final int DEFAULT_WRITER_THREADS = 16;
+    private static final long DEFAULT_WRITE_BUFFER = 16 * 1024 * 1024;
+    private static final long REPORT_INTERVAL = 10000;
+    private static final Logger LOG = Logger.getLogger(HalyardLoad.class.getName());
+
+    private Configuration conf;
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: load [-D" + HalyardBulkLoad.SKIP_INVALID_PROPERTY + "=true] [-D" + HalyardBulkLoad.SPLIT_BITS_PROPERTY + "=8] [-D" + HalyardBulkLoad.DEFAULT_CONTEXT_PROPERTY + "=http://new_context] [-D" + HalyardBulkLoad.OVERRIDE_CONTEXT_PROPERTY + "=true] [-D" + THREADS_PROPERTY + "=8] [-D" + WRITER_THREADS_PROPERTY + "=16] [-D" + WRITE_BUFFER_PROPERTY + "=16777216] [-D" + HalyardTableUtils.INDICES_PROPERTY + "=SPO,POS,OSP,CSPO] <input_path(s)> <table_name>");
+            return -1;
+        }
+        Configuration cfg = HBaseConfiguration.create(getConf());
+        Map<String, Integer> contextSplitsMap = new HashMap<>();
+        for (Map.Entry<String, String> me : cfg.getValByRegex(HalyardBulkLoad.CONTEXT_SPLIT_REGEXP).entrySet()) {
+            int splits = Integer.parseInt(me.getKey().substring(me.getKey().lastIndexOf('.') + 1));
+            StringTokenizer stk = new StringTokenizer(me.getValue(), ",");
+            while (stk.hasMoreTokens()) {
+                contextSplitsMap.put(stk.nextToken(), splits);
+            }
+        }
+        int threads = Math.max(1, cfg.getInt(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        String defCtx = cfg.get(HalyardBulkLoad.DEFAULT_CONTEXT_PROPERTY);
+        IRI defaultRdfContext = defCtx == null ? null : SimpleValueFactory.getInstance().createIRI(defCtx);
+        boolean overrideRdfContext = cfg.getBoolean(HalyardBulkLoad.OVERRIDE_CONTEXT_PROPERTY, false);
+        try (HTable hTable = HalyardTableUtils.getTable(cfg, args[1], true, cfg.getInt(HalyardBulkLoad.SPLIT_BITS_PROPERTY, 3), contextSplitsMap)) {
+            int indices = HalyardTableUtils.getIndices(hTable);
+            ExecutorService parsers = Executors.newFixedThreadPool(threads);
+            ExecutorService writers = Executors.newFixedThreadPool(Math.max(1, cfg.getInt(WRITER_THREADS_PROPERTY, DEFAULT_WRITER_THREADS)));
+            long startTime = System.currentTimeMillis();
+            AtomicLong counter = new AtomicLong();
+            try (Connection connection = ConnectionFactory.createConnection(cfg)) {
+                try (final BufferedMutator mutator = connection.getBufferedMutator(new BufferedMutatorParams(hTable.getName())
+                        .writeBufferSize(cfg.getLong(WRITE_BUFFER_PROPERTY, DEFAULT_WRITE_BUFFER))
+                        .pool(writers))) {
+                    HalyardLocalBulkLoad.KeyValueConsumer consumer = new HalyardLocalBulkLoad.KeyValueConsumer() {
+                        @Override
+                        public void add(List<KeyValue> keyValues) throws IOException {
+                            List<Put> puts = new ArrayList<>(keyValues.size());
+                            for (KeyValue kv : keyValues) {
+                                puts.add(new Put(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(), kv.getTimestamp()).add(kv));
+                            }
+                            mutator.mutate(puts);
+                        }
+                    };
+                    List<Future<Void>> parsed = new ArrayList<>();
+                    for (Path file : HalyardLocalBulkLoad.listRDFFiles(cfg, args[0])) {
+                        parsed.add(parsers.submit(new HalyardLocalBulkLoad.FileParser(cfg, file, Rio.getParserFormatForFileName(file.getName()).get(), consumer, defaultRdfContext, overrideRdfContext, indices, null, counter)));
+                    }
+                    long lastTime = startTime, lastCount = 0;
+                    for (Future<Void> f : parsed) {
+                        while (true) try {
+                            f.get(REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+                            break;
+                        } catch (TimeoutException e) {
+                            long time = System.currentTimeMillis(), count = counter.get();
+                            LOG.log(Level.INFO, "{0} statements loaded, actual throughput {1} statements/s", new Object[] {count, 1000l * (count - lastCount) / Math.max(1, time - lastTime)});
+                            lastTime = time;
+                            lastCount = count;
+                        } catch (ExecutionException e) {
+                            throw e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+                        }
+                    }
+                    mutator.flush();
+                }
+            } finally {
+                parsers.shutdownNow();
+                writers.shutdown();
+            }
+            HalyardTableUtils.markModified(hTable);
+            long time = Math.max(1, System.currentTimeMillis() - startTime);
+            LOG.log(Level.INFO, "Load Completed.. {0} statements loaded in {1} s, average throughput {2} statements/s", new Object[] {counter.get(), time / 1000, 1000l * counter.get() / time});
+            return 0;
+        }
+    }
+
+    @Override
+    public Configuration getConf() {
+        return this.conf;
+    }
+
+    @Override
+    public void setConf(final Configuration c) {
+        this.conf = c;
+    }
+
+    /**
+     * Main of the HalyardLoad
+     * @param args String command line arguments
+     * @throws Exception throws Exception in case of any problem
+     */
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new HalyardLoad(), args));
+    }
+}
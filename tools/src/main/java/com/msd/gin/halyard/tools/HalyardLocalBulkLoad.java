@@ -0,0 +1,547 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.tools;
+
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+
+/**
+ * Apache Hadoop Tool BulkLoading RDF into HBase within a single JVM, without MapReduce.
+ * RDF files are parsed in parallel, the KeyValues are routed to the target table regions and each region buffer is sorted in parallel
+ * and written as a temporary HFile run, when the memory limit is reached. The runs of each region are finally merged into a single HFile
+ * and all the HFiles are loaded into the table.
+ */
+public class HalyardLocalBulkLoad implements Tool {
+
+    /**
+     * Property defining number of parsing and HFile writing threads, defaults to the number of available processors
+     */
+    public static final String THREADS_PROPERTY = "halyard.localbulkload.threads";
+
+    /**
+     * Property defining number of KeyValues buffered in memory before they are sorted and written as HFile runs
+     */
+    public static final String RUN_SIZE_PROPERTY = "halyard.localbulkload.run.size";
+
+    private static final int DEFAULT_RUN_SIZE = 1000000;
+    private static final int BATCH_SIZE = 10000;
+    private static final Logger LOG = Logger.getLogger(HalyardLocalBulkLoad.class.getName());
+
+    private Configuration conf;
+
+    /**
+     * Consumer of the KeyValue batches produced by the {@link FileParser}s
+     */
+    interface KeyValueConsumer {
+
+        /**
+         * Consumes a batch of KeyValues, it is called concurrently by multiple parser threads
+         * @param keyValues List of KeyValues
+         * @throws IOException throws IOException in case of writing problems
+         * @throws InterruptedException throws InterruptedException when interrupted
+         */
+        void add(List<KeyValue> keyValues) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Collector of the KeyValues buffered per target region, full buffers are sorted and written as temporary HFile runs by the writer threads
+     * and the runs of each region are finally merged into a single HFile
+     */
+    static final class RegionRuns implements KeyValueConsumer {
+
+        private final Configuration conf;
+        private final FileSystem fs;
+        private final Path familyDir, runsDir;
+        private final HColumnDescriptor family;
+        private final byte[][] startKeys;
+        private final ExecutorService executor;
+        private final int maxPendingRuns, runSize;
+        private final Deque<Future<Void>> pendingRuns = new ArrayDeque<>();
+        private final List<List<Path>> runFiles;
+        private List<List<KeyValue>> buffers;
+        private int buffered = 0;
+
+        RegionRuns(Configuration conf, FileSystem fs, Path familyDir, HColumnDescriptor family, byte[][] startKeys, ExecutorService executor, int maxPendingRuns, int runSize) {
+            this.conf = conf;
+            this.fs = fs;
+            this.familyDir = familyDir;
+            //the runs are kept aside of the family directory, so only the merged HFiles are loaded
+            this.runsDir = new Path(familyDir.getParent(), "_runs");
+            this.family = family;
+            this.startKeys = startKeys;
+            this.executor = executor;
+            this.maxPendingRuns = maxPendingRuns;
+            this.runSize = runSize;
+            this.buffers = newBuffers();
+            this.runFiles = new ArrayList<>(startKeys.length);
+            for (int i = 0; i < startKeys.length; i++) {
+                runFiles.add(new ArrayList<Path>());
+            }
+        }
+
+        private List<List<KeyValue>> newBuffers() {
+            List<List<KeyValue>> b = new ArrayList<>(startKeys.length);
+            for (int i = 0; i < startKeys.length; i++) {
+                b.add(new ArrayList<KeyValue>());
+            }
+            return b;
+        }
+
+        /**
+         * Identifies the region holding the row
+         * @param startKeys sorted start keys of all the table regions, the first one is empty
+         * @param row row key
+         * @return int index of the region
+         */
+        static int getRegion(byte[][] startKeys, byte[] row) {
+            int i = Arrays.binarySearch(startKeys, row, Bytes.BYTES_COMPARATOR);
+            return i >= 0 ? i : Math.max(0, -i - 2);
+        }
+
+        /**
+         * Adds a batch of KeyValues and submits the HFile runs when the buffers are full, waits for the writers when too many runs are pending
+         * @param keyValues List of KeyValues
+         * @throws IOException throws IOException in case of HFile writing problems
+         * @throws InterruptedException throws InterruptedException when interrupted
+         */
+        @Override
+        public synchronized void add(List<KeyValue> keyValues) throws IOException, InterruptedException {
+            for (KeyValue kv : keyValues) {
+                buffers.get(getRegion(startKeys, CellUtil.cloneRow(kv))).add(kv);
+            }
+            buffered += keyValues.size();
+            if (buffered >= runSize) {
+                flush();
+                while (pendingRuns.size() > maxPendingRuns) {
+                    waitFor(pendingRuns.poll());
+                }
+            }
+        }
+
+        /**
+         * Submits all the buffered KeyValues as HFile runs
+         */
+        synchronized void flush() {
+            for (int i = 0; i < buffers.size(); i++) {
+                final List<KeyValue> run = buffers.get(i);
+                final int region = i;
+                if (!run.isEmpty()) {
+                    pendingRuns.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            writeRun(region, run);
+                            return null;
+                        }
+                    }));
+                }
+            }
+            buffers = newBuffers();
+            buffered = 0;
+        }
+
+        /**
+         * Flushes the buffers, waits for all the HFile runs to be written and merges the runs of each region into a single HFile
+         * @throws IOException throws IOException in case of HFile writing problems
+         * @throws InterruptedException throws InterruptedException when interrupted
+         */
+        synchronized void close() throws IOException, InterruptedException {
+            flush();
+            while (!pendingRuns.isEmpty()) {
+                waitFor(pendingRuns.poll());
+            }
+            fs.mkdirs(familyDir);
+            List<Future<Void>> merges = new ArrayList<>();
+            for (final List<Path> runs : runFiles) {
+                if (runs.size() == 1) {
+                    if (!fs.rename(runs.get(0), new Path(familyDir, runs.get(0).getName()))) {
+                        throw new IOException("Unable to move HFile " + runs.get(0) + " to " + familyDir);
+                    }
+                } else if (runs.size() > 1) {
+                    merges.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            mergeRuns(runs);
+                            return null;
+                        }
+                    }));
+                }
+            }
+            for (Future<Void> f : merges) {
+                waitFor(f);
+            }
+            fs.delete(runsDir, true);
+        }
+
+        private StoreFile.Writer createWriter(Path dir) throws IOException {
+            HFileContext context = new HFileContextBuilder()
+                    .withCompression(family.getCompressionType())
+                    .withDataBlockEncoding(family.getDataBlockEncoding())
+                    .withBlockSize(family.getBlocksize())
+                    .build();
+            return new StoreFile.WriterBuilder(conf, new CacheConfig(conf), fs)
+                    .withOutputDir(dir)
+                    .withBloomType(family.getBloomFilterType())
+                    .withComparator(KeyValue.COMPARATOR)
+                    .withFileContext(context)
+                    .build();
+        }
+
+        private static void appendBulkLoadInfo(StoreFile.Writer writer) throws IOException {
+            writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(System.currentTimeMillis()));
+            writer.appendFileInfo(StoreFile.BULKLOAD_TASK_KEY, Bytes.toBytes(HalyardLocalBulkLoad.class.getSimpleName()));
+            writer.appendFileInfo(StoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(false));
+            writer.appendTrackedTimestampsToMetadata();
+        }
+
+        private void writeRun(int region, List<KeyValue> run) throws IOException {
+            Collections.sort(run, KeyValue.COMPARATOR);
+            StoreFile.Writer writer = createWriter(new Path(runsDir, String.valueOf(region)));
+            try {
+                KeyValue last = null;
+                for (KeyValue kv : run) {
+                    //duplicate statements of the run are written only once
+                    if (last == null || KeyValue.COMPARATOR.compare(last, kv) != 0) {
+                        writer.append(kv);
+                        last = kv;
+                    }
+                }
+                appendBulkLoadInfo(writer);
+            } finally {
+                writer.close();
+            }
+            synchronized (runFiles) {
+                runFiles.get(region).add(writer.getPath());
+            }
+        }
+
+        /**
+         * K-way merge of the sorted HFile runs of a single region into one HFile
+         * @param runs List of the run Paths, the runs are deleted after the merge
+         * @throws IOException throws IOException in case of HFile reading or writing problems
+         */
+        private void mergeRuns(List<Path> runs) throws IOException {
+            CacheConfig cacheConf = new CacheConfig(conf);
+            List<HFile.Reader> readers = new ArrayList<>(runs.size());
+            PriorityQueue<RunScanner> heap = new PriorityQueue<>(runs.size());
+            try {
+                for (Path run : runs) {
+                    HFile.Reader reader = HFile.createReader(fs, run, cacheConf, conf);
+                    readers.add(reader);
+                    reader.loadFileInfo();
+                    HFileScanner scanner = reader.getScanner(false, false);
+                    if (scanner.seekTo()) {
+                        heap.add(new RunScanner(scanner));
+                    }
+                }
+                StoreFile.Writer writer = createWriter(familyDir);
+                try {
+                    KeyValue last = null;
+                    while (!heap.isEmpty()) {
+                        RunScanner rs = heap.poll();
+                        //duplicate statements of different runs are written only once
+                        if (last == null || KeyValue.COMPARATOR.compare(last, rs.current) != 0) {
+                            writer.append(rs.current);
+                            last = rs.current;
+                        }
+                        if (rs.next()) {
+                            heap.add(rs);
+                        }
+                    }
+                    appendBulkLoadInfo(writer);
+                } finally {
+                    writer.close();
+                }
+            } finally {
+                for (HFile.Reader reader : readers) {
+                    reader.close();
+                }
+            }
+            for (Path run : runs) {
+                fs.delete(run, false);
+            }
+        }
+
+        static void waitFor(Future<?> future) throws IOException, InterruptedException {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Scanner of a single sorted HFile run ordered by its current KeyValue
+     */
+    private static final class RunScanner implements Comparable<RunScanner> {
+
+        private final HFileScanner scanner;
+        private KeyValue current;
+
+        RunScanner(HFileScanner scanner) {
+            this.scanner = scanner;
+            this.current = KeyValueUtil.copyToNewKeyValue(scanner.getKeyValue());
+        }
+
+        boolean next() throws IOException {
+            if (scanner.next()) {
+                current = KeyValueUtil.copyToNewKeyValue(scanner.getKeyValue());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int compareTo(RunScanner o) {
+            return KeyValue.COMPARATOR.compare(current, o.current);
+        }
+    }
+
+    /**
+     * Parser of a single RDF file into batches of KeyValues
+     */
+    static final class FileParser extends AbstractRDFHandler implements Callable<Void> {
+
+        private final Configuration conf;
+        private final Path file;
+        private final RDFFormat format;
+        private final KeyValueConsumer consumer;
+        private final IRI defaultRdfContext;
+        private final boolean overrideRdfContext;
+        private final int indices;
+        private final byte[] timestamp;
+        private final AtomicLong counter;
+        private List<KeyValue> batch = new ArrayList<>(BATCH_SIZE);
+
+        /**
+         * Constructs FileParser
+         * @param conf Configuration
+         * @param file Path of the RDF file
+         * @param format RDFFormat of the file
+         * @param consumer KeyValueConsumer of the produced KeyValues
+         * @param defaultRdfContext optional default context
+         * @param overrideRdfContext boolean switch overriding the contexts of the parsed statements by the default context
+         * @param indices int bit mask of the indices to build
+         * @param timestamp optional timestamp of the KeyValues, server side timestamps are used when null
+         * @param counter AtomicLong counter of the parsed statements
+         */
+        FileParser(Configuration conf, Path file, RDFFormat format, KeyValueConsumer consumer, IRI defaultRdfContext, boolean overrideRdfContext, int indices, byte[] timestamp, AtomicLong counter) {
+            this.conf = conf;
+            this.file = file;
+            this.format = format;
+            this.consumer = consumer;
+            this.defaultRdfContext = defaultRdfContext;
+            this.overrideRdfContext = overrideRdfContext;
+            this.indices = indices;
+            this.timestamp = timestamp;
+            this.counter = counter;
+        }
+
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            LOG.log(Level.INFO, "Parsing {0}", file);
+            boolean skipInvalid = conf.getBoolean(HalyardBulkLoad.SKIP_INVALID_PROPERTY, false);
+            FileSystem fs = file.getFileSystem(conf);
+            CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+            try (InputStream in = codec == null ? fs.open(file) : codec.createInputStream(fs.open(file), CodecPool.getDecompressor(codec))) {
+                RDFParser parser = Rio.createParser(format);
+                parser.setRDFHandler(this);
+                parser.setStopAtFirstError(!skipInvalid);
+                parser.parse(in, file.toString());
+            } catch (Exception e) {
+                if (!skipInvalid) {
+                    throw new IOException("Exception while parsing: " + file, e);
+                }
+                LOG.log(Level.WARNING, "Exception while parsing: " + file, e);
+            }
+            flush();
+            return null;
+        }
+
+        @Override
+        public void handleStatement(Statement st) throws RDFHandlerException {
+            Resource rdfContext;
+            if (overrideRdfContext || (rdfContext = st.getContext()) == null) {
+                rdfContext = defaultRdfContext;
+            }
+            for (KeyValue kv : HalyardTableUtils.toKeyValues(st.getSubject(), st.getPredicate(), st.getObject(), rdfContext, indices)) {
+                if (timestamp != null) {
+                    kv.updateLatestStamp(timestamp);
+                }
+                batch.add(kv);
+            }
+            if (batch.size() >= BATCH_SIZE) try {
+                flush();
+            } catch (IOException | InterruptedException e) {
+                throw new RDFHandlerException(e);
+            }
+            if (counter.incrementAndGet() % 1000000l == 0) {
+                LOG.log(Level.INFO, "{0} statements parsed", counter.get());
+            }
+        }
+
+        private void flush() throws IOException, InterruptedException {
+            if (!batch.isEmpty()) {
+                consumer.add(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Recursively lists all the files of the supported RDF formats
+     * @param conf Configuration
+     * @param inputs String comma separated input paths
+     * @return List of the RDF file Paths
+     * @throws IOException throws IOException in case of file system problems
+     */
+    static List<Path> listRDFFiles(Configuration conf, String inputs) throws IOException {
+        List<Path> rdfFiles = new ArrayList<>();
+        for (String input : inputs.split(",")) {
+            Path path = new Path(input);
+            RemoteIterator<LocatedFileStatus> files = path.getFileSystem(conf).listFiles(path, true);
+            while (files.hasNext()) {
+                Path file = files.next().getPath();
+                if (Rio.getParserFormatForFileName(file.getName()).isPresent()) {
+                    rdfFiles.add(file);
+                }
+            }
+        }
+        return rdfFiles;
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Usage: localbulkload [-D" + HalyardBulkLoad.SKIP_INVALID_PROPERTY + "=true] [-D" + HalyardBulkLoad.SPLIT_BITS_PROPERTY + "=8] [-D" + HalyardBulkLoad.DEFAULT_CONTEXT_PROPERTY + "=http://new_context] [-D" + HalyardBulkLoad.OVERRIDE_CONTEXT_PROPERTY + "=true] [-D" + THREADS_PROPERTY + "=8] [-D" + RUN_SIZE_PROPERTY + "=1000000] [-D" + HalyardTableUtils.INDICES_PROPERTY + "=SPO,POS,OSP,CSPO] <input_path(s)> <output_path> <table_name>");
+            return -1;
+        }
+        HBaseConfiguration.addHbaseResources(getConf());
+        Map<String, Integer> contextSplitsMap = new HashMap<>();
+        for (Map.Entry<String, String> me : getConf().getValByRegex(HalyardBulkLoad.CONTEXT_SPLIT_REGEXP).entrySet()) {
+            int splits = Integer.parseInt(me.getKey().substring(me.getKey().lastIndexOf('.') + 1));
+            StringTokenizer stk = new StringTokenizer(me.getValue(), ",");
+            while (stk.hasMoreTokens()) {
+                contextSplitsMap.put(stk.nextToken(), splits);
+            }
+        }
+        int threads = Math.max(1, getConf().getInt(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        String defCtx = getConf().get(HalyardBulkLoad.DEFAULT_CONTEXT_PROPERTY);
+        IRI defaultRdfContext = defCtx == null ? null : SimpleValueFactory.getInstance().createIRI(defCtx);
+        boolean overrideRdfContext = getConf().getBoolean(HalyardBulkLoad.OVERRIDE_CONTEXT_PROPERTY, false);
+        try (HTable hTable = HalyardTableUtils.getTable(getConf(), args[2], true, getConf().getInt(HalyardBulkLoad.SPLIT_BITS_PROPERTY, 3), contextSplitsMap)) {
+            int indices = HalyardTableUtils.getIndices(hTable);
+            HColumnDescriptor family = hTable.getTableDescriptor().getFamilies().iterator().next();
+            Path output = new Path(args[1]);
+            FileSystem outFs = output.getFileSystem(getConf());
+            ExecutorService parsers = Executors.newFixedThreadPool(threads);
+            ExecutorService writers = Executors.newFixedThreadPool(threads);
+            try {
+                RegionRuns runs = new RegionRuns(getConf(), outFs, new Path(output, family.getNameAsString()), family, hTable.getRegionLocator().getStartKeys(), writers, threads, getConf().getInt(RUN_SIZE_PROPERTY, DEFAULT_RUN_SIZE));
+                byte[] timestamp = Bytes.toBytes(System.currentTimeMillis());
+                AtomicLong counter = new AtomicLong();
+                List<Future<Void>> parsed = new ArrayList<>();
+                for (Path file : listRDFFiles(getConf(), args[0])) {
+                    parsed.add(parsers.submit(new FileParser(getConf(), file, Rio.getParserFormatForFileName(file.getName()).get(), runs, defaultRdfContext, overrideRdfContext, indices, timestamp, counter)));
+                }
+                for (Future<Void> f : parsed) {
+                    RegionRuns.waitFor(f);
+                }
+                runs.close();
+                LOG.log(Level.INFO, "{0} statements parsed and written into HFiles", counter.get());
+            } finally {
+                parsers.shutdownNow();
+                writers.shutdownNow();
+            }
+            new LoadIncrementalHFiles(getConf()).doBulkLoad(output, hTable);
+            HalyardTableUtils.markModified(hTable);
+            LOG.info("Local Bulk Load Completed..");
+            return 0;
+        }
+    }
+
+    @Override
+    public Configuration getConf() {
+        return this.conf;
+    }
+
+    @Override
+    public void setConf(final Configuration c) {
+        this.conf = c;
+    }
+
+    /**
+     * Main of the HalyardLocalBulkLoad
+     * @param args String command line arguments
+     * @throws Exception throws Exception in case of any problem
+     */
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new HalyardLocalBulkLoad(), args));
+    }
+}
@@ -16,6 +16,8 @@
  */
 package com.msd.gin.halyard.tools;
 
+import com.msd.gin.halyard.common.HalyardTableUtils;
+import com.msd.gin.halyard.strategy.KeyRangeFunction;
 import com.msd.gin.halyard.tools.HalyardExport.ExportException;
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -39,9 +41,12 @@ import org.apache.commons.codec.binary.Base64;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
 import org.apache.hadoop.hbase.protobuf.generated.AuthenticationProtos;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.InputFormat;
@@ -57,9 +62,6 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.htrace.Trace;
 import org.eclipse.rdf4j.model.Value;
-import org.eclipse.rdf4j.model.ValueFactory;
-import org.eclipse.rdf4j.query.algebra.evaluation.ValueExprEvaluationException;
-import org.eclipse.rdf4j.query.algebra.evaluation.function.Function;
 import org.eclipse.rdf4j.query.algebra.evaluation.function.FunctionRegistry;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFParser;
@@ -95,24 +97,42 @@ public class HalyardParallelExport implements Tool {
 
     private Configuration conf;
 
+    /**
+     * InputSplit of a range of the hash keys of the Statement component leading the order of the scanned index
+     */
     static class IndexedInputSplit extends InputSplit implements Writable {
 
-        public int index, size;
+        private int index;
+        private byte[] startKey, stopKey;
+        private String[] locations;
 
         public IndexedInputSplit() {
         }
 
-        public IndexedInputSplit(int index, int size) {
+        /**
+         * Constructs IndexedInputSplit
+         * @param index int index of the split
+         * @param startKey inclusive lower bound of the hash key, empty for unbounded
+         * @param stopKey exclusive upper bound of the hash key, empty for unbounded
+         * @param locations host names of the region servers serving the range
+         */
+        public IndexedInputSplit(int index, byte[] startKey, byte[] stopKey, String... locations) {
             this.index = index;
-            this.size = size;
+            this.startKey = startKey;
+            this.stopKey = stopKey;
+            this.locations = locations;
         }
 
         public int getIndex() {
             return index;
         }
 
-        public int getSize() {
-            return size;
+        public byte[] getStartKey() {
+            return startKey;
+        }
+
+        public byte[] getStopKey() {
+            return stopKey;
         }
 
         @Override
@@ -122,19 +142,22 @@ public class HalyardParallelExport implements Tool {
 
         @Override
         public String[] getLocations() throws IOException, InterruptedException {
-            return new String[0];
+            return locations == null ? new String[0] : locations;
         }
 
         @Override
         public void write(DataOutput out) throws IOException {
+            //locations are used only for the scheduling, so they are not serialized
             out.writeInt(index);
-            out.writeInt(size);
+            Bytes.writeByteArray(out, startKey);
+            Bytes.writeByteArray(out, stopKey);
         }
 
         @Override
         public void readFields(DataInput in) throws IOException {
             index = in.readInt();
-            size = in.readInt();
+            startKey = Bytes.readByteArray(in);
+            stopKey = Bytes.readByteArray(in);
         }
 
     }
@@ -144,15 +167,12 @@ public class HalyardParallelExport implements Tool {
         @Override
         public void run(final Context context) throws IOException, InterruptedException {
             final IndexedInputSplit iis = (IndexedInputSplit)context.getInputSplit();
-            FunctionRegistry.getInstance().add(new Function() {
+            //the function accepts the hash keys within the split range, so HBaseSail restricts the scans of the split variable to the same range
+            FunctionRegistry.getInstance().add(new KeyRangeFunction(PARALLEL_SPLIT_FUNCTION_URI, iis.startKey, iis.stopKey.length == 0 ? null : iis.stopKey) {
                 @Override
-                public String getURI() {
-                    return PARALLEL_SPLIT_FUNCTION_URI;
-                }
-
-                @Override
-                public Value evaluate(ValueFactory valueFactory, Value... args) throws ValueExprEvaluationException {
-                    return valueFactory.createLiteral(Arrays.hashCode(args) % iis.size == iis.index);
+                protected byte[] getKey(Value... args) {
+                    //all the arguments are hashed, only a single argument hash key matches the index keys
+                    return HalyardTableUtils.hashKey(args);
                 }
             });
             try {
@@ -189,18 +209,72 @@ public class HalyardParallelExport implements Tool {
         }
     }
 
+    /**
+     * InputFormat splitting the hash key space at the boundaries of the SPO index regions, so each mapper reads the subjects of a single region server.
+     * The locality applies only when the split variable leads the SPO index, the ranges of the POS and OSP indices are served by other region servers.
+     * Each region is further split evenly when the requested number of maps exceeds the number of the regions.
+     */
     static class IndexedInputFormat extends InputFormat<NullWritable, Void> {
 
+        private static final int HASH_KEY_LENGTH = 20;
+
         @Override
         public List<InputSplit> getSplits(JobContext context) throws IOException, InterruptedException {
-            int maps = context.getConfiguration().getInt(MRJobConfig.NUM_MAPS, 1);
-            ArrayList<InputSplit> splits = new ArrayList<>(maps);
-            for (int i = 0; i < maps; i++) {
-                splits.add(new IndexedInputSplit(i, maps));
+            Configuration cfg = context.getConfiguration();
+            try (HTable table = HalyardTableUtils.getTable(cfg, cfg.get(SOURCE), false, 0, null)) {
+                return getSplits(table.getRegionLocator().getAllRegionLocations(), cfg.getInt(MRJobConfig.NUM_MAPS, 1));
+            }
+        }
+
+        static List<InputSplit> getSplits(List<HRegionLocation> regions, int maps) {
+            List<byte[]> bounds = new ArrayList<>();
+            List<String> hosts = new ArrayList<>();
+            byte[] indexStart = new byte[] {HalyardTableUtils.SPO_PREFIX};
+            byte[] indexStop = new byte[] {HalyardTableUtils.SPO_PREFIX + 1};
+            for (HRegionLocation region : regions) {
+                byte[] start = region.getRegionInfo().getStartKey();
+                byte[] end = region.getRegionInfo().getEndKey();
+                if ((start.length == 0 || Bytes.compareTo(start, indexStop) < 0) && (end.length == 0 || Bytes.compareTo(end, indexStart) > 0)) {
+                    //the bounds are cut to the subject hash, so the statements of a subject split by a region boundary stay in one split
+                    byte[] bound = bounds.isEmpty() || start.length < 2 ? new byte[0] : Arrays.copyOfRange(start, 1, Math.min(start.length, HASH_KEY_LENGTH + 1));
+                    if (bounds.isEmpty() || !Bytes.equals(bound, bounds.get(bounds.size() - 1))) {
+                        bounds.add(bound);
+                        hosts.add(region.getHostname());
+                    }
+                }
+            }
+            if (bounds.isEmpty()) {
+                bounds.add(new byte[0]);
+                hosts.add(null);
+            }
+            bounds.add(new byte[0]);
+            int parts = (Math.max(1, maps) + hosts.size() - 1) / hosts.size();
+            List<InputSplit> splits = new ArrayList<>();
+            for (int i = 0; i < hosts.size(); i++) {
+                byte[] start = bounds.get(i);
+                byte[] stop = bounds.get(i + 1);
+                String[] locations = hosts.get(i) == null ? new String[0] : new String[] {hosts.get(i)};
+                byte[] low = pad(start, (byte)0);
+                byte[] high = stop.length == 0 ? pad(stop, (byte)0xff) : pad(stop, (byte)0);
+                //too narrow ranges are not split and Bytes.split returns null when the range is smaller than the number of parts
+                byte[][] keys = parts > 1 && Bytes.compareTo(low, high) < 0 ? Bytes.split(low, high, parts - 1) : null;
+                if (keys != null) {
+                    for (int k = 1; k < keys.length - 1; k++) {
+                        splits.add(new IndexedInputSplit(splits.size(), start, keys[k], locations));
+                        start = keys[k];
+                    }
+                }
+                splits.add(new IndexedInputSplit(splits.size(), start, stop, locations));
             }
             return splits;
         }
 
+        private static byte[] pad(byte[] key, byte filler) {
+            byte[] padded = Arrays.copyOf(key, HASH_KEY_LENGTH);
+            Arrays.fill(padded, Math.min(key.length, padded.length), padded.length, filler);
+            return padded;
+        }
+
         @Override
         public RecordReader<NullWritable, Void> createRecordReader(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
             return new RecordReader<NullWritable, Void>() {
@@ -312,7 +386,8 @@ public class HalyardParallelExport implements Tool {
                    HTable.class,
                    HBaseConfiguration.class,
                    AuthenticationProtos.class,
-                   Trace.class);
+                   Trace.class,
+                   OrcFile.class);
             HBaseConfiguration.addHbaseResources(getConf());
             Job job = Job.getInstance(getConf(), "HalyardParallelExport " + source + " -> " + target);
             String cp = cmd.getOptionValue('l');
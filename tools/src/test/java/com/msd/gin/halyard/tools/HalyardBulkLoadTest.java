@@ -17,14 +17,19 @@
 package com.msd.gin.halyard.tools;
 
 import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.common.HalyardTableUtils;
 import com.msd.gin.halyard.sail.HBaseSail;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.util.zip.GZIPOutputStream;
 import org.apache.hadoop.util.ToolRunner;
+import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.QueryLanguage;
 import org.eclipse.rdf4j.query.TupleQuery;
 import org.eclipse.rdf4j.query.TupleQueryResult;
@@ -70,7 +75,7 @@ public class HalyardBulkLoadTest {
         }
         File htableDir = File.createTempFile("test_htable", "");
         htableDir.delete();
-        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardBulkLoad(), new String[]{"-Dhalyard.table.splitbits=-1", "-Dhalyard.parser.skipinvalid=true", root.toURI().toURL().toString(), htableDir.toURI().toURL().toString(), "bulkLoadTable"}));
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardBulkLoad(), new String[]{"-Dhalyard.table.splitbits=-1", "-Dhalyard.parser.skipinvalid=true", "-Dhalyard.bulkload.mapper.threads=4", root.toURI().toURL().toString(), htableDir.toURI().toURL().toString(), "bulkLoadTable"}));
 
         HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "bulkLoadTable", false, 0, true, 0, null);
         SailRepository rep = new SailRepository(sail);
@@ -85,6 +90,76 @@ public class HalyardBulkLoadTest {
         rep.shutDown();
     }
 
+    @Test
+    public void testSplitBulkLoad() throws Exception {
+        File root = File.createTempFile("test_split_triples", "");
+        root.delete();
+        root.mkdirs();
+        try (PrintStream ps = new PrintStream(new File(root, "test_split_triples.nq"))) {
+            for (int i = 0; i < 1000; i++) {
+                ps.println("<http://whatever/subj" + i + "> <http://whatever/pred> _:node" + (i % 10) + " <http://whatever/graph" + (i % 3) + "> .");
+            }
+        }
+        File htableDir = File.createTempFile("test_htable", "");
+        htableDir.delete();
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardBulkLoad(), new String[]{"-Dhalyard.table.splitbits=-1", "-Dmapreduce.input.fileinputformat.split.maxsize=10000", root.toURI().toURL().toString(), htableDir.toURI().toURL().toString(), "bulkLoadSplitTable"}));
+
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "bulkLoadSplitTable", false, 0, true, 0, null);
+        SailRepository rep = new SailRepository(sail);
+        rep.initialize();
+        TupleQuery q = rep.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, "select (count(*) as ?c) (count(distinct ?o) as ?n) where {graph ?g {?s ?p ?o}}");
+        TupleQueryResult res = q.evaluate();
+        assertTrue(res.hasNext());
+        BindingSet bs = res.next();
+        assertEquals(1000, ((Literal)bs.getValue("c")).intValue());
+        //the same blank node labels from different splits are the same nodes
+        assertEquals(10, ((Literal)bs.getValue("n")).intValue());
+        rep.shutDown();
+    }
+
+    @Test
+    public void testBlankNodesScopedToFile() throws Exception {
+        File root = File.createTempFile("test_bnode_triples", "");
+        root.delete();
+        root.mkdirs();
+        for (String name : new String[] {"test_bnode_triples_a.nt", "test_bnode_triples_b.nt"}) {
+            try (PrintStream ps = new PrintStream(new File(root, name))) {
+                ps.println("_:b0 <http://whatever/pred> \"" + name + "\" .");
+            }
+        }
+        File htableDir = File.createTempFile("test_htable", "");
+        htableDir.delete();
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardBulkLoad(), new String[]{"-Dhalyard.table.splitbits=-1", root.toURI().toURL().toString(), htableDir.toURI().toURL().toString(), "bulkLoadBNodeTable"}));
+
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "bulkLoadBNodeTable", false, 0, true, 0, null);
+        SailRepository rep = new SailRepository(sail);
+        rep.initialize();
+        TupleQuery q = rep.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, "select (count(*) as ?c) (count(distinct ?s) as ?n) where {?s ?p ?o}");
+        TupleQueryResult res = q.evaluate();
+        assertTrue(res.hasNext());
+        BindingSet bs = res.next();
+        assertEquals(2, ((Literal)bs.getValue("c")).intValue());
+        //the same blank node labels from different files are different nodes
+        assertEquals(2, ((Literal)bs.getValue("n")).intValue());
+        rep.shutDown();
+    }
+
+    @Test
+    public void testRecentStatements() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        HalyardBulkLoad.RecentStatements recent = new HalyardBulkLoad.RecentStatements(2);
+        IRI subj = vf.createIRI("http://whatever/subj");
+        IRI pred = vf.createIRI("http://whatever/pred");
+        IRI ctx = vf.createIRI("http://whatever/ctx");
+        assertTrue(recent.add(HalyardTableUtils.toKeyValues(subj, pred, vf.createLiteral(1), null)));
+        assertFalse(recent.add(HalyardTableUtils.toKeyValues(subj, pred, vf.createLiteral(1), null)));
+        assertTrue(recent.add(HalyardTableUtils.toKeyValues(subj, pred, vf.createLiteral(1), ctx)));
+        assertFalse(recent.add(HalyardTableUtils.toKeyValues(subj, pred, vf.createLiteral(1), ctx)));
+        assertTrue(recent.add(HalyardTableUtils.toKeyValues(subj, pred, vf.createLiteral(2), null)));
+        //the least recently used statement is forgotten
+        assertTrue(recent.add(HalyardTableUtils.toKeyValues(subj, pred, vf.createLiteral(1), null)));
+    }
+
     @Test
     public void testRunNoArgs() throws Exception {
         assertEquals(-1, new HalyardBulkLoad().run(new String[0]));
@@ -26,6 +26,13 @@ import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
 import org.eclipse.rdf4j.sail.SailException;
 import org.junit.Assert;
 import static org.junit.Assert.*;
@@ -80,6 +87,179 @@ public class HalyardBulkUpdateTest {
         }
     }
 
+    @Test
+    public void testBulkUpdateCheckBeforeWrite() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setBoolean("halyard.check.before.write", true);
+        HBaseSail sail = new HBaseSail(conf, TABLE + "check", true, -1, true, 0, null);
+        sail.initialize();
+        for (int i=0; i<5; i++) {
+            for (int j=0; j<5; j++) {
+                sail.addStatement(vf.createIRI("http://whatever/subj" + i), vf.createIRI("http://whatever/pred"), vf.createIRI("http://whatever/obj" + j));
+            }
+        }
+        sail.addStatement(vf.createIRI("http://whatever/obj0"), vf.createIRI("http://whatever/reverse"), vf.createIRI("http://whatever/subj0"));
+        sail.commit();
+        sail.shutDown();
+
+        File queries = File.createTempFile("test_update_queries", ".sparql");
+        try (PrintStream qs = new PrintStream(queries)) {
+            qs.println("construct {?o <http://whatever/reverse> ?s. ?s <http://whatever/pred> ?o} where {?s <http://whatever/pred> ?o}");
+        }
+        File htableDir = File.createTempFile("test_htable", "");
+        htableDir.delete();
+
+        assertEquals(0, ToolRunner.run(conf, new HalyardBulkUpdate(), new String[]{ queries.toURI().toURL().toString(), htableDir.toURI().toURL().toString(), TABLE + "check"}));
+
+        sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), TABLE + "check", false, 0, true, 0, null);
+        sail.initialize();
+        try {
+            int count;
+            try (CloseableIteration<? extends Statement, SailException> iter = sail.getStatements(null, null, null, true)) {
+                count = 0;
+                while (iter.hasNext()) {
+                    iter.next();
+                    count++;
+                }
+            }
+            Assert.assertEquals(50, count);
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void testBulkUpdateSplit() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HalyardBulkUpdate.SPLITS_PROPERTY, 3);
+        HBaseSail sail = new HBaseSail(conf, TABLE + "split", true, -1, true, 0, null);
+        sail.initialize();
+        for (int i=0; i<10; i++) {
+            for (int j=0; j<5; j++) {
+                sail.addStatement(vf.createIRI("http://whatever/subj" + i), vf.createIRI("http://whatever/pred"), vf.createIRI("http://whatever/obj" + j));
+            }
+        }
+        sail.commit();
+        sail.shutDown();
+
+        File queries = File.createTempFile("test_update_queries", ".sparql");
+        try (PrintStream qs = new PrintStream(queries)) {
+            qs.println("construct {?o <http://whatever/reverse> ?s} where {?s <http://whatever/pred> ?o}");
+        }
+        File htableDir = File.createTempFile("test_htable", "");
+        htableDir.delete();
+
+        assertEquals(0, ToolRunner.run(conf, new HalyardBulkUpdate(), new String[]{ queries.toURI().toURL().toString(), htableDir.toURI().toURL().toString(), TABLE + "split"}));
+
+        sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), TABLE + "split", false, 0, true, 0, null);
+        sail.initialize();
+        try {
+            int count;
+            try (CloseableIteration<? extends Statement, SailException> iter = sail.getStatements(null, SimpleValueFactory.getInstance().createIRI("http://whatever/reverse"), null, true)) {
+                count = 0;
+                while (iter.hasNext()) {
+                    iter.next();
+                    count++;
+                }
+            }
+            Assert.assertEquals(50, count);
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void testBulkUpdateSplitPropertyPath() throws Exception {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Configuration conf = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        conf.setInt(HalyardBulkUpdate.SPLITS_PROPERTY, 3);
+        HBaseSail sail = new HBaseSail(conf, TABLE + "splitpath", true, -1, true, 0, null);
+        sail.initialize();
+        for (int i=0; i<9; i++) {
+            sail.addStatement(vf.createIRI("http://whatever/subj" + i), vf.createIRI("http://whatever/next"), vf.createIRI("http://whatever/subj" + (i + 1)));
+        }
+        sail.commit();
+        sail.shutDown();
+
+        File queries = File.createTempFile("test_update_queries", ".sparql");
+        try (PrintStream qs = new PrintStream(queries)) {
+            qs.println("construct {?s <http://whatever/reach> ?o} where {?s <http://whatever/next>+ ?o}");
+        }
+        File htableDir = File.createTempFile("test_htable", "");
+        htableDir.delete();
+
+        assertEquals(0, ToolRunner.run(conf, new HalyardBulkUpdate(), new String[]{ queries.toURI().toURL().toString(), htableDir.toURI().toURL().toString(), TABLE + "splitpath"}));
+
+        sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), TABLE + "splitpath", false, 0, true, 0, null);
+        sail.initialize();
+        try {
+            int count;
+            try (CloseableIteration<? extends Statement, SailException> iter = sail.getStatements(null, SimpleValueFactory.getInstance().createIRI("http://whatever/reach"), null, true)) {
+                count = 0;
+                while (iter.hasNext()) {
+                    iter.next();
+                    count++;
+                }
+            }
+            //all transitive links of the chain, including those crossing the slices
+            Assert.assertEquals(45, count);
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void testSplitQuery() throws Exception {
+        TupleExpr expr = QueryParserUtil.parseGraphQuery(QueryLanguage.SPARQL, "construct {?s ?p ?o} where {optional {?x <http://whatever/a> ?s} ?s ?p ?o}", null).getTupleExpr();
+        assertTrue(HalyardBulkUpdate.splitQuery(expr, null, 1, 3));
+        assertTrue(expr.toString().contains(HalyardBulkUpdate.DECIMATE_FUNCTION_URI));
+        expr = QueryParserUtil.parseGraphQuery(QueryLanguage.SPARQL, "construct {?s ?p ?o} where {?s ?p ?o}", null).getTupleExpr();
+        assertFalse(HalyardBulkUpdate.splitQuery(expr, "x", 1, 3));
+        assertTrue(HalyardBulkUpdate.splitQuery(expr, "o", 1, 3));
+        expr = QueryParserUtil.parseGraphQuery(QueryLanguage.SPARQL, "construct {?s ?p ?o} where {{?s ?p ?o} union {?o ?p ?s}}", null).getTupleExpr();
+        assertFalse(HalyardBulkUpdate.splitQuery(expr, null, 1, 3));
+    }
+
+    private static TupleExpr parse(String query) {
+        return QueryParserUtil.parseGraphQuery(QueryLanguage.SPARQL, query, null).getTupleExpr();
+    }
+
+    @Test
+    public void testSplitQueryWithAggregates() throws Exception {
+        assertFalse(HalyardBulkUpdate.splitQuery(parse("construct {?s <http://whatever/count> ?c} where {select ?s (count(*) as ?c) where {?s ?p ?o} group by ?s}"), null, 1, 3));
+        assertFalse(HalyardBulkUpdate.splitQuery(parse("construct {?s <http://whatever/count> ?c} where {{select (count(*) as ?c) where {?s ?p ?o}} ?s <http://whatever/a> ?x}"), null, 1, 3));
+        assertFalse(HalyardBulkUpdate.splitQuery(parse("construct {?s ?p ?o} where {{select ?s where {?s ?p ?o} order by ?o limit 10} ?s ?p ?o}"), null, 1, 3));
+        assertFalse(HalyardBulkUpdate.splitQuery(parse("construct {?s ?p ?o} where {{select distinct ?s where {?s <http://whatever/a> ?x}} ?s ?p ?o}"), null, 1, 3));
+    }
+
+    @Test
+    public void testSplitQueryWithPropertyPaths() throws Exception {
+        assertFalse(HalyardBulkUpdate.splitQuery(parse("construct {?s <http://whatever/reach> ?o} where {?s <http://whatever/next>+ ?o}"), null, 1, 3));
+        assertFalse(HalyardBulkUpdate.splitQuery(parse("construct {?s <http://whatever/reach> ?o} where {?s <http://whatever/next>* ?o}"), null, 1, 3));
+    }
+
+    @Test
+    public void testSplitQueryWithExists() throws Exception {
+        //the pattern of the filtered argument is split instead of the pattern of the not exists condition
+        TupleExpr expr = parse("construct {?s ?p ?o} where {filter not exists {?s <http://whatever/a> ?x} ?s ?p ?o}");
+        assertTrue(HalyardBulkUpdate.splitQuery(expr, null, 1, 3));
+        final StatementPattern split[] = new StatementPattern[1];
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(FunctionCall node) {
+                if (HalyardBulkUpdate.DECIMATE_FUNCTION_URI.equals(node.getURI())) {
+                    split[0] = (StatementPattern)((Filter)node.getParentNode()).getArg();
+                }
+            }
+        });
+        assertNotNull(split[0]);
+        assertFalse(split[0].getPredicateVar().hasValue());
+        //the split variable bound only inside the exists condition
+        assertFalse(HalyardBulkUpdate.splitQuery(parse("construct {?x ?p ?o} where {?x ?p ?o filter exists {?s <http://whatever/a> ?x}}"), "s", 1, 3));
+    }
+
     @Test
     public void testRunNoArgs() throws Exception {
         assertEquals(-1, new HalyardBulkUpdate().run(new String[0]));
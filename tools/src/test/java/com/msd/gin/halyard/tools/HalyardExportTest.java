@@ -34,8 +34,12 @@ import org.junit.BeforeClass;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
 import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.apache.hadoop.hive.ql.io.orc.Reader;
 import org.eclipse.rdf4j.model.Statement;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
@@ -135,6 +139,27 @@ public class HalyardExportTest {
         assertEquals(1001, getLinesCount(ROOT + name.getMethodName() +".csv.bz2", CompressorStreamFactory.BZIP2));
     }
 
+    @Test
+    public void testExport_CSV_Deflate() throws Exception {
+        String uri = ROOT + name.getMethodName() +".csv.deflate";
+        HalyardExport.main(new String[] {"-s", TABLE, "-q", TUPLE_QUERY, "-t", uri});
+        Configuration conf = HBaseServerTestInstance.getInstanceConfig();
+        InputStream in = new CompressionCodecFactory(conf).getCodec(new Path(uri)).createInputStream(FileSystem.get(URI.create(uri), conf).open(new Path(uri)));
+        try {
+            BufferedReader br = new BufferedReader(new InputStreamReader(in));
+            assertEquals("s,p,o", br.readLine());
+            int i = 0;
+            String line;
+            while ((line = br.readLine()) != null) {
+                assertTrue(line, line.matches("http://whatever/subj\\d,http://whatever/pred\\d,\"whatever\\\\n\"\"\\\\\\\\\\d\""));
+                i++;
+            }
+            assertEquals(1000, i);
+        } finally {
+            in.close();
+        }
+    }
+
     @Test
     public void testExport_JSONLD() throws Exception {
         HalyardExport.main(new String[] {"-s", TABLE, "-q", GRAPH_QUERY, "-t", ROOT + name.getMethodName() +".jsonld"});
@@ -153,6 +178,77 @@ public class HalyardExportTest {
         assertEquals(1000, getTriplesCount(ROOT + name.getMethodName() +".ttl.bz2", CompressorStreamFactory.BZIP2, RDFFormat.TURTLE));
     }
 
+    @Test
+    public void testExport_ORC() throws Exception {
+        HalyardExport.main(new String[] {"-s", TABLE, "-q", "select ?s (strlen(?o) as ?l) where {?s ?p ?o}", "-t", ROOT + name.getMethodName() +".orc"});
+        Reader reader = OrcFile.createReader(new Path(URI.create(ROOT + name.getMethodName() +".orc")), OrcFile.readerOptions(HBaseServerTestInstance.getInstanceConfig()));
+        assertEquals(1000, reader.getNumberOfRows());
+        assertEquals("struct<s:string,l:string>", reader.getObjectInspector().getTypeName());
+    }
+
+    @Test
+    public void testExport_ORC_Types() throws Exception {
+        Configuration cfg = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        cfg.set(HalyardExport.ORC_TYPES_PROPERTY, "l:bigint");
+        HalyardExport.export(cfg, new HalyardExport.StatusLog() {
+            @Override
+            public void tick() {
+            }
+
+            @Override
+            public void logStatus(String status) {
+            }
+        }, TABLE, "select ?s (strlen(?o) as ?l) where {?s ?p ?o}", ROOT + name.getMethodName() +".orc", null, null, null, false);
+        Reader reader = OrcFile.createReader(new Path(URI.create(ROOT + name.getMethodName() +".orc")), OrcFile.readerOptions(HBaseServerTestInstance.getInstanceConfig()));
+        assertEquals(1000, reader.getNumberOfRows());
+        assertEquals("struct<s:string,l:bigint>", reader.getObjectInspector().getTypeName());
+    }
+
+    @Test(expected = ExportException.class)
+    public void testExport_ORC_InvalidValue() throws Exception {
+        Configuration cfg = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        //the subject IRIs do not fit the bigint column
+        cfg.set(HalyardExport.ORC_TYPES_PROPERTY, "s:bigint");
+        HalyardExport.export(cfg, new HalyardExport.StatusLog() {
+            @Override
+            public void tick() {
+            }
+
+            @Override
+            public void logStatus(String status) {
+            }
+        }, TABLE, "select ?s (strlen(?o) as ?l) where {?s ?p ?o}", ROOT + name.getMethodName() +".orc", null, null, null, false);
+    }
+
+    @Test
+    public void testExport_ORC_InvalidCompression() throws Exception {
+        Configuration cfg = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+        cfg.set(HalyardExport.ORC_COMPRESSION_PROPERTY, "whatever");
+        try {
+            HalyardExport.export(cfg, new HalyardExport.StatusLog() {
+                @Override
+                public void tick() {
+                }
+
+                @Override
+                public void logStatus(String status) {
+                }
+            }, TABLE, TUPLE_QUERY, ROOT + name.getMethodName() +".orc", null, null, null, false);
+            fail("Expected ExportException");
+        } catch (ExportException expected) {
+        }
+        //the invalid configuration is rejected before the file is created
+        assertFalse(new File(URI.create(ROOT + name.getMethodName() +".orc")).exists());
+    }
+
+    @Test
+    public void testExport_Graph_ORC() throws Exception {
+        HalyardExport.main(new String[] {"-s", TABLE, "-q", GRAPH_QUERY, "-t", ROOT + name.getMethodName() +".orc"});
+        Reader reader = OrcFile.createReader(new Path(URI.create(ROOT + name.getMethodName() +".orc")), OrcFile.readerOptions(HBaseServerTestInstance.getInstanceConfig()));
+        assertEquals(1000, reader.getNumberOfRows());
+        assertEquals("struct<subject:string,predicate:string,object:string,context:string>", reader.getObjectInspector().getTypeName());
+    }
+
     public static int getLinesCount(String uri, String compression) throws Exception {
         InputStream in = FileSystem.get(URI.create(uri), HBaseServerTestInstance.getInstanceConfig()).open(new Path(uri));
         try {
@@ -255,4 +351,114 @@ public class HalyardExportTest {
             } catch (SQLException ignore) {}
         }
     }
+
+    @Test
+    public void testExportJDBCRollback() throws Exception {
+        Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+        try (Connection c = DriverManager.getConnection("jdbc:derby:memory:halyard-export-test;create=true")) {
+            //the exported object values do not fit the column
+            c.createStatement().executeUpdate("create table " + name.getMethodName() + " (s varchar(100), p varchar(100), o varchar(5))");
+            c.createStatement().executeUpdate("insert into " + name.getMethodName() + " values ('s', 'p', 'o')");
+        }
+        try {
+            Configuration cfg = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+            cfg.setInt(HalyardExport.JDBC_WRITERS_PROPERTY, 1);
+            try {
+                HalyardExport.export(cfg, new HalyardExport.StatusLog() {
+                    @Override
+                    public void tick() {
+                    }
+
+                    @Override
+                    public void logStatus(String status) {
+                    }
+                }, TABLE, TUPLE_QUERY, "jdbc:derby:memory:halyard-export-test/" + name.getMethodName(), "org.apache.derby.jdbc.EmbeddedDriver", null, null, true);
+                fail("Expected ExportException");
+            } catch (ExportException expected) {
+            }
+            //the trim is rolled back together with the failed inserts
+            try (Connection c = DriverManager.getConnection("jdbc:derby:memory:halyard-export-test")) {
+                try (ResultSet rs = c.createStatement().executeQuery("select count(*) from " + name.getMethodName())) {
+                    assertTrue(rs.next());
+                    assertEquals(1, rs.getInt(1));
+                }
+            }
+        } finally {
+            try {
+                DriverManager.getConnection("jdbc:derby:memory:halyard-export-test;shutdown=true").close();
+            } catch (SQLException ignore) {}
+        }
+    }
+
+    @Test
+    public void testExportJDBCInvalidTimestamp() throws Exception {
+        Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+        try (Connection c = DriverManager.getConnection("jdbc:derby:memory:halyard-export-test;create=true")) {
+            //the exported object values are not convertible to timestamps
+            c.createStatement().executeUpdate("create table " + name.getMethodName() + " (s varchar(100), o timestamp)");
+            c.createStatement().executeUpdate("insert into " + name.getMethodName() + " values ('s', current_timestamp)");
+        }
+        try {
+            try {
+                HalyardExport.export(new Configuration(HBaseServerTestInstance.getInstanceConfig()), new HalyardExport.StatusLog() {
+                    @Override
+                    public void tick() {
+                    }
+
+                    @Override
+                    public void logStatus(String status) {
+                    }
+                }, TABLE, "select ?s ?o where {?s ?p ?o}", "jdbc:derby:memory:halyard-export-test/" + name.getMethodName(), "org.apache.derby.jdbc.EmbeddedDriver", null, null, true);
+                fail("Expected ExportException");
+            } catch (ExportException expected) {
+            }
+            //the trim is rolled back
+            try (Connection c = DriverManager.getConnection("jdbc:derby:memory:halyard-export-test")) {
+                try (ResultSet rs = c.createStatement().executeQuery("select count(*) from " + name.getMethodName())) {
+                    assertTrue(rs.next());
+                    assertEquals(1, rs.getInt(1));
+                }
+            }
+        } finally {
+            try {
+                DriverManager.getConnection("jdbc:derby:memory:halyard-export-test;shutdown=true").close();
+            } catch (SQLException ignore) {}
+        }
+    }
+
+    @Test
+    public void testExportJDBCParallel() throws Exception {
+        Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+        try (Connection c = DriverManager.getConnection("jdbc:derby:memory:halyard-export-test;create=true")) {
+            c.createStatement().executeUpdate("create table " + name.getMethodName() + " (s varchar(100), p varchar(100), o varchar(100))");
+        }
+        try {
+            Configuration cfg = new Configuration(HBaseServerTestInstance.getInstanceConfig());
+            cfg.setInt(HalyardExport.JDBC_WRITERS_PROPERTY, 3);
+            cfg.setInt(HalyardExport.JDBC_BATCH_SIZE_PROPERTY, 7);
+            cfg.setLong(HalyardExport.JDBC_COMMIT_ROWS_PROPERTY, 50);
+            final AtomicInteger ticks = new AtomicInteger();
+            HalyardExport.export(cfg, new HalyardExport.StatusLog() {
+                @Override
+                public void tick() {
+                    ticks.incrementAndGet();
+                }
+
+                @Override
+                public void logStatus(String status) {
+                }
+            }, TABLE, TUPLE_QUERY, "jdbc:derby:memory:halyard-export-test/" + name.getMethodName(), "org.apache.derby.jdbc.EmbeddedDriver", null, null, true);
+            assertEquals(1000, ticks.get());
+            try (Connection c = DriverManager.getConnection("jdbc:derby:memory:halyard-export-test")) {
+                try (ResultSet rs = c.createStatement().executeQuery("select count(*) from " + name.getMethodName())) {
+                    assertTrue(rs.next());
+                    assertEquals(1000, rs.getInt(1));
+                }
+            }
+        } finally {
+            try {
+                DriverManager.getConnection("jdbc:derby:memory:halyard-export-test;shutdown=true").close();
+            } catch (SQLException ignore) {}
+        }
+    }
 }
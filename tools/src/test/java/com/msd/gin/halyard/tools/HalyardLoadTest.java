@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.tools;
+
+import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.sail.HBaseSail;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.hadoop.util.ToolRunner;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HalyardLoadTest {
+
+    @Test
+    public void testLoad() throws Exception {
+        File root = File.createTempFile("test_load_triples", "");
+        root.delete();
+        root.mkdirs();
+        for (int f = 0; f < 3; f++) {
+            try (PrintStream ps = new PrintStream(new File(root, "test_load_triples" + f + ".ttl"))) {
+                for (int i = 0; i < 300; i++) {
+                    ps.println("<http://whatever/subj" + f + "_" + i + "> <http://whatever/pred> \"value" + i + "\" .");
+                }
+            }
+        }
+        try (PrintStream ps = new PrintStream(new GZIPOutputStream(new FileOutputStream(new File(root, "test_load_triples.nt.gz"))))) {
+            for (int i = 0; i < 100; i++) {
+                ps.println("<http://whatever/NTsubj> <http://whatever/NTpred" + i + "> \"whatever NT value" + i + "\" .");
+            }
+        }
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardLoad(), new String[]{"-Dhalyard.table.splitbits=1", "-Dhalyard.load.threads=2", "-Dhalyard.load.write.buffer=10000", root.toURI().toURL().toString(), "loadTable"}));
+
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "loadTable", false, 0, true, 0, null);
+        SailRepository rep = new SailRepository(sail);
+        rep.initialize();
+        TupleQuery q = rep.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, "select (count(*) as ?c) where {?s ?p ?o}");
+        TupleQueryResult res = q.evaluate();
+        assertTrue(res.hasNext());
+        assertEquals(1000, ((Literal)res.next().getValue("c")).intValue());
+        rep.shutDown();
+    }
+
+    @Test
+    public void testRunNoArgs() throws Exception {
+        assertEquals(-1, new HalyardLoad().run(new String[0]));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Merck Sharp & Dohme Corp. a subsidiary of Merck & Co.,
+ * Inc., Kenilworth, NJ, USA.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msd.gin.halyard.tools;
+
+import com.msd.gin.halyard.common.HBaseServerTestInstance;
+import com.msd.gin.halyard.sail.HBaseSail;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.util.ToolRunner;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HalyardLocalBulkLoadTest {
+
+    @Test
+    public void testLocalBulkLoad() throws Exception {
+        File root = File.createTempFile("test_local_triples", "");
+        root.delete();
+        root.mkdirs();
+        try (PrintStream ps = new PrintStream(new File(root, "test_local_triples.nq"))) {
+            for (int i = 0; i < 1000; i++) {
+                ps.println("<http://whatever/subj" + i + "> <http://whatever/pred> \"value" + (i % 10) + "\" <http://whatever/graph" + (i % 3) + "> .");
+            }
+        }
+        try (PrintStream ps = new PrintStream(new GZIPOutputStream(new FileOutputStream(new File(root, "test_local_triples.nt.gz"))))) {
+            for (int i = 0; i < 100; i++) {
+                ps.println("<http://whatever/NTsubj> <http://whatever/NTpred" + i + "> \"whatever NT value" + i + "\" .");
+                //duplicate statements are loaded only once
+                ps.println("<http://whatever/NTsubj> <http://whatever/NTpred" + i + "> \"whatever NT value" + i + "\" .");
+            }
+        }
+        try (PrintStream ps = new PrintStream(new File(root, "test_local_triples_invalid.nt"))) {
+            ps.println("this is an invalid NT file content");
+        }
+        File htableDir = File.createTempFile("test_local_htable", "");
+        htableDir.delete();
+        assertEquals(0, ToolRunner.run(HBaseServerTestInstance.getInstanceConfig(), new HalyardLocalBulkLoad(), new String[]{"-Dhalyard.table.splitbits=1", "-Dhalyard.parser.skipinvalid=true", "-Dhalyard.localbulkload.threads=4", "-Dhalyard.localbulkload.run.size=500", root.toURI().toURL().toString(), htableDir.toURI().toURL().toString(), "localBulkLoadTable"}));
+
+        HBaseSail sail = new HBaseSail(HBaseServerTestInstance.getInstanceConfig(), "localBulkLoadTable", false, 0, true, 0, null);
+        SailRepository rep = new SailRepository(sail);
+        rep.initialize();
+        TupleQuery q = rep.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, "select (count(*) as ?c) (count(distinct ?o) as ?n) where {graph ?g {?s ?p ?o}}");
+        TupleQueryResult res = q.evaluate();
+        assertTrue(res.hasNext());
+        BindingSet bs = res.next();
+        assertEquals(1000, ((Literal)bs.getValue("c")).intValue());
+        assertEquals(10, ((Literal)bs.getValue("n")).intValue());
+        q = rep.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, "select (count(*) as ?c) where {<http://whatever/NTsubj> ?p ?o}");
+        res = q.evaluate();
+        assertEquals(100, ((Literal)res.next().getValue("c")).intValue());
+        rep.shutDown();
+    }
+
+    @Test
+    public void testMergeRuns() throws Exception {
+        Configuration conf = HBaseServerTestInstance.getInstanceConfig();
+        File root = File.createTempFile("test_local_runs", "");
+        root.delete();
+        Path familyDir = new Path(new Path(root.toURI()), "e");
+        FileSystem fs = familyDir.getFileSystem(conf);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            HalyardLocalBulkLoad.RegionRuns runs = new HalyardLocalBulkLoad.RegionRuns(conf, fs, familyDir, new HColumnDescriptor("e"), new byte[][] {new byte[0], Bytes.toBytes("m")}, executor, 2, 10);
+            for (int i = 0; i < 100; i++) {
+                //each key is repeated in multiple runs
+                runs.add(Collections.singletonList(new KeyValue(Bytes.toBytes((i % 2 == 0 ? "a" : "n") + (i % 20)), Bytes.toBytes("e"), Bytes.toBytes("q"), 1l, Bytes.toBytes("v"))));
+            }
+            runs.close();
+        } finally {
+            executor.shutdownNow();
+        }
+        FileStatus files[] = fs.listStatus(familyDir);
+        //a single merged HFile per region
+        assertEquals(2, files.length);
+        assertFalse(fs.exists(new Path(new Path(root.toURI()), "_runs")));
+        for (FileStatus file : files) {
+            HFile.Reader reader = HFile.createReader(fs, file.getPath(), new CacheConfig(conf), conf);
+            try {
+                reader.loadFileInfo();
+                assertEquals(10, reader.getEntries());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testGetRegion() {
+        byte[][] startKeys = new byte[][] {new byte[0], Bytes.toBytes("b"), Bytes.toBytes("d")};
+        assertEquals(0, HalyardLocalBulkLoad.RegionRuns.getRegion(startKeys, Bytes.toBytes("a")));
+        assertEquals(1, HalyardLocalBulkLoad.RegionRuns.getRegion(startKeys, Bytes.toBytes("b")));
+        assertEquals(1, HalyardLocalBulkLoad.RegionRuns.getRegion(startKeys, Bytes.toBytes("c")));
+        assertEquals(2, HalyardLocalBulkLoad.RegionRuns.getRegion(startKeys, Bytes.toBytes("z")));
+    }
+
+    @Test
+    public void testRunNoArgs() throws Exception {
+        assertEquals(-1, new HalyardLocalBulkLoad().run(new String[0]));
+    }
+}
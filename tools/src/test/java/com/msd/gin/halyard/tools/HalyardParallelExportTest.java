@@ -18,7 +18,15 @@ package com.msd.gin.halyard.tools;
 
 import com.msd.gin.halyard.common.HBaseServerTestInstance;
 import com.msd.gin.halyard.sail.HBaseSail;
+import com.msd.gin.halyard.strategy.KeyRangeFunction;
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.util.ToolRunner;
 import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
@@ -56,6 +64,66 @@ public class HalyardParallelExportTest {
         assertEquals(1002, HalyardExportTest.getLinesCount(f0.toURI().toURL().toString(), null) + HalyardExportTest.getLinesCount(f1.toURI().toURL().toString(), null));
     }
 
+    @Test
+    public void testGetSplits() throws Exception {
+        TableName table = TableName.valueOf("splitsTable");
+        List<HRegionLocation> regions = Arrays.asList(
+                new HRegionLocation(new HRegionInfo(table, new byte[0], new byte[] {0, 0x40}), ServerName.valueOf("host1", 16020, 0)),
+                new HRegionLocation(new HRegionInfo(table, new byte[] {0, 0x40}, new byte[] {1}), ServerName.valueOf("host2", 16020, 0)),
+                new HRegionLocation(new HRegionInfo(table, new byte[] {1}, new byte[0]), ServerName.valueOf("host3", 16020, 0)));
+        List<InputSplit> splits = HalyardParallelExport.IndexedInputFormat.getSplits(regions, 1);
+        assertEquals(2, splits.size());
+        HalyardParallelExport.IndexedInputSplit split = (HalyardParallelExport.IndexedInputSplit)splits.get(0);
+        assertEquals(0, split.getStartKey().length);
+        assertArrayEquals(new byte[] {0x40}, split.getStopKey());
+        assertArrayEquals(new String[] {"host1"}, split.getLocations());
+        split = (HalyardParallelExport.IndexedInputSplit)splits.get(1);
+        assertArrayEquals(new byte[] {0x40}, split.getStartKey());
+        assertEquals(0, split.getStopKey().length);
+        assertArrayEquals(new String[] {"host2"}, split.getLocations());
+        splits = HalyardParallelExport.IndexedInputFormat.getSplits(regions, 4);
+        assertEquals(4, splits.size());
+        for (int i = 0; i < 4; i++) {
+            split = (HalyardParallelExport.IndexedInputSplit)splits.get(i);
+            assertEquals(i, split.getIndex());
+            assertArrayEquals(new String[] {i < 2 ? "host1" : "host2"}, split.getLocations());
+            if (i > 0) {
+                assertArrayEquals(((HalyardParallelExport.IndexedInputSplit)splits.get(i - 1)).getStopKey(), split.getStartKey());
+            }
+        }
+    }
+
+    @Test
+    public void testGetSplitsWithMidSubjectBoundaries() throws Exception {
+        TableName table = TableName.valueOf("splitsTable");
+        byte[] subj = new byte[20];
+        Arrays.fill(subj, (byte)0x40);
+        //auto-split region boundaries are full row keys of the subject, predicate and object hashes
+        byte[] boundary1 = new byte[61];
+        System.arraycopy(subj, 0, boundary1, 1, 20);
+        boundary1[30] = 0x10;
+        byte[] boundary2 = boundary1.clone();
+        boundary2[30] = 0x20;
+        List<HRegionLocation> regions = Arrays.asList(
+                new HRegionLocation(new HRegionInfo(table, new byte[0], boundary1), ServerName.valueOf("host1", 16020, 0)),
+                new HRegionLocation(new HRegionInfo(table, boundary1, boundary2), ServerName.valueOf("host2", 16020, 0)),
+                new HRegionLocation(new HRegionInfo(table, boundary2, new byte[] {1}), ServerName.valueOf("host3", 16020, 0)),
+                new HRegionLocation(new HRegionInfo(table, new byte[] {1}, new byte[0]), ServerName.valueOf("host4", 16020, 0)));
+        List<InputSplit> splits = HalyardParallelExport.IndexedInputFormat.getSplits(regions, 1);
+        //the boundaries inside the same subject are cut to the subject hash and de-duplicated
+        assertEquals(2, splits.size());
+        HalyardParallelExport.IndexedInputSplit split = (HalyardParallelExport.IndexedInputSplit)splits.get(0);
+        assertEquals(0, split.getStartKey().length);
+        assertArrayEquals(subj, split.getStopKey());
+        split = (HalyardParallelExport.IndexedInputSplit)splits.get(1);
+        assertArrayEquals(subj, split.getStartKey());
+        assertEquals(0, split.getStopKey().length);
+        assertArrayEquals(new String[] {"host2"}, split.getLocations());
+        //the whole subject is accepted by the upper split only
+        assertFalse(KeyRangeFunction.isInRange(subj, new byte[][] {null, subj}));
+        assertTrue(KeyRangeFunction.isInRange(subj, new byte[][] {subj, null}));
+    }
+
     @Test
     public void testRunNoArgs() throws Exception {
         assertEquals(-1, new HalyardParallelExport().run(new String[0]));